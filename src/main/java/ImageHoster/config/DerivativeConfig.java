@@ -0,0 +1,26 @@
+package ImageHoster.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+@EnableScheduling
+public class DerivativeConfig {
+
+    //Worker pool which generates the thumbnail and medium versions of the uploaded images
+    //Decoding an image takes width * height * 4 bytes of heap, so the number of threads bounds the memory used by the pool
+    //Images which do not fit into the queue stay PENDING and are queued again by DerivativeService.schedulePending()
+    @Bean
+    public ThreadPoolTaskExecutor derivativeExecutor(@Value("${imagehoster.derivatives.threads:2}") int threads,
+                                                     @Value("${imagehoster.derivatives.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("derivative-");
+        return executor;
+    }
+}
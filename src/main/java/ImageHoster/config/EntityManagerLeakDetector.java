@@ -0,0 +1,166 @@
+package ImageHoster.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Finds EntityManagers which are never closed, every open EntityManager holds its persistence context and possibly a pooled connection
+//track() wraps the EntityManagerFactory so that every EntityManager it creates is recorded with the stack trace of its creation until it is closed
+//As a servlet filter it checks at the end of each request that the EntityManagers created by the request have been closed,
+//and check() regularly reports the EntityManagers created outside of requests (scheduled jobs, worker pools) which are open for too long
+//'imagehoster.jpa.leak-detection' in application.properties: 'log' logs the leaks, 'fail' also fails the request (for tests), 'off' disables the detector
+public class EntityManagerLeakDetector extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityManagerLeakDetector.class);
+
+    public enum Mode {
+        OFF, LOG, FAIL
+    }
+
+    private final Mode mode;
+
+    private final long threshold;
+
+    //EntityManagers which are open, with the place where they have been created
+    private final Set<Allocation> open = ConcurrentHashMap.newKeySet();
+
+    //EntityManagers created by the request being processed on this thread
+    private final ThreadLocal<List<Allocation>> requestAllocations = new ThreadLocal<>();
+
+    public EntityManagerLeakDetector(Mode mode, long threshold) {
+        this.mode = mode;
+        this.threshold = threshold;
+    }
+
+    //Returns the factory which records the EntityManagers created by the given factory, or the factory itself if the detector is off
+    public EntityManagerFactory track(EntityManagerFactory target) {
+        if (mode == Mode.OFF) {
+            return target;
+        }
+        return (EntityManagerFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+                ClassUtils.getAllInterfaces(target), (proxy, method, args) -> {
+                    if (isIdentityMethod(method)) {
+                        return identity(proxy, method, args);
+                    }
+                    Object result = invoke(target, method, args);
+                    if (result instanceof EntityManager) {
+                        return track((EntityManager) result);
+                    }
+                    //Spring's JpaTransactionManager creates its EntityManagers from the native factory
+                    if (result instanceof EntityManagerFactory && "getNativeEntityManagerFactory".equals(method.getName())) {
+                        return track((EntityManagerFactory) result);
+                    }
+                    return result;
+                });
+    }
+
+    //Returns the number of EntityManagers which are open
+    public int getOpenCount() {
+        return open.size();
+    }
+
+    private EntityManager track(EntityManager target) {
+        Allocation allocation = new Allocation();
+        EntityManager tracked = (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                ClassUtils.getAllInterfaces(target), (proxy, method, args) -> {
+                    if (isIdentityMethod(method)) {
+                        return identity(proxy, method, args);
+                    }
+                    if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                        open.remove(allocation);
+                    }
+                    return invoke(target, method, args);
+                });
+
+        open.add(allocation);
+        List<Allocation> allocations = requestAllocations.get();
+        if (allocations != null) {
+            allocations.add(allocation);
+        }
+        return tracked;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (mode == Mode.OFF) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        List<Allocation> allocations = new ArrayList<>();
+        requestAllocations.set(allocations);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            requestAllocations.remove();
+        }
+
+        for (Allocation allocation : allocations) {
+            if (open.contains(allocation)) {
+                leaked(allocation, "EntityManager outlived the request " + request.getMethod() + " " + request.getRequestURI());
+            }
+        }
+    }
+
+    //Reports the EntityManagers which have been open for longer than 'imagehoster.jpa.leak-threshold' ms
+    //Each of them is reported once
+    @Scheduled(fixedDelayString = "${imagehoster.jpa.leak-threshold:60000}")
+    public void check() {
+        long limit = System.currentTimeMillis() - threshold;
+        for (Allocation allocation : open) {
+            if (allocation.createdAt < limit && !allocation.reported) {
+                allocation.reported = true;
+                log.warn("EntityManager open for more than {} ms", threshold, allocation.stackTrace);
+            }
+        }
+    }
+
+    private void leaked(Allocation allocation, String message) {
+        allocation.reported = true;
+        if (mode == Mode.FAIL) {
+            throw new IllegalStateException(message, allocation.stackTrace);
+        }
+        log.warn(message, allocation.stackTrace);
+    }
+
+    //The proxies are used as map keys by Spring (transaction resources), they are equal only to themselves
+    private static boolean isIdentityMethod(Method method) {
+        return ("equals".equals(method.getName()) && method.getParameterCount() == 1)
+                || ("hashCode".equals(method.getName()) && method.getParameterCount() == 0);
+    }
+
+    private static Object identity(Object proxy, Method method, Object[] args) {
+        return "equals".equals(method.getName()) ? proxy == args[0] : System.identityHashCode(proxy);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static class Allocation {
+        private final long createdAt = System.currentTimeMillis();
+        private final Throwable stackTrace = new Throwable("EntityManager created by thread " + Thread.currentThread().getName());
+        private volatile boolean reported;
+    }
+}
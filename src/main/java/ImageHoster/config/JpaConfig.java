@@ -1,32 +1,163 @@
 package ImageHoster.config;
 
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jpa.HibernateMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.support.OpenEntityManagerInViewInterceptor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class JpaConfig {
 
+    //The persistence unit takes its connections from the pools below instead of opening its own JDBC connections
+    //The repositories never create EntityManagers themselves, they use the shared EntityManager of @PersistenceContext which is bound to
+    //the current transaction (see transactionManager()) or to the current web request ('spring.jpa.open-in-view' in application.properties)
+    //The regions of the second-level cache are configured in ehcache.xml, which JCache expects as a URI rather than a classpath location
+    //The statistics of the persistence unit, including the hits and misses of the cache regions, are published as hibernate.* metrics
+    //The migrations of the schema run first (Spring Boot orders them only before its own EntityManagerFactory bean)
     @Bean
-    public EntityManagerFactory entityManagerFactory() {
+    @DependsOn("flywayInitializer")
+    public EntityManagerFactory entityManagerFactory(DataSource dataSource, EntityManagerLeakDetector leakDetector,
+                                                     MeterRegistry meterRegistry,
+                                                     @Value("${spring.jpa.database-platform:}") String databasePlatform,
+                                                     @Value("${spring.jpa.hibernate.ddl-auto:}") String ddlAuto) throws IOException {
         LocalContainerEntityManagerFactoryBean emfb = new LocalContainerEntityManagerFactoryBean();
         emfb.setPersistenceXmlLocation("classpath:META-INF/persistence.xml");
+        emfb.setDataSource(dataSource);
+        //The dialect of persistence.xml (Postgres) can be replaced, the integration tests run against H2
+        if (!databasePlatform.isEmpty()) {
+            emfb.getJpaPropertyMap().put("hibernate.dialect", databasePlatform);
+        }
+        //So can the validation of the schema created by the migrations
+        if (!ddlAuto.isEmpty()) {
+            emfb.getJpaPropertyMap().put("hibernate.hbm2ddl.auto", ddlAuto);
+        }
+        emfb.getJpaPropertyMap().put("hibernate.javax.cache.uri", new ClassPathResource("ehcache.xml").getURI().toString());
         emfb.afterPropertiesSet();
-        return emfb.getObject();
+
+        EntityManagerFactory emf = emfb.getObject();
+        HibernateMetrics.monitor(meterRegistry, emf, "imageHoster");
+        return leakDetector.track(emf);
+    }
+
+    //Runs the @Transactional methods of the repositories and services in a JPA transaction
+    //The EntityManager of the transaction is closed, and its connection returned to the pool, when the transaction ends
+    @Bean
+    public PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+        return new JpaTransactionManager(entityManagerFactory);
+    }
+
+    //The EntityManager of each web request, see 'spring.jpa.open-in-view' in application.properties
+    //It replaces the interceptor of Spring Boot, which applies to every request, to leave out the streams of new comments (CommentHub):
+    //such a request stays open as long as the page and would hold its EntityManager all that time
+    @Bean
+    @ConditionalOnProperty(name = "spring.jpa.open-in-view", havingValue = "true", matchIfMissing = true)
+    public OpenEntityManagerInViewInterceptor openEntityManagerInViewInterceptor(EntityManagerFactory entityManagerFactory) {
+        OpenEntityManagerInViewInterceptor interceptor = new OpenEntityManagerInViewInterceptor();
+        interceptor.setEntityManagerFactory(entityManagerFactory);
+        return interceptor;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "spring.jpa.open-in-view", havingValue = "true", matchIfMissing = true)
+    public WebMvcConfigurer openEntityManagerInViewConfigurer(OpenEntityManagerInViewInterceptor interceptor) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addWebRequestInterceptor(interceptor).excludePathPatterns("/image/*/comments/stream");
+            }
+        };
     }
 
+    //Detects EntityManagers which are not closed, see EntityManagerLeakDetector
+    //The filter wraps the whole request, so it checks the EntityManagers after the request EntityManager has been closed
     @Bean
-    public DataSource dataSource() {
-        DriverManagerDataSource ds = new DriverManagerDataSource();
-        ds.setDriverClassName("org.postgresql.Driver");
-        ds.setUrl("jdbc:postgresql://localhost:5432/imageHoster");
-        ds.setUsername("postgres");
-        ds.setPassword("password");
+    public EntityManagerLeakDetector entityManagerLeakDetector(@Value("${imagehoster.jpa.leak-detection:log}") String mode,
+                                                               @Value("${imagehoster.jpa.leak-threshold:60000}") long threshold) {
+        return new EntityManagerLeakDetector(EntityManagerLeakDetector.Mode.valueOf(mode.trim().toUpperCase()), threshold);
+    }
+
+    @Bean
+    public FilterRegistrationBean<EntityManagerLeakDetector> entityManagerLeakDetectorFilter(EntityManagerLeakDetector leakDetector) {
+        FilterRegistrationBean<EntityManagerLeakDetector> registration = new FilterRegistrationBean<>(leakDetector);
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return registration;
+    }
+
+    //Connections of the EntityManagerFactory and of Spring (health check, JDBC)
+    //The read-only operations go to the read replicas of 'imagehoster.datasource.replicas' and everything else to the primary pool,
+    //without replicas every connection comes from the primary pool, see ReplicaRoutingDataSource
+    //The pools are HikariCP pools configured by the 'spring.datasource.hikari.*' properties in application.properties: size, timeouts,
+    //leak detection and the prepared statement cache of the Postgres driver (data-source-properties). The replicas use the credentials of
+    //the primary and are named after it
+    //The pools publish their metrics as hikaricp.connections.* (active, idle, pending, acquire time, timeouts) at /actuator/metrics
+    //The pools are not beans of their own: Spring Boot expects a single DataSource bean
+    @Bean
+    public ReplicaRoutingDataSource dataSource(Environment environment,
+                                               @Value("${spring.datasource.driver-class-name:org.postgresql.Driver}") String driverClassName,
+                                               @Value("${spring.datasource.url:jdbc:postgresql://localhost:5432/imageHoster}") String url,
+                                               @Value("${spring.datasource.username:postgres}") String username,
+                                               @Value("${spring.datasource.password:password}") String password,
+                                               @Value("${imagehoster.datasource.replicas:}") String replicas,
+                                               @Value("${imagehoster.datasource.replica-lag-tolerance:5000}") long replicaLagTolerance,
+                                               @Value("${imagehoster.datasource.replica-lag-query:}") String lagQuery,
+                                               MeterRegistry meterRegistry) {
+        HikariDataSource primary = pool(environment, driverClassName, url, username, password, meterRegistry);
+
+        List<HikariDataSource> replicaPools = new ArrayList<>();
+        for (String replicaUrl : StringUtils.commaDelimitedListToStringArray(replicas)) {
+            if (replicaUrl.trim().isEmpty()) {
+                continue;
+            }
+            HikariDataSource replica = pool(environment, driverClassName, replicaUrl.trim(), username, password, meterRegistry);
+            replica.setPoolName(primary.getPoolName() + "-replica-" + (replicaPools.size() + 1));
+            replica.setReadOnly(true);
+            replicaPools.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primary, replicaPools, replicaLagTolerance, lagQuery, meterRegistry);
+    }
+
+    //Read-your-writes for the sessions which have just written, see ReplicaRoutingDataSource
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter() {
+        FilterRegistrationBean<ReadYourWritesFilter> registration = new FilterRegistrationBean<>(new ReadYourWritesFilter());
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 2);
+        return registration;
+    }
+
+    private static HikariDataSource pool(Environment environment, String driverClassName, String url, String username, String password,
+                                         MeterRegistry meterRegistry) {
+        HikariDataSource ds = new HikariDataSource();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(ds));
+        ds.setDriverClassName(driverClassName);
+        ds.setJdbcUrl(url);
+        ds.setUsername(username);
+        ds.setPassword(password);
+        //must be set before the pool starts, i.e. before the first connection is requested
+        ds.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
         return ds;
     }
 }
-
@@ -0,0 +1,40 @@
+package ImageHoster.config;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+
+//Keeps the time of the last write of a session in the session, so that the reads of its next requests go to the primary
+//while the replicas may not have the write yet, see ReplicaRoutingDataSource
+//Requests which may write (anything but GET and HEAD) get a session before they run, the session cookie cannot be sent anymore
+//once the response has been committed by a redirect
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String LAST_WRITE = "imagehoster.lastWrite";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        boolean safe = "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+        HttpSession session = request.getSession(!safe);
+        Long before = session == null ? null : (Long) session.getAttribute(LAST_WRITE);
+
+        ReplicaRoutingDataSource.setLastWrite(before);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            Long after = ReplicaRoutingDataSource.getLastWrite();
+            ReplicaRoutingDataSource.setLastWrite(null);
+            if (after != null && !after.equals(before)) {
+                session = request.getSession(false);
+                if (session != null) {
+                    session.setAttribute(LAST_WRITE, after);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package ImageHoster.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Sends the read-only repository operations to the read replicas and everything else to the primary
+//A read-only operation is one running in @Transactional(readOnly = true); the repositories use propagation SUPPORTS for their reads, so that
+//they run without a transaction of their own and join the transaction of the caller, a read inside a writing transaction stays on the primary
+//Statements outside of any transaction (schema update at startup, scheduled jobs) go to the primary as well
+//The decision is taken when the connection is obtained, which is deferred (LazyConnectionDataSourceProxy) until the first statement of the
+//transaction, once the read-only flag of the transaction is known
+//
+//Read-your-writes: after a writing transaction the thread reads from the primary for 'replicaLagTolerance' ms, long enough for the replicas
+//to have caught up. ReadYourWritesFilter carries the time of the last write from one request of a session to the next, so that the user who
+//just uploaded or commented sees the change on the next page
+//Replica lag: check() runs 'lagQuery' on every replica, a replica which is further behind than 'replicaLagTolerance' or does not answer
+//is skipped until it has caught up. If no replica is usable the reads go to the primary
+//Metrics, available at /actuator/metrics:
+//  imagehoster.datasource.connections   connections obtained, tagged with target 'primary' or 'replica'
+//  imagehoster.datasource.replica.lag   replication lag of each replica in ms, tagged with the pool name of the replica
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private static final String PRIMARY = "primary";
+
+    //Time of the last write of the current thread, or of the session of the current request, see ReadYourWritesFilter
+    private static final ThreadLocal<Long> lastWrite = new ThreadLocal<>();
+
+    private final HikariDataSource primary;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final long replicaLagTolerance;
+
+    private final String lagQuery;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final Counter primaryConnections;
+
+    private final Counter replicaConnections;
+
+    public ReplicaRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicaPools, long replicaLagTolerance, String lagQuery,
+                                    MeterRegistry registry) {
+        this.primary = primary;
+        this.replicaLagTolerance = replicaLagTolerance;
+        this.lagQuery = lagQuery;
+        this.primaryConnections = registry.counter("imagehoster.datasource.connections", "target", "primary");
+        this.replicaConnections = registry.counter("imagehoster.datasource.connections", "target", "replica");
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (HikariDataSource pool : replicaPools) {
+            Replica replica = new Replica(pool);
+            replicas.add(replica);
+            targets.put(pool.getPoolName(), pool);
+            registry.gauge("imagehoster.datasource.replica.lag", Tags.of("replica", pool.getPoolName()),
+                    replica, r -> r.lag);
+        }
+        Router router = new Router();
+        router.setTargetDataSources(targets);
+        router.setDefaultTargetDataSource(primary);
+        router.afterPropertiesSet();
+
+        //The defaults are the ones of the pooled Postgres connections, otherwise the proxy would open a connection at startup to find them out
+        setTargetDataSource(router);
+        setDefaultAutoCommit(true);
+        setDefaultTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        afterPropertiesSet();
+    }
+
+    //Returns the time of the last write of the current thread, null if it has not written
+    public static Long getLastWrite() {
+        return lastWrite.get();
+    }
+
+    //Sets the time of the last write for the current thread, null clears it
+    public static void setLastWrite(Long time) {
+        if (time == null) {
+            lastWrite.remove();
+        } else {
+            lastWrite.set(time);
+        }
+    }
+
+    //Chooses the pool of each connection
+    private Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                lastWrite.set(System.currentTimeMillis());
+            }
+            primaryConnections.increment();
+            return PRIMARY;
+        }
+
+        Long written = lastWrite.get();
+        Replica replica = written != null && System.currentTimeMillis() - written < replicaLagTolerance ? null : nextReplica();
+        if (replica == null) {
+            primaryConnections.increment();
+            return PRIMARY;
+        }
+        replicaConnections.increment();
+        return replica.pool.getPoolName();
+    }
+
+    //Returns the next usable replica in turn, null if there is none
+    private Replica nextReplica() {
+        int size = replicas.size();
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), size));
+            if (replica.lag <= replicaLagTolerance) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    //Measures the replication lag of every replica, a replica which cannot be queried counts as infinitely far behind
+    @Scheduled(fixedDelayString = "${imagehoster.datasource.replica-lag-check-interval:10000}")
+    public void check() {
+        if (lagQuery == null || lagQuery.isEmpty()) {
+            return;
+        }
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.pool.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(lagQuery)) {
+                replica.lag = rs.next() ? rs.getLong(1) : 0;
+            } catch (SQLException e) {
+                replica.lag = Long.MAX_VALUE;
+                log.warn("Could not measure the replication lag of {}, it is not used until it answers", replica.pool.getPoolName(), e);
+            }
+            if (replica.lag > replicaLagTolerance && replica.lag != Long.MAX_VALUE) {
+                log.warn("Replica {} is {} ms behind the primary, it is not used until it has caught up", replica.pool.getPoolName(), replica.lag);
+            }
+        }
+    }
+
+    //Closes the pools of the primary and of the replicas
+    @Override
+    public void close() {
+        primary.close();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    private class Router extends AbstractRoutingDataSource {
+
+        @Override
+        protected Object determineCurrentLookupKey() {
+            return ReplicaRoutingDataSource.this.determineCurrentLookupKey();
+        }
+    }
+
+    private static class Replica {
+
+        private final HikariDataSource pool;
+
+        //Last measured replication lag in ms
+        private volatile long lag;
+
+        private Replica(HikariDataSource pool) {
+            this.pool = pool;
+        }
+    }
+}
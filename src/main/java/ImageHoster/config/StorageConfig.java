@@ -0,0 +1,33 @@
+package ImageHoster.config;
+
+import ImageHoster.storage.BlobStore;
+import ImageHoster.storage.FileSystemBlobStore;
+import ImageHoster.storage.InMemoryBlobStore;
+import ImageHoster.storage.SegmentBlobStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+
+@Configuration
+public class StorageConfig {
+
+    //The type of the store is set by 'imagehoster.storage.type' in application.properties
+    //'filesystem' keeps every image in its own file below 'imagehoster.storage.root'
+    //'segment' appends the images to large segment files below 'imagehoster.storage.root', for tens of millions of images
+    //'memory' keeps them on the heap (tests only)
+    @Bean
+    public BlobStore blobStore(@Value("${imagehoster.storage.type:filesystem}") String type,
+                               @Value("${imagehoster.storage.root:data/blobs}") String root,
+                               @Value("${imagehoster.storage.segment.size:268435456}") long segmentSize,
+                               @Value("${imagehoster.storage.segment.compaction-threshold:0.5}") double compactionThreshold) throws IOException {
+        if ("memory".equals(type)) {
+            return new InMemoryBlobStore();
+        }
+        if ("segment".equals(type)) {
+            return new SegmentBlobStore(root, segmentSize, compactionThreshold);
+        }
+        return new FileSystemBlobStore(root);
+    }
+}
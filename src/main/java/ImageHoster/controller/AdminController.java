@@ -0,0 +1,43 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.User;
+import ImageHoster.service.BlobReferenceService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpSession;
+import java.util.Arrays;
+
+@Controller
+public class AdminController {
+
+    @Autowired
+    private BlobReferenceService blobReferenceService;
+
+    //Usernames allowed to see the admin pages, 'imagehoster.admin.usernames' in application.properties (comma separated)
+    @Value("${imagehoster.admin.usernames:}")
+    private String[] adminUsernames;
+
+    //This controller method is called when the request pattern is of type 'admin/storage'
+    //The method adds the deduplication report of the BlobStore (dedup ratio and bytes saved) to the model and returns 'admin/storage.html' file
+    //Only the users listed in 'imagehoster.admin.usernames' are allowed to see the page, other users get 403 Forbidden
+    @RequestMapping("/admin/storage")
+    public String storageReport(Model model, HttpSession session) {
+        checkAdmin(session);
+        model.addAttribute("report", blobReferenceService.getReport());
+        return "admin/storage";
+    }
+
+    //Throws 403 Forbidden unless the logged in user is an admin
+    void checkAdmin(HttpSession session) {
+        User loggedInUser = (User) session.getAttribute("loggeduser");
+        if (loggedInUser == null || !Arrays.asList(adminUsernames).contains(loggedInUser.getUsername())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+        }
+    }
+}
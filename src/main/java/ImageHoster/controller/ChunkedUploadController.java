@@ -0,0 +1,174 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.TagService;
+import ImageHoster.storage.InvalidUploadException;
+import ImageHoster.upload.ChunkedUploadService;
+import ImageHoster.upload.UploadSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Resumable uploads for large images, used by 'js/chunked-upload.js' instead of the form post to 'images/upload'
+//The client creates an upload, PUTs the numbered chunks (in parallel and again after a failure) and completes the upload
+//with the title, description and tags of the image. The answers are JSON
+@Controller
+public class ChunkedUploadController {
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private TagService tagService;
+
+    //This controller method is called when the request pattern is of type 'images/uploads' and also the incoming request is of POST type
+    //The method starts an upload of 'size' bytes and returns its id, the size of the chunks and the number of chunks
+    //Returns 413 if the file is larger than the largest allowed image, and 401 if no user is logged in
+    @RequestMapping(value = "/images/uploads", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> createUpload(@RequestParam("size") long size, HttpSession session) throws IOException {
+        User user = (User) session.getAttribute("loggeduser");
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        try {
+            UploadSession upload = chunkedUploadService.create(user.getId(), size);
+            return ResponseEntity.created(URI.create("/images/uploads/" + upload.getId())).body(describe(upload));
+        } catch (InvalidUploadException e) {
+            return error(e);
+        }
+    }
+
+    //This controller method returns the state of the upload with corresponding id, the client asks for it to resume an interrupted upload
+    //The 'received' list holds the indexes of the chunks which do not have to be sent again
+    @RequestMapping(value = "/images/uploads/{uploadId}", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> getUpload(@PathVariable("uploadId") String uploadId, HttpSession session) {
+        UploadSession upload = findUpload(uploadId, session);
+        if (upload == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(describe(upload));
+    }
+
+    //This controller method is called when the request pattern is of type 'images/uploads/{uploadId}/chunks/{index}' and also the incoming request is of PUT type
+    //The body of the request is the chunk, it is streamed to disk and must have exactly the length of the chunk
+    @RequestMapping(value = "/images/uploads/{uploadId}/chunks/{index}", method = RequestMethod.PUT)
+    public ResponseEntity<Map<String, Object>> putChunk(@PathVariable("uploadId") String uploadId, @PathVariable("index") int index,
+                                                        HttpServletRequest request, HttpSession session) throws IOException {
+        UploadSession upload = findUpload(uploadId, session);
+        if (upload == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (upload.isCompleting()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.<String, Object>singletonMap("error", "The upload is being completed"));
+        }
+        try {
+            chunkedUploadService.putChunk(upload, index, request.getInputStream());
+        } catch (InvalidUploadException e) {
+            return error(e);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    //This controller method is called when the request pattern is of type 'images/uploads/{uploadId}/complete' and also the incoming request is of POST type
+    //The chunks are streamed in order into the BlobStore through ImageService.storeImageFile(), which checks the size and the format of the file,
+    //then the image is stored with its tags the same way as an image posted to 'images/upload'
+    //Returns the id and the URL of the new image, or 409 if chunks are missing
+    @RequestMapping(value = "/images/uploads/{uploadId}/complete", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> completeUpload(@PathVariable("uploadId") String uploadId, @RequestParam("title") String title,
+                                                              @RequestParam(name = "description", required = false) String description,
+                                                              @RequestParam(name = "tags", defaultValue = "") String tags, HttpSession session) throws IOException {
+        UploadSession upload = findUpload(uploadId, session);
+        if (upload == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!upload.isComplete()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(describe(upload));
+        }
+        if (!upload.startCompleting()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.<String, Object>singletonMap("error", "The upload is already being completed"));
+        }
+
+        Image newImage = new Image();
+        newImage.setTitle(title);
+        newImage.setDescription(description);
+        newImage.setUser((User) session.getAttribute("loggeduser"));
+        try {
+            //the tags are resolved first, the stored file holds a reference which only uploadImage() takes over
+            newImage.setTags(tagService.findOrCreateTags(tags));
+            imageService.storeImageFile(newImage, () -> chunkedUploadService.open(upload));
+        } catch (InvalidUploadException e) {
+            //the file is not an image, sending it again would not help
+            chunkedUploadService.delete(upload);
+            return error(e);
+        } catch (IOException | RuntimeException e) {
+            upload.cancelCompleting();
+            throw e;
+        }
+
+        newImage.setDate(new Date());
+        imageService.uploadImage(newImage);
+        chunkedUploadService.delete(upload);
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("imageId", newImage.getId());
+        body.put("location", UriComponentsBuilder.fromPath("/images/{id}/{title}").buildAndExpand(newImage.getId(), newImage.getTitle()).encode().toUriString());
+        return ResponseEntity.ok(body);
+    }
+
+    //This controller method cancels the upload with corresponding id and deletes its chunks
+    @RequestMapping(value = "/images/uploads/{uploadId}", method = RequestMethod.DELETE)
+    public ResponseEntity<Void> cancelUpload(@PathVariable("uploadId") String uploadId, HttpSession session) {
+        UploadSession upload = findUpload(uploadId, session);
+        if (upload == null) {
+            return ResponseEntity.notFound().build();
+        }
+        chunkedUploadService.delete(upload);
+        return ResponseEntity.noContent().build();
+    }
+
+    //The uploads of the other users are answered with 404 as if they did not exist
+    private UploadSession findUpload(String uploadId, HttpSession session) {
+        User user = (User) session.getAttribute("loggeduser");
+        return user == null ? null : chunkedUploadService.get(uploadId, user.getId());
+    }
+
+    private Map<String, Object> describe(UploadSession upload) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("uploadId", upload.getId());
+        body.put("size", upload.getSize());
+        body.put("chunkSize", upload.getChunkSize());
+        body.put("chunkCount", upload.getChunkCount());
+        body.put("received", upload.getReceivedChunks());
+        return body;
+    }
+
+    private ResponseEntity<Map<String, Object>> error(InvalidUploadException e) {
+        HttpStatus status = "too_large".equals(e.getReason()) ? HttpStatus.PAYLOAD_TOO_LARGE
+                : "too_many_uploads".equals(e.getReason()) ? HttpStatus.TOO_MANY_REQUESTS
+                : HttpStatus.BAD_REQUEST;
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", e.getMessage());
+        body.put("reason", e.getReason());
+        return ResponseEntity.status(status).body(body);
+    }
+}
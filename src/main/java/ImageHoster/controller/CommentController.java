@@ -1,40 +1,44 @@
 package ImageHoster.controller;
 
 import ImageHoster.model.Comment;
-import ImageHoster.model.Image;
+import ImageHoster.model.CommentPage;
 import ImageHoster.model.User;
+import ImageHoster.service.CommentHub;
 import ImageHoster.service.CommentService;
-import ImageHoster.service.ImageService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
-import java.io.IOException;
 import java.util.Date;
 
 @Controller
 public class CommentController {
 
     @Autowired
-    private ImageService imageService;
-
+    private CommentService commentService;
 
     @Autowired
-    private CommentService commentService;
+    private CommentHub commentHub;
 
     //This method will add a comment on a images and redirect to same image with updated comment
     // Method will be called from images/image.html with image id and image title as path Variable with new Comment
+    //The image is not loaded, the comment only needs its id (see CommentRepository.createComment()), so the time to post a comment
+    //does not depend on the size of the image. A comment on an image which does not exist is answered with 404 Not Found
     @RequestMapping(value = "/image/{id}/{title}/comments", method = RequestMethod.POST)
-    public String commentImageSubmit(@PathVariable("id") Integer imageId, @PathVariable("title") String title, Comment comment, HttpSession session) throws IOException {
+    public String commentImageSubmit(@PathVariable("id") Integer imageId, @PathVariable("title") String title, Comment comment, HttpSession session) {
 
-        //Get Image Object using imageId for which comment need to add
-        Image image = imageService.getImage(imageId);
-
-        //set image_id variable of Comment object
-        comment.setImage(image);
+        //the 'id' of the path is the id of the image, the data binding sets it on the comment as well, the comment is new
+        comment.setId(null);
 
         //get current logged in user from HTTPSession Object
         User user = (User) session.getAttribute("loggeduser");
@@ -45,13 +49,36 @@ public class CommentController {
         //set date of Comment as current date
         comment.setDate(new Date());
 
-        //add new comment in the list of existing comments for this image
-        image.getComments().add(comment);
-
         //Now call createComment from service to add this comment into database
-        commentService.createComment(comment);
+        if (!commentService.createComment(imageId, comment)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
 
         //redirect to same image one comment is added
-        return "redirect:/images/" + image.getId() + "/" + image.getTitle();
+        return "redirect:/images/" + imageId + "/" + title;
+    }
+
+    //This method returns the page of comments of the image older than the comment 'before', called by the 'more comments' link of images/image.html
+    //The view is only the fragment with the comments and the next link, comments.js appends it below the comments already shown
+    @RequestMapping(value = "/image/{id}/comments", method = RequestMethod.GET)
+    public String getComments(@PathVariable("id") Integer imageId, @RequestParam(name = "before", required = false) Integer before, Model model) {
+        CommentPage page = commentService.getCommentPage(imageId, before);
+        model.addAttribute("imageId", imageId);
+        model.addAttribute("comments", page.getComments());
+        model.addAttribute("nextComments", page.getNextCursor());
+        return "images/comments :: page";
+    }
+
+    //This method opens the stream of the new comments of the image, images/image.html listens to it with an EventSource (comments.js)
+    //Answers 503 Service Unavailable when the server, or the client (by its remote address), already has as many streams as it accepts,
+    //the page then works without live comments
+    @RequestMapping(value = "/image/{id}/comments/stream", method = RequestMethod.GET)
+    @ResponseBody
+    public SseEmitter streamComments(@PathVariable("id") Integer imageId, HttpServletRequest request) {
+        SseEmitter emitter = commentHub.subscribe(imageId, request.getRemoteAddr());
+        if (emitter == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return emitter;
     }
 }
@@ -1,13 +1,13 @@
 package ImageHoster.controller;
 
-import ImageHoster.model.Image;
+import ImageHoster.model.ImagePage;
 import ImageHoster.service.ImageService;
+import ImageHoster.trending.TrendingService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
-
-import java.util.List;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @Controller
 public class HomeController {
@@ -15,10 +15,28 @@ public class HomeController {
     @Autowired
     private ImageService imageService;
 
+    @Autowired
+    private TrendingService trendingService;
+
+    //The landing page shows the newest images one page at a time
+    //The optional 'after' parameter is the cursor of the page to show, it is taken from the 'next page' link of the previous page
+    //With 'sort=trending' it shows the trending feed of the 'window' ('day', the default, or 'week') instead, see TrendingService
+    //The cursor of the trending feed is the number of the page, sent as 'after' as well
     @RequestMapping("/")
-    public String getAllImages(Model model) {
-        List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+    public String getAllImages(@RequestParam(name = "after", required = false) String after,
+                               @RequestParam(name = "sort", required = false) String sort,
+                               @RequestParam(name = "window", required = false) String window, Model model) {
+        ImagePage page;
+        if ("trending".equals(sort)) {
+            String trendingWindow = "week".equals(window) ? "week" : TrendingService.DEFAULT_WINDOW;
+            page = trendingService.getTrendingFeed(trendingWindow, after);
+            model.addAttribute("sort", sort);
+            model.addAttribute("window", trendingWindow);
+        } else {
+            page = imageService.getImageFeed(after);
+        }
+        model.addAttribute("images", page.getImages());
+        model.addAttribute("nextPage", page.getNextCursor());
         return "index";
     }
-}
\ No newline at end of file
+}
@@ -1,20 +1,37 @@
 package ImageHoster.controller;
 
+import ImageHoster.derivative.DerivativeSize;
+import ImageHoster.derivative.Variant;
+import ImageHoster.derivative.VariantBusyException;
+import ImageHoster.derivative.VariantService;
 import ImageHoster.model.Comment;
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageDetail;
+import ImageHoster.model.ImagePage;
 import ImageHoster.model.Tag;
 import ImageHoster.model.User;
 import ImageHoster.service.CommentService;
 import ImageHoster.service.ImageService;
 import ImageHoster.service.TagService;
+import ImageHoster.service.UserService;
+import ImageHoster.storage.InvalidUploadException;
+import ImageHoster.trending.TrendingService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
@@ -32,14 +49,49 @@ public class ImageController {
     @Autowired
     private CommentService commentService;
 
+    @Autowired
+    private VariantService variantService;
+
+    @Autowired
+    private TrendingService trendingService;
+
+    @Autowired
+    private UserService userService;
+
     private String editErrorMessage = "Only the owner of the image can edit the image";
     private String deleteErrorMessage = "Only the owner of the image can delete the image";
 
-    //This method displays all the images in the user home page after successful login
+    //Cache-Control of the versioned image URLs, one year is the longest max-age allowed by RFC 7234
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    //This method displays the images in the user home page after successful login, one page at a time
+    //The optional 'after' parameter is the cursor of the page to show, it is taken from the 'next page' link of the previous page
+    //The optional 'sort' parameter 'active' shows the most recently active (posted, edited or commented) images first instead of the newest
     @RequestMapping("images")
-    public String getUserImages(Model model) {
-        List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+    public String getUserImages(@RequestParam(name = "after", required = false) String after,
+                                @RequestParam(name = "sort", required = false) String sort, Model model) {
+        boolean active = "active".equals(sort);
+        ImagePage page = active ? imageService.getActiveImageFeed(after) : imageService.getImageFeed(after);
+        model.addAttribute("images", page.getImages());
+        model.addAttribute("nextPage", page.getNextCursor());
+        model.addAttribute("sort", active ? "active" : null);
+        return "images";
+    }
+
+    //This method displays the gallery of one user, their images newest first, one page at a time
+    //The optional 'after' parameter is the cursor of the page to show, it is taken from the 'next page' link of the previous page
+    //The ids of the images come from the owner's cached gallery, see GalleryCache
+    //Returns 404 if there is no user with that username
+    @RequestMapping("/users/{username}/images")
+    public String getImagesOfUser(@PathVariable("username") String username, @RequestParam(name = "after", required = false) String after, Model model) {
+        Integer ownerId = userService.getUserId(username);
+        if (ownerId == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        ImagePage page = imageService.getUserImageFeed(ownerId, after);
+        model.addAttribute("images", page.getImages());
+        model.addAttribute("nextPage", page.getNextCursor());
+        model.addAttribute("owner", username);
         return "images";
     }
 
@@ -53,20 +105,76 @@ public class ImageController {
     //Also now you need to add the tags of an image in the Model type object
     //Here a list of tags is added in the Model type object
     //this list is then sent to 'images/image.html' file and the tags are displayed
+    //The image, its tags and the first page of its comments are loaded together by getImageDetail(), in a fixed number of queries
+    //The view is counted in the trending score of the image, see TrendingService
     @RequestMapping("/images/{id}/{title}")
     public String showImage(@PathVariable("id") Integer ImageId, @PathVariable("title") String title, Model model) {
-        Image image = imageService.getImage(ImageId);
+        ImageDetail detail = imageService.getImageDetail(ImageId);
+        trendingService.recordView(ImageId);
 
         //Add all the object like image, tags, comments in model to process it by view
-        model.addAttribute("image", image);
-        model.addAttribute("tags", image.getTags());
-        model.addAttribute("comments", image.getComments());
-
-        //add a empty comment object in model to send to view for new comment
-        model.addAttribute("comment", new Comment());
+        addImageDetail(detail, model);
         return "images/image";
     }
 
+    //This controller method is called when the bytes of the image with corresponding id are requested
+    //The templates use this URL as the source of the <img> tags instead of embedding the image as a Base64 data URI
+    //The 'size' parameter selects the thumbnail or medium version, the original is sent until those versions have been generated
+    //The VariantService re-encodes the version into a format accepted by the client ('Accept' header) and the 'quality' tier (low, medium, high)
+    //when it would be smaller or the client does not accept the format of the file, otherwise the file is sent as it is
+    //The bytes are streamed from the BlobStore or the variant cache as a Resource, Spring MVC then answers Range requests with 206 Partial Content
+    //and answers If-None-Match requests with 304 Not Modified when the ETag still matches
+    //The ETag is the BlobStore key, i.e. the SHA-256 of the bytes, followed by the format and the quality of a variant. The templates add the
+    //key to the URL as 'v', such a URL can never point to other bytes and is therefore cached forever, any other request has to be revalidated with the ETag
+    //Returns 404 if the image has no file, and 503 Service Unavailable if the variant is not cached and the server computes as many as it can
+    @RequestMapping(value = "/images/{id}/raw", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public ResponseEntity<Resource> getImageFile(@PathVariable("id") Integer imageId, @RequestParam(name = "size", required = false) String size,
+                                                 @RequestParam(name = "quality", required = false) String quality,
+                                                 @RequestParam(name = "v", required = false) String version,
+                                                 @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept) throws IOException {
+        Image image = imageService.getImage(imageId);
+        DerivativeSize imageSize = DerivativeSize.fromName(size);
+        String key = imageSize.keyOf(image);
+        //images uploaded before the MIME type was recorded were always served as jpeg
+        String contentType = imageSize.contentTypeOf(image);
+        String eTag = key;
+
+        Resource imageFile = null;
+        Variant variant = key == null ? null : variantService.negotiate(contentType, accept, quality);
+        if (variant != null) {
+            try {
+                imageFile = variantService.getVariant(key, variant);
+            } catch (VariantBusyException e) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE);
+            }
+            if (imageFile != null) {
+                contentType = variant.getContentType();
+                eTag = variant.keyOf(key);
+            }
+        }
+        if (imageFile == null) {
+            imageFile = imageService.getImageFile(image, imageSize);
+        }
+        if (imageFile == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(contentType != null ? contentType : MediaType.IMAGE_JPEG_VALUE))
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+
+        if (eTag != null) {
+            response.eTag("\"" + eTag + "\"");
+        }
+        if (key != null && key.equals(version)) {
+            response.header(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+        } else {
+            response.cacheControl(CacheControl.noCache());
+        }
+        return response.body(imageFile);
+    }
+
     //This controller method is called when the request pattern is of type 'images/upload'
     //The method returns 'images/upload.html' file
     @RequestMapping("/images/upload")
@@ -77,22 +185,28 @@ public class ImageController {
     //This controller method is called when the request pattern is of type 'images/upload' and also the incoming request is of POST type
     //The method receives all the details of the image to be stored in the database, and now the image will be sent to the business logic to be persisted in the database
     //After you get the imageFile, set the user of the image by getting the logged in user from the Http Session
-    //Convert the image to Base64 format and store it as a string in the 'imageFile' attribute
+    //Store the bytes of the image in the BlobStore, only the key and the metadata of the file are kept on the image
     //Set the date on which the image is posted
     //After storing the image, this method directs to the logged in user homepage displaying all the images
 
     //Get the 'tags' request parameter using @RequestParam annotation which is just a string of all the tags
-    //Store all the tags in the database and make a list of all the tags using the findOrCreateTags() method
+    //Store all the tags in the database and make a list of all the tags using the findOrCreateTags() method of the TagService
     //set the tags attribute of the image as a list of all the tags returned by the findOrCreateTags() method
     @RequestMapping(value = "/images/upload", method = RequestMethod.POST)
-    public String createImage(@RequestParam("file") MultipartFile file, @RequestParam("tags") String tags, Image newImage, HttpSession session) throws IOException {
+    public String createImage(@RequestParam("file") MultipartFile file, @RequestParam("tags") String tags, Image newImage, Model model, HttpSession session) throws IOException {
 
         User user = (User) session.getAttribute("loggeduser");
         newImage.setUser(user);
-        String uploadedImageData = convertUploadedFileToBase64(file);
-        newImage.setImageFile(uploadedImageData);
+        //the tags are resolved first, the stored file holds a reference which only uploadImage() takes over
+        List<Tag> imageTags = tagService.findOrCreateTags(tags);
+        try {
+            imageService.storeImageFile(newImage, file);
+        } catch (InvalidUploadException e) {
+            //the file is too large or is not an image, show the upload page again with the reason
+            model.addAttribute("uploadError", e.getMessage());
+            return "images/upload";
+        }
 
-        List<Tag> imageTags = findOrCreateTags(tags);
         newImage.setTags(imageTags);
         newImage.setDate(new Date());
         imageService.uploadImage(newImage);
@@ -113,24 +227,16 @@ public class ImageController {
 
         User loggedInUser = (User) session.getAttribute("loggeduser");
 
-        String tags = convertTagsToString(image.getTags());
-
-        //Add image  tags, comments in model to process it by view
-        model.addAttribute("image", image);
-        model.addAttribute("comments", image.getComments());
-
-        //add a empty comment object in model to send to view for new comment
-        model.addAttribute("comment", new Comment());
-
         if(loggedInUser.getId() == imageUser.getId()) {
             //image belong to same user to editing is allowed
             //Add tags as comma separated string to display in editable text box
-            model.addAttribute("tags", tags);
+            model.addAttribute("image", image);
+            model.addAttribute("tags", convertTagsToString(image.getTags()));
             return "images/edit";
-        } else {//image belong to same user to editing is allowed
+        } else {//image belong to another user, show the image page with the error
 
-            //Add list of tags object to display on image page
-            model.addAttribute("tags", image.getTags());
+            //Add image, tags, comments in model to process it by view
+            addImageDetail(imageService.getImageDetail(imageId), model);
             //Add error text for edit not allowed
             model.addAttribute("editError",editErrorMessage);
             return "images/image";
@@ -149,19 +255,26 @@ public class ImageController {
     //The method also receives tags parameter which is a string of all the tags separated by a comma using the annotation @RequestParam
     //The method converts the string to a list of all the tags using findOrCreateTags() method and sets the tags attribute of an image as a list of all the tags
     @RequestMapping(value = "/editImage", method = RequestMethod.PUT)
-    public String editImageSubmit(@RequestParam("file") MultipartFile file, @RequestParam("imageId") Integer imageId, @RequestParam("tags") String tags, Image updatedImage, HttpSession session) throws IOException {
+    public String editImageSubmit(@RequestParam("file") MultipartFile file, @RequestParam("imageId") Integer imageId, @RequestParam("tags") String tags, Image updatedImage, Model model, HttpSession session) throws IOException {
 
         //get Image object using image id.
         Image image = imageService.getImage(imageId);
-        String updatedImageData = convertUploadedFileToBase64(file);
-        List<Tag> imageTags = findOrCreateTags(tags);
+
+        //the tags are resolved first, a new file holds a reference which only updateImage() takes over
+        List<Tag> imageTags = tagService.findOrCreateTags(tags);
 
         //when image edit page submit user will not upload same image as he don't want to change it
-        //select same image else update the image
-        if (updatedImageData.isEmpty())
-            updatedImage.setImageFile(image.getImageFile());
-        else {
-            updatedImage.setImageFile(updatedImageData);
+        //the service then keeps the file of the image, else the new file is stored
+        if (!file.isEmpty()) {
+            try {
+                imageService.storeImageFile(updatedImage, file);
+            } catch (InvalidUploadException e) {
+                //the file is too large or is not an image, show the edit page again with the reason
+                model.addAttribute("image", image);
+                model.addAttribute("tags", tags);
+                model.addAttribute("uploadError", e.getMessage());
+                return "images/edit";
+            }
         }
 
         //some field might nit be send from UI back so make sure they are correctly set else data base operation will fail.
@@ -177,7 +290,7 @@ public class ImageController {
         updatedImage.setDate(new Date());
 
         //call image service to update image
-        imageService.updateImage(updatedImage);
+        imageService.updateImage(updatedImage, !file.isEmpty());
 
         //redirect to same image after update to reflect update.
         return "redirect:/images/" + updatedImage.getId() + "/" + updatedImage.getTitle();
@@ -203,12 +316,7 @@ public class ImageController {
             return "redirect:/images";
         } else {
             //Add image  tags, comments in model to process it by view when page goes to  image
-            model.addAttribute("tags", image.getTags());
-            model.addAttribute("image", image);
-            model.addAttribute("comments", image.getComments());
-
-            //add a empty comment object in model to send to view for new comment
-            model.addAttribute("comment", new Comment());
+            addImageDetail(imageService.getImageDetail(imageId), model);
 
             //Add error text for delete not allowed
             model.addAttribute("deleteError",deleteErrorMessage);
@@ -217,32 +325,17 @@ public class ImageController {
 
     }
     
-    //This method converts the image to Base64 format
-    private String convertUploadedFileToBase64(MultipartFile file) throws IOException {
-        return Base64.getEncoder().encodeToString(file.getBytes());
-    }
-
-    //findOrCreateTags() method has been implemented, which returns the list of tags after converting the ‘tags’ string to a list of all the tags and also stores the tags in the database if they do not exist in the database. Observe the method and complete the code where required for this method.
-    //Try to get the tag from the database using getTagByName() method. If tag is returned, you need not to store that tag in the database, and if null is returned, you need to first store that tag in the database and then the tag is added to a list
-    //After adding all tags to a list, the list is returned
-    private List<Tag> findOrCreateTags(String tagNames) {
-        StringTokenizer st = new StringTokenizer(tagNames, ",");
-        List<Tag> tags = new ArrayList<Tag>();
-
-        while (st.hasMoreTokens()) {
-            String tagName = st.nextToken().trim();
-            Tag tag = tagService.getTagByName(tagName);
-
-            if (tag == null) {
-                Tag newTag = new Tag(tagName);
-                tag = tagService.createTag(newTag);
-            }
-            tags.add(tag);
-        }
-        return tags;
+    //The method adds what images/image.html shows to the model: the image, its tags, the newest comments with the cursor of the older ones,
+    //and an empty comment for the form of a new comment
+    private void addImageDetail(ImageDetail detail, Model model) {
+        model.addAttribute("image", detail.getImage());
+        model.addAttribute("imageId", detail.getImage().getId());
+        model.addAttribute("tags", detail.getTags());
+        model.addAttribute("comments", detail.getComments().getComments());
+        model.addAttribute("nextComments", detail.getComments().getNextCursor());
+        model.addAttribute("comment", new Comment());
     }
 
-
     //The method receives the list of all tags
     //Converts the list of all tags to a single string containing all the tags separated by a comma
     //Returns the string
@@ -0,0 +1,29 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ImagePage;
+import ImageHoster.search.SearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+@Controller
+public class SearchController {
+
+    @Autowired
+    private SearchService searchService;
+
+    //This method displays the images whose title, description or tags match the query 'q', best match first, one page at a time
+    //The optional 'page' parameter is the number of the page to show, it is taken from the 'next page' link of the previous page
+    //The results are shown by 'images.html' like the gallery, the query is added to the model to keep it in the search box and the links
+    @RequestMapping("/search")
+    public String search(@RequestParam(name = "q", required = false, defaultValue = "") String query,
+                         @RequestParam(name = "page", required = false) String page, Model model) {
+        ImagePage result = searchService.search(query, page);
+        model.addAttribute("images", result.getImages());
+        model.addAttribute("nextPage", result.getNextCursor());
+        model.addAttribute("query", query);
+        return "images";
+    }
+}
@@ -0,0 +1,48 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ImagePage;
+import ImageHoster.search.TagQuery;
+import ImageHoster.search.TagQueryService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+@Controller
+public class TagController {
+
+    @Autowired
+    private TagQueryService tagQueryService;
+
+    //This method displays the images with the tag 'name', newest first, one page at a time
+    //The optional 'after' parameter is the cursor of the page to show, it is taken from the 'next page' link of the previous page
+    @RequestMapping("/tags/{name}")
+    public String getTaggedImages(@PathVariable("name") String name, @RequestParam(name = "after", required = false) String after, Model model) {
+        return showPage(tagQueryService.browse(TagQuery.tag(name), after), TagQuery.quote(name), model);
+    }
+
+    //This method displays the images matching the tag query 'q', such as 'sunset AND beach NOT night', newest first, one page at a time
+    //A query which cannot be parsed shows no images and the reason, in 'queryError'
+    @RequestMapping("/tags")
+    public String queryTags(@RequestParam(name = "q", required = false, defaultValue = "") String query,
+                            @RequestParam(name = "after", required = false) String after, Model model) {
+        TagQuery tagQuery;
+        try {
+            tagQuery = TagQuery.parse(query);
+        } catch (IllegalArgumentException e) {
+            model.addAttribute("queryError", e.getMessage());
+            return showPage(ImagePage.empty(), query, model);
+        }
+        return showPage(tagQueryService.browse(tagQuery, after), query, model);
+    }
+
+    //The results are shown by 'images.html' like the gallery, the query is added to the model to keep it in the query box and the links
+    private String showPage(ImagePage page, String tagQuery, Model model) {
+        model.addAttribute("images", page.getImages());
+        model.addAttribute("nextPage", page.getNextCursor());
+        model.addAttribute("tagQuery", tagQuery);
+        return "images";
+    }
+}
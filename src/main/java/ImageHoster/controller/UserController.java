@@ -1,6 +1,6 @@
 package ImageHoster.controller;
 
-import ImageHoster.model.Image;
+import ImageHoster.model.ImagePage;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
 import ImageHoster.service.ImageService;
@@ -12,7 +12,6 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
 import javax.servlet.http.HttpSession;
-import java.util.List;
 
 
 @Controller
@@ -83,14 +82,15 @@ public class UserController {
     //This controller method is called when the request pattern is of type 'users/logout' and also the incoming request is of POST type
     //The method receives the Http Session and the Model type object
     //session is invalidated
-    //All the images are fetched from the database and added to the model with 'images' as the key
-    //'index.html' file is returned showing the landing page of the application and displaying all the images in the application
+    //The first page of the image feed is fetched from the database and added to the model with 'images' as the key
+    //'index.html' file is returned showing the landing page of the application and displaying the newest images in the application
     @RequestMapping(value = "users/logout", method = RequestMethod.POST)
     public String logout(Model model, HttpSession session) {
         session.invalidate();
 
-        List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+        ImagePage page = imageService.getImageFeed(null);
+        model.addAttribute("images", page.getImages());
+        model.addAttribute("nextPage", page.getNextCursor());
         return "index";
     }
 
@@ -0,0 +1,169 @@
+package ImageHoster.derivative;
+
+import ImageHoster.model.DerivativeStatus;
+import ImageHoster.model.Image;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.service.BlobReferenceService;
+import ImageHoster.storage.BlobInfo;
+import ImageHoster.storage.BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+//Generates the thumbnail and medium versions of the images on the 'derivativeExecutor' worker pool
+//The versions are stored in the BlobStore next to the original and their keys are recorded on the image
+@Service
+public class DerivativeService {
+
+    private static final Logger log = LoggerFactory.getLogger(DerivativeService.class);
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private BlobReferenceService blobReferenceService;
+
+    @Autowired
+    private ImageDecoder imageDecoder;
+
+    @Autowired
+    @Qualifier("derivativeExecutor")
+    private TaskExecutor executor;
+
+    private final ImageResizer resizer = new ImageResizer();
+
+    //Ids of the images queued or being processed, so that an image is never queued twice
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+
+    //Queues the generation of the derivatives of the image with corresponding id
+    //If the queue is full the image stays PENDING and is queued again by schedulePending()
+    public void schedule(Integer imageId) {
+        if (imageId == null || !inFlight.add(imageId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(imageId);
+                } finally {
+                    inFlight.remove(imageId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(imageId);
+        }
+    }
+
+    //Queues the images whose derivatives have not been generated yet
+    //This picks up the images rejected by a full queue, the images left over by a restart and the images uploaded before derivatives existed
+    @Scheduled(fixedDelayString = "${imagehoster.derivatives.sweep-interval:60000}")
+    public void schedulePending() {
+        for (Integer imageId : imageRepository.getImageIdsWithPendingDerivatives(100)) {
+            schedule(imageId);
+        }
+    }
+
+    //Decodes the original, stores a scaled down copy for every derivative size smaller than the original and records them on the image
+    //The image is only updated if its file has not been replaced in the meantime
+    void generate(Integer imageId) {
+        String imageKey = null;
+        try {
+            Image image = imageRepository.getImage(imageId);
+            imageKey = image.getImageKey();
+            if (imageKey == null) {
+                return;
+            }
+            Resource original = blobStore.get(imageKey);
+            if (original == null) {
+                //the file is missing from the store, queuing the image again would not bring it back
+                log.warn("Could not generate the derivatives of image {}, its file {} is missing", imageId, imageKey);
+                imageRepository.updateDerivativeStatus(imageId, imageKey, DerivativeStatus.FAILED);
+                return;
+            }
+
+            BufferedImage source;
+            try (InputStream in = original.getInputStream()) {
+                //an image with more pixels than the limit is not decoded, it is marked FAILED and always served as the original
+                source = imageDecoder.read(in);
+            }
+            if (source == null) {
+                //no ImageIO reader for the format, such as WebP
+                imageRepository.updateDerivativeStatus(imageId, imageKey, DerivativeStatus.FAILED);
+                return;
+            }
+
+            boolean keepAlpha = DerivativeSize.keepsAlpha(image.getContentType());
+            image.setImageWidth(source.getWidth());
+            image.setImageHeight(source.getHeight());
+
+            byte[] thumbnailBytes = encode(source, DerivativeSize.THUMBNAIL, keepAlpha);
+            BlobInfo thumbnail = thumbnailBytes == null ? null : blobStore.put(new ByteArrayInputStream(thumbnailBytes));
+            image.setThumbnailKey(thumbnail == null ? imageKey : thumbnail.getKey());
+            image.setThumbnailWidth(Math.min(source.getWidth(), DerivativeSize.THUMBNAIL.getWidth()));
+
+            byte[] mediumBytes = encode(source, DerivativeSize.MEDIUM, keepAlpha);
+            BlobInfo medium = mediumBytes == null ? null : blobStore.put(new ByteArrayInputStream(mediumBytes));
+            image.setMediumKey(medium == null ? imageKey : medium.getKey());
+            image.setMediumWidth(Math.min(source.getWidth(), DerivativeSize.MEDIUM.getWidth()));
+
+            image.setDerivativeStatus(DerivativeStatus.READY);
+
+            //the image references each distinct key once, the original is already counted
+            Map<String, BlobInfo> derivatives = new LinkedHashMap<>();
+            Map<String, byte[]> bytes = new LinkedHashMap<>();
+            if (thumbnail != null) {
+                derivatives.put(thumbnail.getKey(), thumbnail);
+                bytes.put(thumbnail.getKey(), thumbnailBytes);
+            }
+            if (medium != null) {
+                derivatives.putIfAbsent(medium.getKey(), medium);
+                bytes.putIfAbsent(medium.getKey(), mediumBytes);
+            }
+            derivatives.remove(imageKey);
+
+            //the references are taken before the keys become visible, so that the blobs cannot be collected in between
+            //a blob collected since it was stored is stored again from its bytes
+            for (BlobInfo derivative : derivatives.values()) {
+                blobReferenceService.acquire(derivative, new ByteArrayResource(bytes.get(derivative.getKey())));
+            }
+            if (!imageRepository.updateDerivatives(image)) {
+                //the image has been deleted or its file replaced while the derivatives were generated
+                blobReferenceService.release(derivatives.keySet());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not generate the derivatives of image {}", imageId, e);
+            if (imageKey != null) {
+                imageRepository.updateDerivativeStatus(imageId, imageKey, DerivativeStatus.FAILED);
+            }
+        }
+    }
+
+    //Encodes the source scaled down to the width of the size
+    //Returns null if the source is not wider than the size, the original is used for that size then
+    private byte[] encode(BufferedImage source, DerivativeSize size, boolean keepAlpha) throws IOException {
+        if (source.getWidth() <= size.getWidth()) {
+            return null;
+        }
+        BufferedImage scaled = resizer.resize(source, size.getWidth(), keepAlpha);
+        return resizer.encode(scaled, keepAlpha);
+    }
+}
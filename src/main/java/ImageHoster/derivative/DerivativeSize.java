@@ -0,0 +1,62 @@
+package ImageHoster.derivative;
+
+import ImageHoster.model.Image;
+
+//The versions of an image which can be requested from /images/{id}/raw with the 'size' parameter
+//The width is the largest width of the version in pixels, the height is scaled to keep the aspect ratio
+public enum DerivativeSize {
+    THUMBNAIL(320),
+    MEDIUM(1024),
+    ORIGINAL(0);
+
+    private final int width;
+
+    DerivativeSize(int width) {
+        this.width = width;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    //Returns the BlobStore key of this version of the image
+    //The original is returned until the derivatives of the image are ready
+    public String keyOf(Image image) {
+        if (image.isDerivativesReady()) {
+            if (this == THUMBNAIL) {
+                return image.getThumbnailKey();
+            }
+            if (this == MEDIUM) {
+                return image.getMediumKey();
+            }
+        }
+        return image.getImageKey();
+    }
+
+    //Returns the MIME type of this version of the image
+    //A derivative which is not the original itself is a PNG if the original may have transparency and a JPEG otherwise
+    public String contentTypeOf(Image image) {
+        String key = keyOf(image);
+        if (key == null || key.equals(image.getImageKey())) {
+            return image.getContentType();
+        }
+        return keepsAlpha(image.getContentType()) ? "image/png" : "image/jpeg";
+    }
+
+    //Returns true if the derivatives of an image of this MIME type are encoded as PNG to keep transparency
+    public static boolean keepsAlpha(String contentType) {
+        return "image/png".equals(contentType) || "image/gif".equals(contentType);
+    }
+
+    //Returns the size with the given name (case is ignored), ORIGINAL if the name is null or unknown
+    public static DerivativeSize fromName(String name) {
+        if (name != null) {
+            for (DerivativeSize size : values()) {
+                if (size.name().equalsIgnoreCase(name)) {
+                    return size;
+                }
+            }
+        }
+        return ORIGINAL;
+    }
+}
@@ -0,0 +1,80 @@
+package ImageHoster.derivative;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+//Decodes the images with Java ImageIO once their dimensions have been checked
+//Decoding takes width * height * 4 bytes of heap whatever the size of the file, so a small file which declares a huge image
+//(a decompression bomb) could exhaust the heap: the dimensions are read from the header first, and an image with more than
+//'imagehoster.images.max-pixels' pixels is not decoded
+@Component
+public class ImageDecoder {
+
+    private final long maxPixels;
+
+    public ImageDecoder(@Value("${imagehoster.images.max-pixels:40000000}") long maxPixels) {
+        this.maxPixels = maxPixels;
+    }
+
+    //Returns the width and height declared by the header of the image, without decoding the pixels
+    //Returns null if there is no ImageIO reader for the format, such as WebP
+    public Dimension readDimensions(InputStream in) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            ImageReader reader = reader(stream);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    //Returns the decoded image, or null if there is no ImageIO reader for the format
+    //Throws ImageTooLargeException if the image has more pixels than the limit, nothing is decoded then
+    public BufferedImage read(InputStream in) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            ImageReader reader = reader(stream);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                check(new Dimension(reader.getWidth(0), reader.getHeight(0)));
+                return reader.read(0, reader.getDefaultReadParam());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    //Throws ImageTooLargeException if an image of the given dimensions has more pixels than the limit
+    public void check(Dimension dimensions) throws ImageTooLargeException {
+        if ((long) dimensions.width * dimensions.height > maxPixels) {
+            throw new ImageTooLargeException(dimensions, maxPixels);
+        }
+    }
+
+    private static ImageReader reader(ImageInputStream stream) {
+        if (stream == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(stream, true, true);
+        return reader;
+    }
+}
@@ -0,0 +1,102 @@
+package ImageHoster.derivative;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+//Scales images down with Java ImageIO and Java 2D
+public class ImageResizer {
+
+    //Returns a copy of the image scaled down to the given width, the height keeps the aspect ratio
+    //The image is halved step by step first, a single bilinear step from a large image to a thumbnail looks grainy
+    public BufferedImage resize(BufferedImage source, int width, boolean keepAlpha) {
+        int type = keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(1, (int) Math.round((double) source.getHeight() * currentWidth / source.getWidth()));
+            current = draw(current, currentWidth, currentHeight, type);
+        } while (currentWidth > width);
+
+        return current;
+    }
+
+    //Encodes the image, as PNG if the alpha channel has to be kept and as JPEG otherwise
+    public byte[] encode(BufferedImage image, boolean keepAlpha) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, keepAlpha ? "png" : "jpg", out)) {
+            throw new IOException("No ImageIO writer available");
+        }
+        return out.toByteArray();
+    }
+
+    //Encodes the image in the given format, the quality is the compression quality of the lossy formats (0 to 1)
+    //For the lossy formats, which have no alpha channel, an image with transparency or a palette is drawn on a white background first
+    public byte[] encode(BufferedImage image, VariantFormat format, float quality) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format.getFormatName());
+        if (!writers.hasNext()) {
+            throw new IOException("No ImageIO writer available for " + format);
+        }
+        if (format.isLossy() && !isOpaqueRgb(image)) {
+            image = flatten(image);
+        }
+
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format.isLossy() && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private boolean isOpaqueRgb(BufferedImage image) {
+        int type = image.getType();
+        return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_BYTE_GRAY;
+    }
+
+    private BufferedImage flatten(BufferedImage source) {
+        BufferedImage target = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, source.getWidth(), source.getHeight());
+            g.drawImage(source, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private BufferedImage draw(BufferedImage source, int width, int height, int type) {
+        BufferedImage target = new BufferedImage(width, height, type);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+}
@@ -0,0 +1,20 @@
+package ImageHoster.derivative;
+
+import java.awt.Dimension;
+import java.io.IOException;
+
+//The exception is thrown by ImageDecoder for an image with more pixels than it decodes
+public class ImageTooLargeException extends IOException {
+
+    private final long maxPixels;
+
+    public ImageTooLargeException(Dimension dimensions, long maxPixels) {
+        super("The image has " + dimensions.width + " x " + dimensions.height + " pixels, more than " + maxPixels);
+        this.maxPixels = maxPixels;
+    }
+
+    //Largest number of pixels of an image which is decoded
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+}
@@ -0,0 +1,31 @@
+package ImageHoster.derivative;
+
+//A re-encoding of a version of an image: the format and, for lossy formats, the quality tier
+public final class Variant {
+
+    private final VariantFormat format;
+    private final VariantQuality quality;
+
+    public Variant(VariantFormat format, VariantQuality quality) {
+        this.format = format;
+        this.quality = format.isLossy() ? quality : null;
+    }
+
+    public VariantFormat getFormat() {
+        return format;
+    }
+
+    public VariantQuality getQuality() {
+        return quality;
+    }
+
+    public String getContentType() {
+        return format.getContentType();
+    }
+
+    //Key of the variant of the file with the given BlobStore key, the key of a file is its SHA-256
+    //so the key changes whenever the image or the version (thumbnail, medium, original) changes
+    public String keyOf(String sourceKey) {
+        return sourceKey + "-" + format.getFormatName() + (quality == null ? "" : "-" + quality.name().toLowerCase());
+    }
+}
@@ -0,0 +1,11 @@
+package ImageHoster.derivative;
+
+import java.io.IOException;
+
+//The exception is thrown by VariantService when a variant has to be computed and as many variants as it encodes at a time are being computed
+public class VariantBusyException extends IOException {
+
+    public VariantBusyException() {
+        super("Too many variants are being computed");
+    }
+}
@@ -0,0 +1,192 @@
+package ImageHoster.derivative;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Size-bounded LRU cache of the re-encoded variants on disk, one file per variant below the root directory
+//When the files grow beyond 'maxBytes' the least recently served variants are deleted
+//A variant is computed once: a request for a variant which is being computed waits for that computation
+//The recency order is rebuilt from the modification times of the files after a restart
+public class VariantCache {
+
+    private static final Logger log = LoggerFactory.getLogger(VariantCache.class);
+
+    //Computes the bytes of a variant, or returns null if the variant cannot be computed
+    public interface Loader {
+        byte[] load() throws IOException;
+    }
+
+    private final Path root;
+
+    private final long maxBytes;
+
+    //Sizes of the cached files in access order, the eldest entry is the least recently served, guarded by 'this'
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final Map<String, CompletableFuture<Path>> loading = new ConcurrentHashMap<>();
+
+    public VariantCache(Path root, long maxBytes) throws IOException {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(root);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparing(VariantCache::lastModified));
+        for (Path file : files) {
+            add(file.getFileName().toString(), Files.size(file));
+        }
+    }
+
+    //Returns the file of the variant with the given key, the loader is called if the variant is not cached
+    //Returns null if the loader returned null
+    public Path get(String key, Loader loader) throws IOException {
+        Path cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Path> mine = new CompletableFuture<>();
+        CompletableFuture<Path> running = loading.putIfAbsent(key, mine);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            //computed by another request between lookup() and putIfAbsent()
+            Path path = lookup(key);
+            if (path == null) {
+                path = store(key, loader.load());
+            }
+            mine.complete(path);
+            return path;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    public long getSize() {
+        return totalBytes.get();
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    private Path lookup(String key) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+        Path path = root.resolve(key);
+        try {
+            //keeps the recency order after a restart
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            //the file has been deleted, compute the variant again
+            remove(key);
+            return null;
+        }
+        return path;
+    }
+
+    private Path store(String key, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            return null;
+        }
+        Path path = root.resolve(key);
+        Path tmp = Files.createTempFile(root, key, ".tmp");
+        try {
+            Files.write(tmp, bytes);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        add(key, bytes.length);
+        return path;
+    }
+
+    private void add(String key, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long previous = entries.put(key, size);
+            totalBytes.addAndGet(size - (previous == null ? 0 : previous));
+
+            //the newest entry is never evicted, even if it is larger than the cache
+            Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+            while (totalBytes.get() > maxBytes && entries.size() > 1) {
+                Map.Entry<String, Long> entry = eldest.next();
+                totalBytes.addAndGet(-entry.getValue());
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        //a response still streaming an evicted file keeps reading it, the file is only unlinked
+        for (String file : evicted) {
+            try {
+                Files.deleteIfExists(root.resolve(file));
+            } catch (IOException e) {
+                log.warn("Could not delete the cached variant {}", file, e);
+            }
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (this) {
+            Long size = entries.remove(key);
+            if (size != null) {
+                totalBytes.addAndGet(-size);
+            }
+        }
+    }
+
+    private static Path await(CompletableFuture<Path> running) throws IOException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the variant", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not compute the variant", e.getCause());
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime();
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ImageHoster.derivative;
+
+import javax.imageio.ImageIO;
+
+//The formats into which an image can be re-encoded for delivery, see VariantService
+//Only the formats for which ImageIO has a writer are listed, WebP and AVIF would need an additional ImageIO plugin
+public enum VariantFormat {
+    JPEG("image/jpeg", "jpeg", true),
+    PNG("image/png", "png", false);
+
+    private final String contentType;
+    private final String formatName;
+    private final boolean lossy;
+
+    VariantFormat(String contentType, String formatName, boolean lossy) {
+        this.contentType = contentType;
+        this.formatName = formatName;
+        this.lossy = lossy;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    //Name of the format for ImageIO
+    public String getFormatName() {
+        return formatName;
+    }
+
+    //Returns true if the format takes a compression quality, i.e. a VariantQuality
+    public boolean isLossy() {
+        return lossy;
+    }
+
+    //Returns true if ImageIO of this JVM can write the format
+    public boolean isWritable() {
+        return ImageIO.getImageWritersByFormatName(formatName).hasNext();
+    }
+
+    //Returns the format with the given MIME type, null if images cannot be re-encoded into it
+    public static VariantFormat fromContentType(String contentType) {
+        for (VariantFormat format : values()) {
+            if (format.contentType.equals(contentType)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
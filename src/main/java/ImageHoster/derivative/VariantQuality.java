@@ -0,0 +1,31 @@
+package ImageHoster.derivative;
+
+//The quality tiers which can be requested from /images/{id}/raw with the 'quality' parameter
+//The value is the compression quality of the lossy formats, a lower tier gives a smaller file
+public enum VariantQuality {
+    LOW(0.5f),
+    MEDIUM(0.7f),
+    HIGH(0.85f);
+
+    private final float compression;
+
+    VariantQuality(float compression) {
+        this.compression = compression;
+    }
+
+    public float getCompression() {
+        return compression;
+    }
+
+    //Returns the tier with the given name (case is ignored), null if the name is null or unknown
+    public static VariantQuality fromName(String name) {
+        if (name != null) {
+            for (VariantQuality quality : values()) {
+                if (quality.name().equalsIgnoreCase(name)) {
+                    return quality;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,76 @@
+package ImageHoster.derivative;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+//A cached variant served by VariantService
+//The VariantCache may evict the file between the lookup and the moment Spring MVC opens it, or between reading its length and opening it:
+//the file is then fetched from the cache again, which computes the variant again if it is not cached any more. Encoding the same file
+//with the same format and quality gives the same bytes, so the length already sent still matches. A stream which is open when the file
+//is evicted keeps reading it, the file is only unlinked
+public class VariantResource extends AbstractResource {
+
+    //Returns the file of the variant, computing it again if needed
+    interface Fetcher {
+        Path fetch() throws IOException;
+    }
+
+    private final String key;
+
+    private final Fetcher fetcher;
+
+    private volatile Path path;
+
+    VariantResource(String key, Path path, Fetcher fetcher) {
+        this.key = key;
+        this.path = path;
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        try {
+            return Files.newInputStream(path);
+        } catch (NoSuchFileException e) {
+            return Files.newInputStream(refetch());
+        }
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        try {
+            return Files.size(path);
+        } catch (NoSuchFileException e) {
+            return Files.size(refetch());
+        }
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public String getFilename() {
+        return key;
+    }
+
+    @Override
+    public String getDescription() {
+        return "variant [" + key + "]";
+    }
+
+    private Path refetch() throws IOException {
+        Path fetched = fetcher.fetch();
+        if (fetched == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        path = fetched;
+        return fetched;
+    }
+}
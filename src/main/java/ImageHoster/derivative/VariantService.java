@@ -0,0 +1,180 @@
+package ImageHoster.derivative;
+
+import ImageHoster.storage.BlobStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+//Re-encodes the images for delivery into a format accepted by the client (the 'Accept' header) and a quality tier (the 'quality' parameter)
+//The variants are computed from the files in the BlobStore and kept in a VariantCache below 'imagehoster.variants.dir'
+//At most 'imagehoster.variants.max-concurrent-encodes' variants are computed at a time, each one holds a decoded image on the heap;
+//a variant which is not cached is refused with VariantBusyException beyond that, the request does not wait for a turn
+//Images with more pixels than ImageDecoder decodes are never re-encoded, they are sent as they are
+//Metrics, available at /actuator/metrics:
+//  imagehoster.variants.requests    variants requested, tagged with result 'hit' (from the cache), 'miss' (computed) or 'rejected' (busy)
+//  imagehoster.variants.cache.size  bytes of the cached variants
+//  imagehoster.variants.cache.count number of cached variants
+@Service
+public class VariantService {
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${imagehoster.variants.dir:data/variants}")
+    private String variantDir;
+
+    @Autowired
+    private ImageDecoder imageDecoder;
+
+    @Value("${imagehoster.variants.cache-size:536870912}")
+    private long cacheSize;
+
+    @Value("${imagehoster.variants.max-concurrent-encodes:4}")
+    private int maxConcurrentEncodes;
+
+    private final ImageResizer resizer = new ImageResizer();
+
+    private VariantCache cache;
+
+    private Semaphore encodes;
+
+    @PostConstruct
+    public void init() throws IOException {
+        encodes = new Semaphore(maxConcurrentEncodes);
+        cache = new VariantCache(Paths.get(variantDir), cacheSize);
+        meterRegistry.gauge("imagehoster.variants.cache.size", cache, VariantCache::getSize);
+        meterRegistry.gauge("imagehoster.variants.cache.count", cache, VariantCache::getCount);
+    }
+
+    //Chooses the variant to send for a file of the given MIME type, or returns null if the file is to be sent as it is
+    //Without a quality tier the file is only re-encoded if the client does not accept its format
+    //With a quality tier the format the client prefers is used, a lossy format first unless the file may have transparency
+    //A lossless file is never re-encoded into its own format, that would not make it smaller
+    //If the client accepts none of the formats the file is sent as it is
+    public Variant negotiate(String contentType, String accept, String quality) {
+        String source = contentType != null ? contentType : MediaType.IMAGE_JPEG_VALUE;
+        List<MediaType> accepted = parseAccept(accept);
+        VariantQuality tier = VariantQuality.fromName(quality);
+        if (tier == null && acceptQuality(accepted, source) > 0) {
+            return null;
+        }
+
+        List<VariantFormat> candidates = new ArrayList<>(DerivativeSize.keepsAlpha(source)
+                ? Arrays.asList(VariantFormat.PNG, VariantFormat.JPEG)
+                : Arrays.asList(VariantFormat.JPEG, VariantFormat.PNG));
+        //stable sort, the order above decides between formats the client accepts equally
+        candidates.sort(Comparator.comparingDouble((VariantFormat format) -> acceptQuality(accepted, format.getContentType())).reversed());
+
+        for (VariantFormat format : candidates) {
+            if (acceptQuality(accepted, format.getContentType()) <= 0 || !format.isWritable()) {
+                continue;
+            }
+            if (!format.isLossy() && format.getContentType().equals(source)) {
+                return null;
+            }
+            return new Variant(format, tier != null ? tier : VariantQuality.HIGH);
+        }
+        return null;
+    }
+
+    //Returns the variant of the file with the given BlobStore key, computed once and then served from the cache
+    //Returns null if the file does not exist or cannot be decoded (no ImageIO reader for its format, such as WebP, or too many pixels)
+    //Throws VariantBusyException if the variant is not cached and as many variants as allowed are being computed
+    public Resource getVariant(String sourceKey, Variant variant) throws IOException {
+        boolean[] computed = {false};
+        Path path;
+        try {
+            path = fetch(sourceKey, variant, computed);
+        } catch (VariantBusyException e) {
+            meterRegistry.counter("imagehoster.variants.requests", "result", "rejected").increment();
+            throw e;
+        }
+        meterRegistry.counter("imagehoster.variants.requests", "result", computed[0] ? "miss" : "hit").increment();
+        return path == null ? null : new VariantResource(variant.keyOf(sourceKey), path, () -> fetch(sourceKey, variant, computed));
+    }
+
+    private Path fetch(String sourceKey, Variant variant, boolean[] computed) throws IOException {
+        return cache.get(variant.keyOf(sourceKey), () -> {
+            if (!encodes.tryAcquire()) {
+                throw new VariantBusyException();
+            }
+            try {
+                computed[0] = true;
+                return encode(sourceKey, variant);
+            } finally {
+                encodes.release();
+            }
+        });
+    }
+
+    private byte[] encode(String sourceKey, Variant variant) throws IOException {
+        Resource source = blobStore.get(sourceKey);
+        if (source == null) {
+            return null;
+        }
+        BufferedImage image;
+        try (InputStream in = source.getInputStream()) {
+            image = imageDecoder.read(in);
+        } catch (ImageTooLargeException e) {
+            return null;
+        }
+        if (image == null) {
+            return null;
+        }
+        float compression = variant.getQuality() != null ? variant.getQuality().getCompression() : 1f;
+        return resizer.encode(image, variant.getFormat(), compression);
+    }
+
+    //A missing or invalid header accepts everything
+    private List<MediaType> parseAccept(String accept) {
+        if (accept == null || accept.trim().isEmpty()) {
+            return Collections.singletonList(MediaType.ALL);
+        }
+        try {
+            return MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return Collections.singletonList(MediaType.ALL);
+        }
+    }
+
+    //Returns the q-value the client gives to the MIME type, 0 if the client does not accept it
+    //The most specific matching range wins, so 'image/png;q=0' excludes PNG even if '*/*' is accepted
+    private double acceptQuality(List<MediaType> accepted, String contentType) {
+        MediaType type = MediaType.parseMediaType(contentType);
+        int specificity = -1;
+        double quality = 0;
+        for (MediaType range : accepted) {
+            if (!range.includes(type)) {
+                continue;
+            }
+            int rangeSpecificity = (range.isWildcardType() ? 0 : 1) + (range.isWildcardSubtype() ? 0 : 1);
+            if (rangeSpecificity > specificity) {
+                specificity = rangeSpecificity;
+                quality = range.getQualityValue();
+            } else if (rangeSpecificity == specificity) {
+                quality = Math.max(quality, range.getQualityValue());
+            }
+        }
+        return quality;
+    }
+}
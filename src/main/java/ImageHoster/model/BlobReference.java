@@ -0,0 +1,71 @@
+package ImageHoster.model;
+
+import javax.persistence.*;
+import java.util.Date;
+
+//@Entity annotation specifies that the corresponding class is a JPA entity
+@Entity
+//@Table annotation provides more options to customize the mapping.
+//Here the name of the table to be created in the database is explicitly mentioned as 'blob_refs'
+//The table holds one row per blob in the BlobStore with the number of images which use it
+@Table(name = "blob_refs")
+public class BlobReference {
+
+    //The BlobStore key (SHA-256 of the bytes) is the primary key, so that identical bytes have exactly one row
+    @Id
+    @Column(name = "blob_key", length = 64)
+    private String key;
+
+    //Size of the blob in bytes
+    @Column(name = "size")
+    private long size;
+
+    //Number of images using the blob as their original, thumbnail or medium version
+    @Column(name = "ref_count")
+    private int refCount;
+
+    //Time at which the count dropped to zero, the blob is deleted once it has stayed unused for a grace period
+    @Column(name = "released_at")
+    private Date releasedAt;
+
+    public BlobReference() {
+    }
+
+    public BlobReference(String key, long size, int refCount) {
+        this.key = key;
+        this.size = size;
+        this.refCount = refCount;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(int refCount) {
+        this.refCount = refCount;
+    }
+
+    public Date getReleasedAt() {
+        return releasedAt;
+    }
+
+    public void setReleasedAt(Date releasedAt) {
+        this.releasedAt = releasedAt;
+    }
+}
@@ -1,5 +1,7 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.util.Date;
 
@@ -8,6 +10,9 @@ import java.util.Date;
 //@Table annotation provides more options to customize the mapping.
 //Here the name of the table to be created in the database is explicitly mentioned as 'comment'. Hence the table named 'comment' will be created in the database with all the columns mapped to all the attributes in 'Comment' class
 @Table(name = "comments")
+//The comments are kept in the second-level cache, the cached Image.comments collection only holds their ids
+@Cacheable
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Comment {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
@@ -0,0 +1,38 @@
+package ImageHoster.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//One page of the comments of an image, newest first
+//The comments are paginated by keyset on their id: the cursor of the next page is the id of the last (oldest) comment of this page
+//and the next page holds the comments older than it
+public class CommentPage {
+
+    private final List<Comment> comments;
+
+    private final Integer nextCursor;
+
+    public CommentPage(List<Comment> comments, Integer nextCursor) {
+        this.comments = comments;
+        this.nextCursor = nextCursor;
+    }
+
+    //Builds the page from the comments fetched for it, one more than the page size if there is a next page
+    //Fetching one comment more tells whether there is a next page without running a count query
+    public static CommentPage of(List<Comment> fetched, int pageSize) {
+        if (fetched.size() <= pageSize) {
+            return new CommentPage(fetched, null);
+        }
+        List<Comment> page = new ArrayList<>(fetched.subList(0, pageSize));
+        return new CommentPage(page, page.get(page.size() - 1).getId());
+    }
+
+    public List<Comment> getComments() {
+        return comments;
+    }
+
+    //Returns the cursor to pass as 'before' to get the next (older) page, null if this is the last page
+    public Integer getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,12 @@
+package ImageHoster.model;
+
+//Progress of the generation of the smaller versions (derivatives) of an image
+//Until an image is READY the pages show the original file
+public enum DerivativeStatus {
+    //the derivatives have not been generated yet
+    PENDING,
+    //the thumbnail and medium versions are stored in the BlobStore
+    READY,
+    //the image could not be decoded, the original is always shown
+    FAILED
+}
@@ -1,5 +1,7 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.Date;
@@ -11,6 +13,10 @@ import java.util.List;
 //@Table annotation provides more options to customize the mapping.
 //Here the name of the table to be created in the database is explicitly mentioned as 'images'. Hence the table named 'images' will be created in the database with all the columns mapped to all the attributes in 'Image' class
 @Table(name = "images")
+//The images are kept in the second-level cache (region ImageHoster.model.Image in ehcache.xml), so that a popular image page does not query its row every time
+//READ_WRITE keeps the cache consistent with updateImage() and deleteImage(), the entry is locked while the transaction runs and replaced when it commits
+@Cacheable
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Image {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
@@ -27,9 +33,54 @@ public class Image {
     // Text is a Postgres specific column type that allows you to save
     // text based data that will be longer than 256 characters
     // this is a base64 encoded version of the image
+    // The column is only kept for the images uploaded before the BlobStore was introduced, new images are never stored here
+    // Base64ImageMigration moves those images into the BlobStore and clears this column
     @Column(columnDefinition = "TEXT")
     private String imageFile;
 
+    //Key of the bytes of the image in the BlobStore
+    @Column(name = "image_key")
+    private String imageKey;
+
+    //Size of the image in bytes
+    @Column(name = "image_size")
+    private Long imageSize;
+
+    //MIME type of the image such as 'image/png'
+    @Column(name = "content_type")
+    private String contentType;
+
+    //Hex encoded SHA-256 of the bytes of the image
+    @Column(name = "image_hash")
+    private String imageHash;
+
+    //Width and height of the original image in pixels, known once the derivatives have been generated
+    @Column(name = "image_width")
+    private Integer imageWidth;
+
+    @Column(name = "image_height")
+    private Integer imageHeight;
+
+    //Progress of the generation of the thumbnail and medium versions of the image
+    //@Enumerated stores the name of the constant instead of its position
+    @Enumerated(EnumType.STRING)
+    @Column(name = "derivative_status")
+    private DerivativeStatus derivativeStatus;
+
+    //Key and width of the thumbnail version of the image in the BlobStore
+    @Column(name = "thumbnail_key")
+    private String thumbnailKey;
+
+    @Column(name = "thumbnail_width")
+    private Integer thumbnailWidth;
+
+    //Key and width of the medium version of the image in the BlobStore
+    @Column(name = "medium_key")
+    private String mediumKey;
+
+    @Column(name = "medium_width")
+    private Integer mediumWidth;
+
 
     @Column(name = "description")
     private String description;
@@ -37,6 +88,19 @@ public class Image {
     @Column(name = "date")
     private Date date;
 
+    //Number of comments and tags of the image and the time it was last posted, edited or commented, so that the gallery shows and sorts
+    //by them without loading or counting the comments and tags
+    //They are not updatable: an image edited through a form must not overwrite them, they are only changed by the statements of
+    //ImageRepository and CommentRepository which add comments and change the tags (and repaired by ImageService.reconcileCounters())
+    @Column(name = "comment_count", updatable = false)
+    private int commentCount;
+
+    @Column(name = "tag_count", updatable = false)
+    private int tagCount;
+
+    @Column(name = "last_activity", updatable = false)
+    private Date lastActivity;
+
     //The 'images' table is mapped to 'users' table with Many:One mapping
     //One image can have only one user (owner) but one user can have multiple images
     //FetchType is EAGER
@@ -48,6 +112,8 @@ public class Image {
     //The attribute contains a list of all the tags of an image
     //Note that no column will be generated for this attribute in the database instead a new table will be created
     //Since the mapping is Many to Many, a new table will be generated containing the two columns both referencing to the primary key of both the tables ('images', 'tags')
+    //The ids of the tags of each image are kept in the second-level cache, the tags themselves in the Tag region
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @ManyToMany(fetch = FetchType.LAZY)
     private List<Tag> tags = new ArrayList<>();
 
@@ -55,6 +121,9 @@ public class Image {
     //The table (primary key) is referenced by the 'comment' field in the 'images' table
     //cascade = CascadeType.REMOVE specifies that if a record in 'images' table is deleted, then all the records in 'comments' table associated to that particular record in 'comments' table will be deleted first and then the record in the 'images' table will be deleted
     //FetchType is LAZY
+    //The ids of the comments of each image are kept in the second-level cache
+    //A new comment only sets its own 'image', so the cached collection is evicted by 'hibernate.cache.auto_evict_collection_cache' (persistence.xml)
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @OneToMany(mappedBy = "image", cascade = CascadeType.REMOVE, fetch = FetchType.LAZY)
     private List<Comment> comments = new ArrayList<>();
 
@@ -102,6 +171,99 @@ public class Image {
         this.imageFile = imageFile;
     }
 
+    public String getImageKey() {
+        return imageKey;
+    }
+
+    public void setImageKey(String imageKey) {
+        this.imageKey = imageKey;
+    }
+
+    public Long getImageSize() {
+        return imageSize;
+    }
+
+    public void setImageSize(Long imageSize) {
+        this.imageSize = imageSize;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getImageHash() {
+        return imageHash;
+    }
+
+    public void setImageHash(String imageHash) {
+        this.imageHash = imageHash;
+    }
+
+    public Integer getImageWidth() {
+        return imageWidth;
+    }
+
+    public void setImageWidth(Integer imageWidth) {
+        this.imageWidth = imageWidth;
+    }
+
+    public Integer getImageHeight() {
+        return imageHeight;
+    }
+
+    public void setImageHeight(Integer imageHeight) {
+        this.imageHeight = imageHeight;
+    }
+
+    public DerivativeStatus getDerivativeStatus() {
+        return derivativeStatus;
+    }
+
+    public void setDerivativeStatus(DerivativeStatus derivativeStatus) {
+        this.derivativeStatus = derivativeStatus;
+    }
+
+    //The pages only offer the smaller versions once all of them exist
+    public boolean isDerivativesReady() {
+        return derivativeStatus == DerivativeStatus.READY;
+    }
+
+    public String getThumbnailKey() {
+        return thumbnailKey;
+    }
+
+    public void setThumbnailKey(String thumbnailKey) {
+        this.thumbnailKey = thumbnailKey;
+    }
+
+    public Integer getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+
+    public void setThumbnailWidth(Integer thumbnailWidth) {
+        this.thumbnailWidth = thumbnailWidth;
+    }
+
+    public String getMediumKey() {
+        return mediumKey;
+    }
+
+    public void setMediumKey(String mediumKey) {
+        this.mediumKey = mediumKey;
+    }
+
+    public Integer getMediumWidth() {
+        return mediumWidth;
+    }
+
+    public void setMediumWidth(Integer mediumWidth) {
+        this.mediumWidth = mediumWidth;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -118,6 +280,30 @@ public class Image {
         this.date = date;
     }
 
+    public int getCommentCount() {
+        return commentCount;
+    }
+
+    public void setCommentCount(int commentCount) {
+        this.commentCount = commentCount;
+    }
+
+    public int getTagCount() {
+        return tagCount;
+    }
+
+    public void setTagCount(int tagCount) {
+        this.tagCount = tagCount;
+    }
+
+    public Date getLastActivity() {
+        return lastActivity;
+    }
+
+    public void setLastActivity(Date lastActivity) {
+        this.lastActivity = lastActivity;
+    }
+
     public User getUser() {
         return user;
     }
@@ -0,0 +1,110 @@
+package ImageHoster.model;
+
+import java.util.Date;
+
+//The class is a read only projection of an image for the gallery pages
+//It holds only what a card in the gallery shows, the Base64 'imageFile' column, the tags and the comments are never loaded
+//The numbers of comments and tags are the counters of the image, see Image.commentCount
+//The cards are created by the JPQL constructor expression in ImageRepository.getImageCards()
+public class ImageCard {
+
+    private final Integer id;
+
+    private final String title;
+
+    private final Date date;
+
+    private final String imageHash;
+
+    private final Integer imageWidth;
+
+    private final DerivativeStatus derivativeStatus;
+
+    private final String thumbnailKey;
+
+    private final Integer thumbnailWidth;
+
+    private final String mediumKey;
+
+    private final Integer mediumWidth;
+
+    private final int commentCount;
+
+    private final int tagCount;
+
+    private final Date lastActivity;
+
+    public ImageCard(Integer id, String title, Date date, String imageHash, Integer imageWidth, DerivativeStatus derivativeStatus,
+                     String thumbnailKey, Integer thumbnailWidth, String mediumKey, Integer mediumWidth,
+                     int commentCount, int tagCount, Date lastActivity) {
+        this.id = id;
+        this.title = title;
+        this.date = date;
+        this.imageHash = imageHash;
+        this.imageWidth = imageWidth;
+        this.derivativeStatus = derivativeStatus;
+        this.thumbnailKey = thumbnailKey;
+        this.thumbnailWidth = thumbnailWidth;
+        this.mediumKey = mediumKey;
+        this.mediumWidth = mediumWidth;
+        this.commentCount = commentCount;
+        this.tagCount = tagCount;
+        this.lastActivity = lastActivity;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getImageHash() {
+        return imageHash;
+    }
+
+    public Integer getImageWidth() {
+        return imageWidth;
+    }
+
+    public DerivativeStatus getDerivativeStatus() {
+        return derivativeStatus;
+    }
+
+    public boolean isDerivativesReady() {
+        return derivativeStatus == DerivativeStatus.READY;
+    }
+
+    public String getThumbnailKey() {
+        return thumbnailKey;
+    }
+
+    public Integer getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+
+    public String getMediumKey() {
+        return mediumKey;
+    }
+
+    public Integer getMediumWidth() {
+        return mediumWidth;
+    }
+
+    public int getCommentCount() {
+        return commentCount;
+    }
+
+    public int getTagCount() {
+        return tagCount;
+    }
+
+    public Date getLastActivity() {
+        return lastActivity;
+    }
+}
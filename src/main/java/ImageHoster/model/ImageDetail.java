@@ -0,0 +1,35 @@
+package ImageHoster.model;
+
+import java.util.List;
+
+//Read model of the image detail page: the image with its owner, its tags and the first page of its comments with their authors
+//Everything the page shows is loaded up front by a fixed number of queries (see ImageService.getImageDetail()), so rendering the page
+//never initializes a lazy association, however many comments the image has
+//The older comments are loaded page by page when the viewer asks for them, see CommentController
+public class ImageDetail {
+
+    private final Image image;
+
+    private final List<Tag> tags;
+
+    private final CommentPage comments;
+
+    public ImageDetail(Image image, List<Tag> tags, CommentPage comments) {
+        this.image = image;
+        this.tags = tags;
+        this.comments = comments;
+    }
+
+    public Image getImage() {
+        return image;
+    }
+
+    public List<Tag> getTags() {
+        return tags;
+    }
+
+    //The newest comments first, at most 'imagehoster.comments.page-size' of them, with the cursor of the older ones
+    public CommentPage getComments() {
+        return comments;
+    }
+}
@@ -0,0 +1,68 @@
+package ImageHoster.model;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+//One page of the image feed, newest images first, or most recently active first
+//The feed is paginated by keyset on (date, id): the cursor of the next page is the (date, id) of the last card of this page
+//and the next page starts right after it, so every page costs the same however deep the user scrolls
+//The feed of the active images is paginated the same way on (lastActivity, id)
+public class ImagePage {
+
+    private final List<ImageCard> images;
+
+    private final String nextCursor;
+
+    public ImagePage(List<ImageCard> images, String nextCursor) {
+        this.images = images;
+        this.nextCursor = nextCursor;
+    }
+
+    public static ImagePage empty() {
+        return new ImagePage(Collections.<ImageCard>emptyList(), null);
+    }
+
+    public List<ImageCard> getImages() {
+        return images;
+    }
+
+    //Returns the cursor to pass as 'after' to get the next page, null if this is the last page
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    //Builds the cursor pointing right after the card, of the form '<date in milliseconds>.<id>'
+    public static String cursorOf(ImageCard card) {
+        return card.getDate().getTime() + "." + card.getId();
+    }
+
+    //Builds the cursor of the feed of the active images pointing right after the card, of the form '<last activity in milliseconds>.<id>'
+    public static String activityCursorOf(ImageCard card) {
+        return card.getLastActivity().getTime() + "." + card.getId();
+    }
+
+    //Returns the date (or activity) part of the cursor, null if the cursor is missing or malformed (the first page is returned then)
+    public static Date cursorDate(String cursor) {
+        long[] parts = parseCursor(cursor);
+        return parts == null ? null : new Date(parts[0]);
+    }
+
+    //Returns the id part of the cursor, null if the cursor is missing or malformed
+    public static Integer cursorId(String cursor) {
+        long[] parts = parseCursor(cursor);
+        return parts == null ? null : (int) parts[1];
+    }
+
+    private static long[] parseCursor(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        int dot = cursor.indexOf('.');
+        try {
+            return new long[]{Long.parseLong(cursor.substring(0, dot)), Integer.parseInt(cursor.substring(dot + 1))};
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ImageHoster.model;
+
+//Summary of the deduplication of the BlobStore shown on the admin storage page
+public class StorageReport {
+
+    //number of distinct blobs stored
+    private final long blobs;
+
+    //number of references from images to blobs
+    private final long references;
+
+    //bytes actually stored
+    private final long physicalBytes;
+
+    //bytes which would be stored if every reference had its own copy
+    private final long logicalBytes;
+
+    public StorageReport(long blobs, long references, long physicalBytes, long logicalBytes) {
+        this.blobs = blobs;
+        this.references = references;
+        this.physicalBytes = physicalBytes;
+        this.logicalBytes = logicalBytes;
+    }
+
+    public long getBlobs() {
+        return blobs;
+    }
+
+    public long getReferences() {
+        return references;
+    }
+
+    public long getPhysicalBytes() {
+        return physicalBytes;
+    }
+
+    public long getLogicalBytes() {
+        return logicalBytes;
+    }
+
+    //Bytes not stored thanks to deduplication
+    public long getBytesSaved() {
+        return logicalBytes - physicalBytes;
+    }
+
+    //Logical bytes per physical byte, 1.0 means that nothing has been deduplicated
+    public double getDedupRatio() {
+        return physicalBytes == 0 ? 1.0 : (double) logicalBytes / physicalBytes;
+    }
+}
@@ -1,5 +1,7 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.util.List;
 
@@ -7,7 +9,11 @@ import java.util.List;
 @Entity
 //@Table annotation provides more options to customize the mapping.
 //Here the name of the table to be created in the database is explicitly mentioned as 'Tags'. Hence the table named 'Tags' will be created in the database with all the columns mapped to all the attributes in 'Tag' class
-@Table(name = "Tags")
+//The unique constraint on the name lets concurrent uploads which introduce the same new tag insert it only once, see TagRepository.insertTags()
+@Table(name = "Tags", uniqueConstraints = @UniqueConstraint(name = "tags_name_key", columnNames = "name"))
+//The tags are kept in the second-level cache, they are read with every image page
+@Cacheable
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Tag {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
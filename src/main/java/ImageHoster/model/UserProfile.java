@@ -1,5 +1,7 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 
 //@Entity annotation specifies that the corresponding class is a JPA entity
@@ -8,6 +10,9 @@ import javax.persistence.*;
 //@Table annotation provides more options to customize the mapping.
 //Here the name of the table to be created in the database is explicitly mentioned as 'user_profile'. Hence the table named 'user_profile' will be created in the database with all the columns mapped to all the attributes in 'UserProfile' class
 @Table(name = "user_profile")
+//The profiles are kept in the second-level cache together with their users
+@Cacheable
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class UserProfile {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
@@ -0,0 +1,123 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.BlobReference;
+import ImageHoster.model.StorageReport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.*;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+//The annotation is a special type of @Component annotation which describes that the class defines a data repository
+@Repository
+public class BlobReferenceRepository {
+
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //It delegates to the EntityManager of the current transaction or request, which is closed when the transaction or request ends
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    //acquire() runs its statements in transactions of their own, so that the failed insert of a concurrent upload does not
+    //roll back the transaction of the caller, and so that releaseInNewTransaction() can run once the transaction of the caller has ended
+    private TransactionTemplate newTransaction;
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        newTransaction = new TransactionTemplate(transactionManager);
+        newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    //The method adds one reference to the blob with the given key
+    //The count is incremented by a single UPDATE statement so that concurrent uploads of the same bytes never lose an increment
+    //If there is no row for the blob yet it is inserted, if a concurrent upload inserted it first the UPDATE is run again
+    public void acquire(String key, long size) {
+        if (newTransaction.execute(status -> increment(key))) {
+            return;
+        }
+        try {
+            newTransaction.execute(status -> {
+                em.persist(new BlobReference(key, size, 1));
+                em.flush();
+                return null;
+            });
+        } catch (RuntimeException e) {
+            newTransaction.execute(status -> increment(key));
+        }
+    }
+
+    //The method removes one reference from the blob with the given key
+    //When the count reaches zero the time is recorded, the blob is deleted later by deleteUnreferenced()
+    @Transactional
+    public void release(String key) {
+        em.createQuery("UPDATE BlobReference b SET b.refCount = b.refCount - 1 where b.key =:key and b.refCount > 0")
+                .setParameter("key", key)
+                .executeUpdate();
+        em.createQuery("UPDATE BlobReference b SET b.releasedAt =:now where b.key =:key and b.refCount = 0")
+                .setParameter("now", new Date())
+                .setParameter("key", key)
+                .executeUpdate();
+    }
+
+    //The method removes one reference from the blob with the given key, in a transaction of its own
+    //It is called once the transaction of the caller has been rolled back, the statements cannot join that transaction any more
+    public void releaseInNewTransaction(String key) {
+        newTransaction.execute(status -> {
+            release(key);
+            return null;
+        });
+    }
+
+    //Executes JPQL query to fetch the keys of the blobs which have had no reference since before the given time
+    public List<String> getKeysReleasedBefore(Date before) {
+        return em.createQuery("SELECT b.key from BlobReference b where b.refCount = 0 and b.releasedAt < :before", String.class)
+                .setParameter("before", before)
+                .getResultList();
+    }
+
+    //The method deletes the row of the blob if it still has no reference and was released before the given time, and the blob itself
+    //with 'deleteBlob' while the row is locked (SELECT ... FOR UPDATE). The increment of acquire() waits for the lock: it either comes first,
+    //and the blob is kept, or finds no row once the blob is gone and inserts a new one, see BlobReferenceService.acquire()
+    //The row is kept if the blob cannot be deleted, the deletion is tried again by the next collection
+    //Returns true if the row and the blob have been deleted
+    @Transactional
+    public boolean deleteIfUnreferenced(String key, Date releasedBefore, Consumer<String> deleteBlob) {
+        BlobReference reference = em.find(BlobReference.class, key, LockModeType.PESSIMISTIC_WRITE);
+        if (reference == null || reference.getRefCount() > 0 || reference.getReleasedAt() == null || !reference.getReleasedAt().before(releasedBefore)) {
+            return false;
+        }
+        deleteBlob.accept(key);
+        em.remove(reference);
+        return true;
+    }
+
+    //Executes JPQL query to count the rows, used to find out whether the counts have to be rebuilt from the images
+    public long count() {
+        return em.createQuery("SELECT COUNT(b) from BlobReference b", Long.class).getSingleResult();
+    }
+
+    //Executes a single aggregate JPQL query over the referenced blobs and returns the deduplication report
+    public StorageReport getReport() {
+        Object[] row = em.createQuery("SELECT COUNT(b), SUM(b.refCount), SUM(b.size), SUM(b.size * b.refCount) from BlobReference b where b.refCount > 0", Object[].class)
+                .getSingleResult();
+        return new StorageReport(toLong(row[0]), toLong(row[1]), toLong(row[2]), toLong(row[3]));
+    }
+
+    //Must be called in a transaction
+    private boolean increment(String key) {
+        int updated = em.createQuery("UPDATE BlobReference b SET b.refCount = b.refCount + 1, b.releasedAt = null where b.key =:key")
+                .setParameter("key", key)
+                .executeUpdate();
+        return updated > 0;
+    }
+
+    //SUM() returns null when there is no row
+    private long toLong(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+}
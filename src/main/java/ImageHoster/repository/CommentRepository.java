@@ -1,37 +1,60 @@
 package ImageHoster.repository;
 
 import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
+import java.util.List;
 
 //The annotation is a special type of @Component annotation which describes that the class defines a data repository
 @Repository
 public class CommentRepository {
 
-    //Get an instance of EntityManagerFactory from persistence unit with name as 'imageHoster'
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
-
-    //The method receives the Comment object to be updated in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
-    //return updated Comment Object once updated.
-    public Comment createComment(Comment comment) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //It delegates to the EntityManager of the current transaction or request, which is closed when the transaction or request ends
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    //The method receives the id of the image and the new Comment object to be persisted in the database
+    //The image is never loaded: the comment count of the image is incremented first, which also tells whether the image exists,
+    //and the comment refers to the image through a reference (proxy) holding only its id, which is all the insert needs
+    //The transaction is started by @Transactional, the comment and the counter are committed together and rolled back together
+    //The increment is done by the database, so concurrent comments on the same image are all counted
+    //Returns false, and inserts nothing, if there is no image with the given id
+    @Transactional
+    public boolean createComment(Integer imageId, Comment comment) {
+        int updated = em.createQuery("UPDATE Image i SET i.commentCount = i.commentCount + 1, i.lastActivity =:date where i.id =:imageId")
+                .setParameter("date", comment.getDate())
+                .setParameter("imageId", imageId)
+                .executeUpdate();
+        if (updated == 0) {
+            return false;
+        }
+        comment.setImage(em.getReference(Image.class, imageId));
+        em.persist(comment);
+        return true;
+    }
 
-        try {
-            transaction.begin();
-            em.merge(comment);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
+    //Executes a single JPQL query fetching at most 'limit' comments of the image, newest first, together with their authors and the profiles of the authors
+    //If beforeId is given only the comments older than that comment are fetched (keyset pagination on the id, served by the index on (image_id, id))
+    //Without the joins every comment would load its author, and every author their profile, with queries of their own
+    //The image of the comments is not joined, it is expected to be loaded already by the same EntityManager
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<Comment> getComments(Integer imageId, Integer beforeId, int limit) {
+        String select = "SELECT c from Comment c join fetch c.user u left join fetch u.profile where c.image.id =:imageId ";
+        String order = " order by c.id desc";
+        TypedQuery<Comment> query;
+        if (beforeId == null) {
+            query = em.createQuery(select + order, Comment.class);
+        } else {
+            query = em.createQuery(select + "and c.id < :beforeId" + order, Comment.class)
+                    .setParameter("beforeId", beforeId);
         }
-        return comment;
+        return query.setParameter("imageId", imageId)
+                .setMaxResults(limit)
+                .getResultList();
     }
 }
-
-
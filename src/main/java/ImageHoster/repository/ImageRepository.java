@@ -1,99 +1,294 @@
 package ImageHoster.repository;
 
+import ImageHoster.model.DerivativeStatus;
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageCard;
+import org.hibernate.jpa.QueryHints;
+import org.hibernate.query.NativeQuery;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 //The annotation is a special type of @Component annotation which describes that the class defines a data repository
 @Repository
 public class ImageRepository {
 
-    //Get an instance of EntityManagerFactory from persistence unit with name as 'imageHoster'
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //It delegates to the EntityManager of the current transaction or request, which is closed when the transaction or request ends
+    //The reads marked @Transactional(readOnly = true) may be served by a read replica, see ReplicaRoutingDataSource
+    //getImage() is not, it loads the images which are then edited, deleted or processed, and is mostly served by the second-level cache
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
 
     //The method receives the Image object to be persisted in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
+    //The transaction is started by @Transactional, it is committed when the method returns and rolled back if the method throws an exception
+    //The counters of the image start from its tags, whatever the request may have bound to them
+    @Transactional
     public Image uploadImage(Image newImage) {
-
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.persist(newImage);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
-        }
+        newImage.setCommentCount(0);
+        newImage.setTagCount(newImage.getTags() == null ? 0 : newImage.getTags().size());
+        newImage.setLastActivity(newImage.getDate() == null ? new Date() : newImage.getDate());
+        em.persist(newImage);
         return newImage;
     }
 
-    //The method creates an instance of EntityManager
     //Executes JPQL query to fetch all the images from the database
     //Returns the list of all the images fetched from the database
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
     public List<Image> getAllImages() {
-        EntityManager em = emf.createEntityManager();
         TypedQuery<Image> query = em.createQuery("SELECT i from Image i", Image.class);
         List<Image> resultList = query.getResultList();
 
         return resultList;
     }
 
-    //The method creates an instance of EntityManager
-    //Executes JPQL query to fetch the image from the database with corresponding id
-    //Returns the image fetched from the database
+    //Executes JPQL query to fetch at most 'limit' image cards, newest first, ordered by (date, id)
+    //If afterDate and afterId are given only the images after that position are fetched (keyset pagination), so the database
+    //seeks directly to the position instead of skipping all the rows of the previous pages as OFFSET would
+    //The query selects only the columns of ImageCard, neither the Base64 'imageFile' column nor the user, tags or comments are loaded
+    //Only the first page, which every visitor of the home page sees, is kept in the query cache; it is discarded whenever the images table changes
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<ImageCard> getImageCards(Date afterDate, Integer afterId, int limit) {
+        return getCards("date", afterDate, afterId, limit);
+    }
+
+    //Executes JPQL query to fetch at most 'limit' image cards, most recently active first, ordered by (lastActivity, id)
+    //The activity is a column of the image kept up to date when it is commented (see Image.lastActivity), the comments are not aggregated
+    //Paginated and cached like getImageCards()
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<ImageCard> getActiveImageCards(Date afterActivity, Integer afterId, int limit) {
+        return getCards("lastActivity", afterActivity, afterId, limit);
+    }
+
+    private List<ImageCard> getCards(String orderBy, Date after, Integer afterId, int limit) {
+        String select = "SELECT new ImageHoster.model.ImageCard(i.id, i.title, i.date, i.imageHash, i.imageWidth, i.derivativeStatus, " +
+                "i.thumbnailKey, i.thumbnailWidth, i.mediumKey, i.mediumWidth, i.commentCount, i.tagCount, i.lastActivity) from Image i ";
+        String order = " order by i." + orderBy + " desc, i.id desc";
+
+        TypedQuery<ImageCard> query;
+        if (after == null || afterId == null) {
+            query = em.createQuery(select + "where i." + orderBy + " is not null" + order, ImageCard.class)
+                    .setHint(QueryHints.HINT_CACHEABLE, true);
+        } else {
+            query = em.createQuery(select + "where i." + orderBy + " < :after or (i." + orderBy + " = :after and i.id < :afterId)" + order, ImageCard.class)
+                    .setParameter("after", after)
+                    .setParameter("afterId", afterId);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    //Executes JPQL query to fetch the image cards of the images with the given ids, in no particular order
+    //The ids which no longer exist are left out
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<ImageCard> getImageCardsByIds(List<Integer> imageIds) {
+        if (imageIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return em.createQuery("SELECT new ImageHoster.model.ImageCard(i.id, i.title, i.date, i.imageHash, i.imageWidth, i.derivativeStatus, " +
+                "i.thumbnailKey, i.thumbnailWidth, i.mediumKey, i.mediumWidth, i.commentCount, i.tagCount, i.lastActivity) from Image i " +
+                "where i.id in :imageIds", ImageCard.class)
+                .setParameter("imageIds", imageIds)
+                .getResultList();
+    }
+
+    //Fetches the image with corresponding id by its primary key, so that it is taken from the second-level cache if it is cached there
+    //Returns the image fetched from the database, throws NoResultException if there is no such image
     public Image getImage(Integer imageId) {
-        EntityManager em = emf.createEntityManager();
-        TypedQuery<Image> typedQuery = em.createQuery("SELECT i from Image i where i.id =:imageId", Image.class).setParameter("imageId", imageId);
-        Image image = typedQuery.getSingleResult();
+        Image image = em.find(Image.class, imageId);
+        if (image == null) {
+            throw new NoResultException("No image with id " + imageId);
+        }
         return image;
     }
 
+    //Executes a single JPQL query fetching the image together with its owner, the profile of the owner and the tags of the image
+    //Returns the image fetched from the database, throws NoResultException if there is no such image
+    //The tags are joined, so the image row is repeated per tag and DISTINCT removes the duplicates in memory only
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public Image getImageWithTags(Integer imageId) {
+        List<Image> images = em.createQuery("SELECT DISTINCT i from Image i left join fetch i.user u left join fetch u.profile " +
+                "left join fetch i.tags where i.id =:imageId", Image.class)
+                .setParameter("imageId", imageId)
+                .setHint(QueryHints.HINT_PASS_DISTINCT_THROUGH, false)
+                .getResultList();
+        if (images.isEmpty()) {
+            throw new NoResultException("No image with id " + imageId);
+        }
+        return images.get(0);
+    }
+
     //The method receives the Image object to be updated in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
+    //The transaction is started by @Transactional, it is committed when the method returns and rolled back if the method throws an exception
+    //The counters are not updatable by merge(), the tag count and the activity are set by a JPQL update in the same transaction
+    //The tags are counted on the merged image: the given image may be detached with its tags not loaded, as Base64ImageMigration passes it
+    @Transactional
     public void updateImage(Image updatedImage) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.merge(updatedImage);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
-        }
+        Image merged = em.merge(updatedImage);
+        em.createQuery("UPDATE Image i SET i.tagCount =:tagCount, i.lastActivity =:now where i.id =:imageId")
+                .setParameter("tagCount", merged.getTags() == null ? 0 : merged.getTags().size())
+                .setParameter("now", updatedImage.getDate() == null ? new Date() : updatedImage.getDate())
+                .setParameter("imageId", updatedImage.getId())
+                .executeUpdate();
+    }
+
+    //Recounts the comments and tags of every image and sets the counters which differ from the counts
+    //The images without an activity get their date, the activity is otherwise left as it is
+    //The counts use the indexes on comments (image_id) and on the key of images_Tags, see db/migration
+    //Declaring the table limits the invalidation of the second-level cache to the images, a native statement would otherwise clear every region
+    //Returns the number of images repaired
+    @Transactional
+    public int reconcileCounters() {
+        String comments = "(SELECT COUNT(*) FROM comments c WHERE c.image_id = images.id)";
+        String tags = "(SELECT COUNT(*) FROM images_Tags t WHERE t.images_id = images.id)";
+        Query query = em.createNativeQuery("UPDATE images SET comment_count = " + comments + ", tag_count = " + tags +
+                ", last_activity = COALESCE(last_activity, date) " +
+                "WHERE comment_count <> " + comments + " OR tag_count <> " + tags + " OR (last_activity IS NULL AND date IS NOT NULL)");
+        query.unwrap(NativeQuery.class).addSynchronizedEntityClass(Image.class);
+        return query.executeUpdate();
+    }
+
+    //The method locks the row of the image with corresponding id until the transaction commits, and returns the image read from it
+    //Returns null if there is no such image
+    //DerivativeService records the derivatives of an image with an update of the row, which waits for the lock: the keys and the derivative
+    //columns read here stay current until the transaction which changes or deletes the image commits
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Image lockImage(Integer imageId) {
+        return em.find(Image.class, imageId, LockModeType.PESSIMISTIC_WRITE);
     }
 
     //The method receives the Image id of the image to be deleted in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
     //Get the image with corresponding image id from the database
     //This changes the state of the image model from detached state to persistent state, which is very essential to use the remove() method
     //If you use remove() method on the object which is not in persistent state, an exception is thrown
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
-    public void deleteImage(Integer imageId) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            Image image = em.find(Image.class, imageId);
-            em.remove(image);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
+    //The transaction is started by @Transactional, it is committed when the method returns and rolled back if the method throws an exception
+    //Returns the id of the owner of the deleted image, null if there was no such image
+    @Transactional
+    public Integer deleteImage(Integer imageId) {
+        Image image = em.find(Image.class, imageId);
+        if (image == null) {
+            return null;
         }
+        em.remove(image);
+        return image.getUser() == null ? null : image.getUser().getId();
     }
 
+    //Executes JPQL query to fetch only the BlobStore keys of the image with corresponding id (original, thumbnail and medium), the image itself is not loaded
+    //Returns the keys which are set, an empty list if the image does not exist
+    public List<String> getImageKeys(Integer imageId) {
+        List<Object[]> rows = em.createQuery("SELECT i.imageKey, i.thumbnailKey, i.mediumKey from Image i where i.id =:imageId", Object[].class).setParameter("imageId", imageId).getResultList();
+        List<String> keys = new ArrayList<>();
+        for (Object[] row : rows) {
+            for (Object key : row) {
+                if (key != null && !keys.contains(key)) {
+                    keys.add((String) key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    //Executes JPQL query to fetch the BlobStore keys of all the images as rows of (imageKey, thumbnailKey, mediumKey, imageSize)
+    //Only used to rebuild the reference counts of the blobs
+    public List<Object[]> getAllImageKeys() {
+        return em.createQuery("SELECT i.imageKey, i.thumbnailKey, i.mediumKey, i.imageSize from Image i where i.imageKey is not null", Object[].class).getResultList();
+    }
+
+    //Executes JPQL query to fetch the highest image id, null if there are no images
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public Integer getMaxImageId() {
+        return em.createQuery("SELECT max(i.id) from Image i", Integer.class).getSingleResult();
+    }
+
+    //Executes JPQL query to fetch the text of at most 'limit' images with an id in (afterId, toId], as rows of (id, title, description) by id
+    //Only used to build the search index, see SearchService
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<Object[]> getSearchDocuments(int afterId, int toId, int limit) {
+        return em.createQuery("SELECT i.id, i.title, i.description from Image i where i.id > :afterId and i.id <= :toId order by i.id", Object[].class)
+                .setParameter("afterId", afterId)
+                .setParameter("toId", toId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    //Executes JPQL query to fetch the ids of at most 'limit' images with an id above afterId, in ascending order
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<Integer> getImageIds(int afterId, int limit) {
+        return em.createQuery("SELECT i.id from Image i where i.id > :afterId order by i.id", Integer.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    //Executes JPQL query to fetch the ids of at most 'limit' images of the user with an id below beforeId, newest (highest id) first
+    //The images are found by the index on (user_id, id), see V5__images_user_id_id_index.sql
+    //The ids are read from the primary, not from a replica: GalleryCache keeps them, and an upload which a lagging replica has not
+    //received yet would be missing from the gallery until it is invalidated or expires. Without a transaction the query goes to the primary,
+    //see ReplicaRoutingDataSource
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<Integer> getUserImageIds(Integer userId, int beforeId, int limit) {
+        return em.createQuery("SELECT i.id from Image i where i.user.id = :userId and i.id < :beforeId order by i.id desc", Integer.class)
+                .setParameter("userId", userId)
+                .setParameter("beforeId", beforeId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    //Executes JPQL query to fetch the tag names of the images with the given ids, as rows of (image id, tag name)
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<Object[]> getTagNames(List<Integer> imageIds) {
+        return em.createQuery("SELECT i.id, t.name from Image i join i.tags t where i.id in :imageIds", Object[].class)
+                .setParameter("imageIds", imageIds)
+                .getResultList();
+    }
+
+    //Executes JPQL query to fetch the ids of at most 'max' images whose derivatives have not been generated yet
+    public List<Integer> getImageIdsWithPendingDerivatives(int max) {
+        return em.createQuery("SELECT i.id from Image i where i.imageKey is not null and (i.derivativeStatus is null or i.derivativeStatus =:pending) order by i.id", Integer.class)
+                .setParameter("pending", DerivativeStatus.PENDING)
+                .setMaxResults(max)
+                .getResultList();
+    }
+
+    //The method receives the image with its generated derivatives
+    //Executes a JPQL update of only the derivative columns, so that the other columns edited in the meantime are not overwritten
+    //The update only happens if the file of the image is still the one the derivatives were generated from
+    //Returns true if the image has been updated
+    @Transactional
+    public boolean updateDerivatives(Image image) {
+        int updated = em.createQuery("UPDATE Image i SET i.derivativeStatus =:status, i.imageWidth =:imageWidth, i.imageHeight =:imageHeight, " +
+                "i.thumbnailKey =:thumbnailKey, i.thumbnailWidth =:thumbnailWidth, i.mediumKey =:mediumKey, i.mediumWidth =:mediumWidth " +
+                "where i.id =:imageId and i.imageKey =:imageKey")
+                .setParameter("status", image.getDerivativeStatus())
+                .setParameter("imageWidth", image.getImageWidth())
+                .setParameter("imageHeight", image.getImageHeight())
+                .setParameter("thumbnailKey", image.getThumbnailKey())
+                .setParameter("thumbnailWidth", image.getThumbnailWidth())
+                .setParameter("mediumKey", image.getMediumKey())
+                .setParameter("mediumWidth", image.getMediumWidth())
+                .setParameter("imageId", image.getId())
+                .setParameter("imageKey", image.getImageKey())
+                .executeUpdate();
+        return updated > 0;
+    }
+
+    //The method sets the derivative status of the image with corresponding id, if its file is still the one with the given key
+    @Transactional
+    public void updateDerivativeStatus(Integer imageId, String imageKey, DerivativeStatus status) {
+        em.createQuery("UPDATE Image i SET i.derivativeStatus =:status where i.id =:imageId and i.imageKey =:imageKey")
+                .setParameter("status", status)
+                .setParameter("imageId", imageId)
+                .setParameter("imageKey", imageKey)
+                .executeUpdate();
+    }
+
+    //Executes JPQL query to fetch the ids of all the images still stored as Base64 text in the 'imageFile' column
+    public List<Integer> getImageIdsWithInlineFile() {
+        return em.createQuery("SELECT i.id from Image i where i.imageFile is not null order by i.id", Integer.class).getResultList();
+    }
 }
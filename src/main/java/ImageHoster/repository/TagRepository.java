@@ -1,31 +1,29 @@
 package ImageHoster.repository;
 
 import ImageHoster.model.Tag;
+import org.hibernate.query.NativeQuery;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 @Repository
 public class TagRepository {
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
+    @Transactional
     public Tag createTag(Tag tag) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.persist(tag);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
-        }
+        em.persist(tag);
         return tag;
     }
 
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
     public Tag findTag(String tagName) {
-        EntityManager em = emf.createEntityManager();
         try {
             TypedQuery<Tag> typedQuery = em.createQuery("SELECT t from Tag t where t.name =:tagName", Tag.class).setParameter("tagName", tagName);
             return typedQuery.getSingleResult();
@@ -33,4 +31,50 @@ public class TagRepository {
             return null;
         }
     }
+
+    //Executes a single JPQL query with an IN clause to fetch all the tags with the given names
+    //Names which have no tag yet are simply missing from the result
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<Tag> findTags(Collection<String> tagNames) {
+        if (tagNames.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return em.createQuery("SELECT t from Tag t where t.name in :tagNames", Tag.class)
+                .setParameter("tagNames", tagNames)
+                .getResultList();
+    }
+
+    //The method inserts tags with all the given names in a single multi-row INSERT statement
+    //Names for which a concurrent upload has inserted a tag in the meantime violate the unique name and are skipped by ON CONFLICT, so a name never has two rows
+    //The conflict target is left out, which Postgres and H2 (used by the tests) both accept
+    //The ids are taken from the sequence which Hibernate uses for the generated ids of Tag
+    //Returns the number of tags inserted, the caller fetches the tags with findTags() afterwards
+    @Transactional
+    public int insertTags(Collection<String> tagNames) {
+        if (tagNames.isEmpty()) {
+            return 0;
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO Tags (id, name) VALUES ");
+        for (int i = 1; i <= tagNames.size(); i++) {
+            sql.append(i > 1 ? ", " : "").append("(nextval('hibernate_sequence'), ?").append(i).append(")");
+        }
+        sql.append(" ON CONFLICT DO NOTHING");
+
+        //Declaring the table limits the invalidation of the second-level cache to the tags, a native statement would otherwise clear every region
+        Query query = em.createNativeQuery(sql.toString());
+        query.unwrap(NativeQuery.class).addSynchronizedEntityClass(Tag.class);
+        int position = 1;
+        for (String tagName : tagNames) {
+            query.setParameter(position++, tagName);
+        }
+        return query.executeUpdate();
+    }
+
+    //Executes JPQL query to fetch the names and ids of the tags used by the most images, at most the given number
+    //Each row holds the name and the id of a tag
+    public List<Object[]> getMostUsedTagIds(int maxResults) {
+        return em.createQuery("SELECT t.name, t.id from Tag t left join t.images i group by t.id, t.name order by count(i) desc", Object[].class)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
 }
@@ -0,0 +1,67 @@
+package ImageHoster.repository;
+
+import org.hibernate.query.NativeQuery;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+//The checkpoints of the trending scores, see TrendingService
+//The table has no entity, it is only written and read as a whole window at a time with native statements
+@Repository
+public class TrendingRepository {
+
+    private static final String TABLE = "trending_scores";
+
+    //Number of rows written by one multi-row INSERT statement
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    //The method replaces the checkpoint of the window with the given scores, as they were at the given time, in one transaction
+    //The rows are written by multi-row INSERT statements of INSERT_BATCH_SIZE rows each
+    @Transactional
+    public void saveScores(String window, Map<Integer, Double> scores, Date at) {
+        Query delete = em.createNativeQuery("DELETE FROM " + TABLE + " WHERE time_window = ?1").setParameter(1, window);
+        synchronize(delete).executeUpdate();
+
+        List<Map.Entry<Integer, Double>> rows = new ArrayList<>(scores.entrySet());
+        for (int from = 0; from < rows.size(); from += INSERT_BATCH_SIZE) {
+            List<Map.Entry<Integer, Double>> batch = rows.subList(from, Math.min(rows.size(), from + INSERT_BATCH_SIZE));
+            StringBuilder sql = new StringBuilder("INSERT INTO " + TABLE + " (time_window, image_id, score, updated_at) VALUES ");
+            for (int i = 0; i < batch.size(); i++) {
+                int position = 3 + 2 * i;
+                sql.append(i > 0 ? ", " : "").append("(?1, ?").append(position).append(", ?").append(position + 1).append(", ?2)");
+            }
+            Query insert = em.createNativeQuery(sql.toString()).setParameter(1, window).setParameter(2, at);
+            int position = 3;
+            for (Map.Entry<Integer, Double> row : batch) {
+                insert.setParameter(position++, row.getKey());
+                insert.setParameter(position++, row.getValue());
+            }
+            synchronize(insert).executeUpdate();
+        }
+    }
+
+    //Executes a native query to fetch the checkpointed scores of all the windows
+    //Each row holds the window, the image id, the score and the time of the score
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getScores() {
+        return em.createNativeQuery("SELECT time_window, image_id, score, updated_at FROM " + TABLE).getResultList();
+    }
+
+    //Declaring the table limits the invalidation of the second-level cache to it, a native statement would otherwise clear every region
+    private static Query synchronize(Query query) {
+        query.unwrap(NativeQuery.class).addSynchronizedQuerySpace(TABLE);
+        return query;
+    }
+}
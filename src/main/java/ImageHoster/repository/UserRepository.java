@@ -2,44 +2,36 @@ package ImageHoster.repository;
 
 import ImageHoster.model.User;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
+import java.util.List;
 
 //The annotation is a special type of @Component annotation which describes that the class defines a data repository
 @Repository
 public class UserRepository {
-    //Get an instance of EntityManagerFactory from persistence unit with name as 'imageHoster'
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //It delegates to the EntityManager of the current transaction or request, which is closed when the transaction or request ends
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
     //The method receives the User object to be persisted in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
+    //The transaction is started by @Transactional, it is committed when the method returns and rolled back if the method throws an exception
+    @Transactional
     public void registerUser(User newUser) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            //persist() method changes the state of the model object from transient state to persistence state
-            em.persist(newUser);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
-        }
+        //persist() method changes the state of the model object from transient state to persistence state
+        em.persist(newUser);
     }
 
 
     //The method receives the entered username and password
-    //Creates an instance of EntityManager
     //Executes JPQL query to fetch the user from User class where username is equal to received username and password is equal to received password
     //Returns the fetched user
     //Returns null in case of NoResultException
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
     public User checkUser(String username, String password) {
         try {
-            EntityManager em = emf.createEntityManager();
             TypedQuery<User> typedQuery = em.createQuery("SELECT u FROM User u WHERE u.username = :username AND u.password = :password", User.class);
             typedQuery.setParameter("username", username);
             typedQuery.setParameter("password", password);
@@ -49,4 +41,15 @@ public class UserRepository {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    //Executes JPQL query to fetch only the id of the user with the given username, null if there is no such user
+    //Usernames were not always unique (see V2__indexes.sql), the first user registered with the name is returned then
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public Integer getUserId(String username) {
+        List<Integer> ids = em.createQuery("SELECT u.id FROM User u WHERE u.username = :username ORDER BY u.id", Integer.class)
+                .setParameter("username", username)
+                .setMaxResults(1)
+                .getResultList();
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+}
@@ -0,0 +1,519 @@
+package ImageHoster.search;
+
+import java.util.Arrays;
+
+//Compressed set of image ids, laid out like a Roaring bitmap
+//The ids are split by their upper 16 bits into chunks of 65536 ids, and each chunk keeps its lower 16 bits in the smaller of two forms:
+//a sorted array of 16-bit values while it holds at most ARRAY_MAX ids (2 bytes per id), a plain bitmap of 65536 bits (8 KB) beyond that
+//A tag used by few images therefore costs a few bytes per image, a tag used by most images one bit per id
+//and, or and andNot combine two sets chunk by chunk, without decompressing them
+//The ids are never negative. The set is not thread-safe, see TagIndex
+public class IdBitmap {
+
+    //Above this number of ids a bitmap is smaller than the array
+    static final int ARRAY_MAX = 4096;
+
+    private int[] keys = new int[0];
+
+    private Container[] containers = new Container[0];
+
+    private int size;
+
+    //Adds the id, returns true if it was not in the set
+    public boolean add(int id) {
+        int key = id >>> 16;
+        int index = find(key);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, key, new ArrayContainer());
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        containers[index] = container.add((char) id);
+        return containers[index].cardinality() > before;
+    }
+
+    //Removes the id, returns true if it was in the set
+    public boolean remove(int id) {
+        int index = find(id >>> 16);
+        if (index < 0) {
+            return false;
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        containers[index] = container.remove((char) id);
+        if (containers[index].cardinality() == 0) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+            containers[--size] = null;
+            return true;
+        }
+        return containers[index].cardinality() < before;
+    }
+
+    public boolean contains(int id) {
+        int index = find(id >>> 16);
+        return index >= 0 && containers[index].contains((char) id);
+    }
+
+    //Returns the number of ids in the set
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    //Returns the ids which are in both sets, as a new set
+    public IdBitmap and(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.append(keys[i], containers[i].and(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    //Returns the ids which are in either set, as a new set
+    public IdBitmap or(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    //Returns the ids of this set which are not in the other one, as a new set
+    public IdBitmap andNot(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                result.append(keys[i], containers[i].andNot(other.containers[j]));
+            } else {
+                result.append(keys[i], containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    //Returns at most 'limit' ids of the set which are lower than 'before', highest first
+    //The pages of a listing newest first are read with the last id of the previous page as 'before'
+    public int[] descending(int before, int limit) {
+        if (before <= 0 || limit <= 0) {
+            return new int[0];
+        }
+        int[] ids = new int[Math.min(limit, cardinality())];
+        int count = 0;
+        int last = before - 1;
+        int key = last >>> 16;
+        for (int i = size - 1; i >= 0 && count < ids.length; i--) {
+            if (keys[i] > key) {
+                continue;
+            }
+            //the chunk of 'before' is read below it, the lower chunks entirely
+            int below = keys[i] == key ? (last & 0xFFFF) + 1 : 0x10000;
+            count = containers[i].descending(keys[i] << 16, below, ids, count, ids.length);
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    //Returns the approximate number of bytes used by the set
+    public long sizeInBytes() {
+        long bytes = 16 + keys.length * 4L + containers.length * 8L;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private int find(int key) {
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int index, int key, Container container) {
+        if (size == keys.length) {
+            int length = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, length);
+            containers = Arrays.copyOf(containers, length);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    //Adds a chunk after the last one, empty chunks are left out
+    private void append(int key, Container container) {
+        if (container.cardinality() > 0) {
+            insert(size, key, container);
+        }
+    }
+
+    //The lower 16 bits of the ids of one chunk
+    //The operations which can change the form of the container return the container to use from then on
+    private abstract static class Container {
+
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        //Copies the values lower than 'below' into 'ids', highest first, as ids of the chunk starting at 'base'
+        //Stops at 'limit' ids in 'ids' and returns the number of ids in 'ids'
+        abstract int descending(int base, int below, int[] ids, int count, int limit);
+
+        abstract long sizeInBytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+
+        private char[] values;
+
+        private int cardinality;
+
+        private ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        private ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = cardinality == 0 || value > values[cardinality - 1] ? -cardinality - 1 : Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[cardinality];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            char[] result = new char[cardinality + array.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    result[count++] = values[i++];
+                } else if (i == cardinality || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            ArrayContainer merged = new ArrayContainer(result, count);
+            return count > ARRAY_MAX ? merged.toBitmap() : merged;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] result = new char[cardinality];
+            int count = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (!other.contains(values[i])) {
+                    result[count++] = values[i];
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+        }
+
+        @Override
+        int descending(int base, int below, int[] ids, int count, int limit) {
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) Math.min(below, 0xFFFF));
+            //the position of the first value not lower than 'below'
+            int end = below > 0xFFFF ? cardinality : (index >= 0 ? index : -index - 1);
+            for (int i = end - 1; i >= 0 && count < limit; i--) {
+                ids[count++] = base | values[i];
+            }
+            return count;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + values.length * 2L;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.set(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+
+        private final long[] words;
+
+        private int cardinality;
+
+        private BitmapContainer() {
+            this(new long[1024], 0);
+        }
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            if (contains(value)) {
+                words[value >>> 6] &= ~(1L << value);
+                cardinality--;
+                if (cardinality <= ARRAY_MAX) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] result = new long[1024];
+            long[] otherWords = ((BitmapContainer) other).words;
+            for (int i = 0; i < result.length; i++) {
+                result[i] = words[i] & otherWords[i];
+            }
+            return of(result);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof ArrayContainer) {
+                BitmapContainer result = (BitmapContainer) copy();
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    result.set(array.values[i]);
+                }
+                return result;
+            }
+            long[] result = new long[1024];
+            long[] otherWords = ((BitmapContainer) other).words;
+            for (int i = 0; i < result.length; i++) {
+                result[i] = words[i] | otherWords[i];
+            }
+            return of(result);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    result[array.values[i] >>> 6] &= ~(1L << array.values[i]);
+                }
+            } else {
+                long[] otherWords = ((BitmapContainer) other).words;
+                for (int i = 0; i < result.length; i++) {
+                    result[i] &= ~otherWords[i];
+                }
+            }
+            return of(result);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        int descending(int base, int below, int[] ids, int count, int limit) {
+            if (below == 0) {
+                return count;
+            }
+            int last = below - 1;
+            int index = last >>> 6;
+            //the bits above 'last' in its word are masked out
+            long word = words[index] & (-1L >>> (63 - (last & 63)));
+            while (count < limit) {
+                if (word == 0) {
+                    if (--index < 0) {
+                        break;
+                    }
+                    word = words[index];
+                    continue;
+                }
+                int bit = 63 - Long.numberOfLeadingZeros(word);
+                ids[count++] = base | (index << 6 | bit);
+                word &= ~(1L << bit);
+            }
+            return count;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + words.length * 8L;
+        }
+
+        private void set(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[Math.max(1, cardinality)];
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[count++] = (char) (i << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+
+        //Returns the container of the words, an array if they are few enough
+        private static Container of(long[] words) {
+            int cardinality = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+            BitmapContainer bitmap = new BitmapContainer(words, cardinality);
+            return cardinality <= ARRAY_MAX ? bitmap.toArray() : bitmap;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package ImageHoster.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//In-memory full-text index of the images: every term of the title, the description and the tag names of an image (see Tokenizer)
+//is mapped to the posting list of the images which contain it, the ids sorted with the number of occurrences of the term
+//The fields are weighted, a term of the title counts TITLE_WEIGHT times and a term of a tag TAG_WEIGHT times, so that an image
+//titled 'sunset' ranks before one which mentions a sunset in its description
+//The results are ranked with Okapi BM25: rare terms weigh more than common ones (idf), repeating a term has diminishing returns (k1),
+//and long documents are normalized against the average length (b)
+//The index is updated one image at a time by put() and remove(), the searches run concurrently with each other and wait for the updates
+public class InvertedIndex {
+
+    static final int TITLE_WEIGHT = 3;
+
+    static final int TAG_WEIGHT = 2;
+
+    static final int DESCRIPTION_WEIGHT = 1;
+
+    //The usual BM25 parameters
+    private static final double K1 = 1.2;
+
+    private static final double B = 0.75;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    private final Map<Integer, Document> documents = new HashMap<>();
+
+    //Sum of the lengths of the documents, for their average length
+    private long totalLength;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //Adds the image to the index, or replaces its previous version
+    public void put(int imageId, String title, String description, Collection<String> tags) {
+        Document document = Document.of(title, description, tags);
+        lock.writeLock().lock();
+        try {
+            removeDocument(imageId);
+            documents.put(imageId, document);
+            totalLength += document.length;
+            for (int i = 0; i < document.terms.length; i++) {
+                postings.computeIfAbsent(document.terms[i], term -> new Postings()).add(imageId, document.frequencies[i]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Removes the image from the index, if it is there
+    public void remove(int imageId) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(imageId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeDocument(int imageId) {
+        Document document = documents.remove(imageId);
+        if (document == null) {
+            return;
+        }
+        totalLength -= document.length;
+        for (String term : document.terms) {
+            Postings list = postings.get(term);
+            if (list != null && list.remove(imageId) && list.size == 0) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    //Returns the ids of the at most 'limit' images which match the query best, best first
+    //An image matches if it contains any of the terms of the query, the images containing more of them and rarer ones rank first
+    //Images with the same score are returned newest (highest id) first
+    public List<Integer> search(String query, int limit) {
+        Set<String> terms = new LinkedHashSet<>(Tokenizer.tokenize(query));
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        Map<Integer, double[]> scores = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            int count = documents.size();
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+            double averageLength = Math.max(1, (double) totalLength / count);
+            //term at a time: the score of every image of a posting list is increased by the weight of the term in it
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (count - list.size + 0.5) / (list.size + 0.5));
+                for (int i = 0; i < list.size; i++) {
+                    int frequency = list.frequencies[i];
+                    double norm = K1 * (1 - B + B * documents.get(list.ids[i]).length / averageLength);
+                    scores.computeIfAbsent(list.ids[i], id -> new double[1])[0] += idf * frequency * (K1 + 1) / (frequency + norm);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        //keeps the 'limit' best images in a heap whose head is the worst of them
+        PriorityQueue<Map.Entry<Integer, double[]>> best = new PriorityQueue<>(Math.min(limit, Math.max(1, scores.size())),
+                (a, b) -> a.getValue()[0] != b.getValue()[0] ? Double.compare(a.getValue()[0], b.getValue()[0]) : Integer.compare(a.getKey(), b.getKey()));
+        for (Map.Entry<Integer, double[]> score : scores.entrySet()) {
+            best.add(score);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        Integer[] ids = new Integer[best.size()];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            ids[i] = best.poll().getKey();
+        }
+        return Arrays.asList(ids);
+    }
+
+    //Returns the number of images in the index
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns the number of distinct terms in the index
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns the index of all the images of the parts, the parts are built from consecutive ranges of ids in ascending order
+    //The posting lists of the parts are then concatenated rather than merged one id at a time
+    static InvertedIndex merge(List<InvertedIndex> parts) {
+        InvertedIndex merged = new InvertedIndex();
+        for (InvertedIndex part : parts) {
+            merged.documents.putAll(part.documents);
+            merged.totalLength += part.totalLength;
+            for (Map.Entry<String, Postings> entry : part.postings.entrySet()) {
+                merged.postings.computeIfAbsent(entry.getKey(), term -> new Postings()).addAll(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    //The terms of an image with their weighted number of occurrences
+    private static class Document {
+
+        private final String[] terms;
+
+        private final int[] frequencies;
+
+        //Sum of the weighted occurrences
+        private final int length;
+
+        private Document(String[] terms, int[] frequencies, int length) {
+            this.terms = terms;
+            this.frequencies = frequencies;
+            this.length = length;
+        }
+
+        private static Document of(String title, String description, Collection<String> tags) {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            count(counts, Tokenizer.tokenize(title), TITLE_WEIGHT);
+            if (tags != null) {
+                for (String tag : tags) {
+                    count(counts, Tokenizer.tokenize(tag), TAG_WEIGHT);
+                }
+            }
+            count(counts, Tokenizer.tokenize(description), DESCRIPTION_WEIGHT);
+
+            String[] terms = new String[counts.size()];
+            int[] frequencies = new int[counts.size()];
+            int length = 0;
+            int i = 0;
+            for (Map.Entry<String, Integer> count : counts.entrySet()) {
+                terms[i] = count.getKey();
+                frequencies[i] = count.getValue();
+                length += count.getValue();
+                i++;
+            }
+            return new Document(terms, frequencies, length);
+        }
+
+        private static void count(Map<String, Integer> counts, List<String> terms, int weight) {
+            for (String term : terms) {
+                counts.merge(term, weight, Integer::sum);
+            }
+        }
+    }
+
+    //The images containing a term, as sorted ids with the weighted number of occurrences of the term in each image
+    //New images have the highest ids, so adding one is usually an append
+    static class Postings {
+
+        private int[] ids = new int[2];
+
+        private int[] frequencies = new int[2];
+
+        private int size;
+
+        void add(int id, int frequency) {
+            int index = size == 0 || id > ids[size - 1] ? -size - 1 : Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                frequencies[index] = frequency;
+                return;
+            }
+            index = -index - 1;
+            grow(size + 1);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            System.arraycopy(frequencies, index, frequencies, index + 1, size - index);
+            ids[index] = id;
+            frequencies[index] = frequency;
+            size++;
+        }
+
+        //Returns true if the id was in the list
+        boolean remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            System.arraycopy(frequencies, index + 1, frequencies, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        void addAll(Postings other) {
+            if (size > 0 && other.size > 0 && other.ids[0] <= ids[size - 1]) {
+                for (int i = 0; i < other.size; i++) {
+                    add(other.ids[i], other.frequencies[i]);
+                }
+                return;
+            }
+            grow(size + other.size);
+            System.arraycopy(other.ids, 0, ids, size, other.size);
+            System.arraycopy(other.frequencies, 0, frequencies, size, other.size);
+            size += other.size;
+        }
+
+        private void grow(int capacity) {
+            if (capacity > ids.length) {
+                int length = Math.max(capacity, ids.length * 2);
+                ids = Arrays.copyOf(ids, length);
+                frequencies = Arrays.copyOf(frequencies, length);
+            }
+        }
+    }
+}
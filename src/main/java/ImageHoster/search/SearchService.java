@@ -0,0 +1,246 @@
+package ImageHoster.search;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageCard;
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.Tag;
+import ImageHoster.repository.ImageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+//Full-text search over the titles, descriptions and tag names of the images, served from the node-local InvertedIndex
+//The index is built from the database when the application starts, by 'imagehoster.search.rebuild-threads' threads which each read
+//a range of image ids, and is then kept up to date by ImageService when an image is uploaded, edited or deleted
+//The images changed while the index is being built are applied to the new index once it is complete, so no change is lost
+//The index is in-process, an image changed on another node of the application is only found here after the next restart
+//Metrics, available at /actuator/metrics:
+//  imagehoster.search.queries     time to answer a search, ranking and loading of the cards
+//  imagehoster.search.documents   number of images in the index
+//  imagehoster.search.terms       number of distinct terms in the index
+@Service
+@Order(4)
+public class SearchService implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchService.class);
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    //Number of images on one page of the search results, the page size of the feed
+    @Value("${imagehoster.feed.page-size:20}")
+    private int pageSize;
+
+    //Deepest result which can be reached by paging, a search never ranks more images than that
+    @Value("${imagehoster.search.max-results:1000}")
+    private int maxResults;
+
+    @Value("${imagehoster.search.rebuild-threads:4}")
+    private int rebuildThreads;
+
+    @Value("${imagehoster.search.rebuild-batch-size:1000}")
+    private int rebuildBatchSize;
+
+    private volatile InvertedIndex index = new InvertedIndex();
+
+    //Changes made while the index is rebuilt, null when no rebuild is running, guarded by 'this'
+    private List<Consumer<InvertedIndex>> pending;
+
+    private final Timer queries;
+
+    public SearchService(MeterRegistry registry) {
+        this.queries = registry.timer("imagehoster.search.queries");
+        registry.gauge("imagehoster.search.documents", this, service -> service.index.size());
+        registry.gauge("imagehoster.search.terms", this, service -> service.index.termCount());
+    }
+
+    //Builds the index when the application starts
+    //The application works without it, searches then only find the images changed since the start, so a failure is only logged
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            log.warn("Could not build the search index", e);
+        }
+    }
+
+    //Returns the page of the images matching the query, best first, the cursor of the next page is its number
+    public ImagePage search(String query, String page) {
+        int number = Math.min(pageNumber(page), maxResults);
+        int offset = number * pageSize;
+        if (offset >= maxResults) {
+            return ImagePage.empty();
+        }
+        return queries.record(() -> {
+            //one image more than the page tells whether there is a next page
+            List<Integer> ids = index.search(query, Math.min(offset + pageSize + 1, maxResults));
+            if (ids.size() <= offset) {
+                return ImagePage.empty();
+            }
+            boolean more = ids.size() > offset + pageSize;
+            List<Integer> pageIds = ids.subList(offset, Math.min(ids.size(), offset + pageSize));
+
+            //the cards come back in no particular order, they are put back in the order of the ranking
+            Map<Integer, ImageCard> cards = new HashMap<>();
+            for (ImageCard card : imageRepository.getImageCardsByIds(new ArrayList<>(pageIds))) {
+                cards.put(card.getId(), card);
+            }
+            List<ImageCard> images = new ArrayList<>();
+            for (Integer id : pageIds) {
+                //an image deleted on another node is still in the index of this one
+                if (cards.containsKey(id)) {
+                    images.add(cards.get(id));
+                }
+            }
+            return new ImagePage(images, more ? String.valueOf(number + 1) : null);
+        });
+    }
+
+    //Adds the image, which has been stored, to the index or replaces its previous version
+    public void index(Image image) {
+        if (image.getId() == null) {
+            return;
+        }
+        List<String> tags = new ArrayList<>();
+        if (image.getTags() != null) {
+            for (Tag tag : image.getTags()) {
+                tags.add(tag.getName());
+            }
+        }
+        int imageId = image.getId();
+        String title = image.getTitle();
+        String description = image.getDescription();
+        apply(index -> index.put(imageId, title, description, tags));
+    }
+
+    //Removes the image, which has been deleted, from the index
+    public void remove(Integer imageId) {
+        apply(index -> index.remove(imageId));
+    }
+
+    //Returns the number of images in the index
+    public int size() {
+        return index.size();
+    }
+
+    private synchronized void apply(Consumer<InvertedIndex> change) {
+        change.accept(index);
+        if (pending != null) {
+            pending.add(change);
+        }
+    }
+
+    //Builds a new index of all the images and replaces the current one with it
+    //The ids up to the highest one are split into one range per thread, each thread builds the index of its range and the indexes
+    //of the ranges are then merged. The changes made in the meantime are applied again to the new index before it replaces the current one
+    public void rebuild() {
+        synchronized (this) {
+            if (pending != null) {
+                return;
+            }
+            pending = new ArrayList<>();
+        }
+        try {
+            long start = System.currentTimeMillis();
+            Integer maxId = imageRepository.getMaxImageId();
+            InvertedIndex rebuilt = maxId == null ? new InvertedIndex() : build(maxId);
+            synchronized (this) {
+                for (Consumer<InvertedIndex> change : pending) {
+                    change.accept(rebuilt);
+                }
+                index = rebuilt;
+            }
+            log.info("Indexed {} images for search in {} ms", rebuilt.size(), System.currentTimeMillis() - start);
+        } finally {
+            synchronized (this) {
+                pending = null;
+            }
+        }
+    }
+
+    private InvertedIndex build(int maxId) {
+        int threads = Math.max(1, Math.min(rebuildThreads, maxId));
+        int rangeSize = (maxId + threads - 1) / threads;
+        List<Callable<InvertedIndex>> ranges = new ArrayList<>();
+        for (int from = 0; from < maxId; from += rangeSize) {
+            int afterId = from;
+            int toId = Math.min(maxId, from + rangeSize);
+            ranges.add(() -> buildRange(afterId, toId));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size(), runnable -> {
+            Thread thread = new Thread(runnable, "search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<InvertedIndex> parts = new ArrayList<>();
+            for (Future<InvertedIndex> part : executor.invokeAll(ranges)) {
+                parts.add(part.get());
+            }
+            return InvertedIndex.merge(parts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the search index", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not build the search index", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    //Builds the index of the images with an id in (afterId, toId], reading them 'imagehoster.search.rebuild-batch-size' at a time
+    private InvertedIndex buildRange(int afterId, int toId) {
+        InvertedIndex part = new InvertedIndex();
+        int last = afterId;
+        while (true) {
+            List<Object[]> rows = imageRepository.getSearchDocuments(last, toId, rebuildBatchSize);
+            if (rows.isEmpty()) {
+                return part;
+            }
+            List<Integer> ids = new ArrayList<>();
+            for (Object[] row : rows) {
+                ids.add((Integer) row[0]);
+            }
+            Map<Integer, List<String>> tags = new HashMap<>();
+            for (Object[] row : imageRepository.getTagNames(ids)) {
+                tags.computeIfAbsent((Integer) row[0], id -> new ArrayList<>()).add((String) row[1]);
+            }
+            for (Object[] row : rows) {
+                Integer id = (Integer) row[0];
+                part.put(id, (String) row[1], (String) row[2], tags.get(id));
+            }
+            last = ids.get(ids.size() - 1);
+            if (rows.size() < rebuildBatchSize) {
+                return part;
+            }
+        }
+    }
+
+    private static int pageNumber(String page) {
+        try {
+            return page == null ? 0 : Math.max(0, Integer.parseInt(page));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ImageHoster.search;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//In-memory index of the tags of the images: one IdBitmap of image ids per tag name, plus the bitmap of all the images
+//A tag query (see TagQuery) is evaluated with the bitmap operations and the matches are paged by id, newest first, without any query
+//to images_Tags. The tags of every image are kept as well, so that an edited image is removed from the bitmaps of its previous tags
+//The index is updated one image at a time by put() and remove(), the queries run concurrently with each other and wait for the updates
+public class TagIndex {
+
+    private static final IdBitmap EMPTY = new IdBitmap();
+
+    private final Map<String, IdBitmap> tags = new HashMap<>();
+
+    private final Map<Integer, String[]> tagsOfImage = new HashMap<>();
+
+    private final IdBitmap all = new IdBitmap();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //Adds the image with the given tag names to the index, or replaces its previous tags
+    public void put(int imageId, Collection<String> names) {
+        String[] unique = names == null ? new String[0] : new LinkedHashSet<>(names).toArray(new String[0]);
+        lock.writeLock().lock();
+        try {
+            removeImage(imageId);
+            all.add(imageId);
+            tagsOfImage.put(imageId, unique);
+            for (String name : unique) {
+                tags.computeIfAbsent(name, tag -> new IdBitmap()).add(imageId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Removes the image from the index, if it is there
+    public void remove(int imageId) {
+        lock.writeLock().lock();
+        try {
+            removeImage(imageId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeImage(int imageId) {
+        String[] names = tagsOfImage.remove(imageId);
+        if (names == null) {
+            return;
+        }
+        all.remove(imageId);
+        for (String name : names) {
+            IdBitmap images = tags.get(name);
+            if (images != null && images.remove(imageId) && images.isEmpty()) {
+                tags.remove(name);
+            }
+        }
+    }
+
+    //Returns at most 'limit' ids of the images matching the query which are lower than 'before', highest (newest) first
+    public int[] query(TagQuery query, int before, int limit) {
+        lock.readLock().lock();
+        try {
+            //the bitmap of a lone tag is the one of the index, it is read under the lock as well
+            return query.evaluate(name -> tags.getOrDefault(name, EMPTY), all).descending(before, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns the number of images in the index
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return tagsOfImage.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns the number of tags used by the images in the index
+    public int tagCount() {
+        lock.readLock().lock();
+        try {
+            return tags.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns the approximate number of bytes used by the bitmaps
+    public long bitmapBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = all.sizeInBytes();
+            for (IdBitmap images : tags.values()) {
+                bytes += images.sizeInBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package ImageHoster.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+//Boolean expression over tag names, such as 'sunset AND beach NOT night' or '(cat OR dog) AND NOT indoor'
+//The operators are written in capitals, a name next to another is an AND: 'sunset beach' is 'sunset AND beach'
+//NOT binds tighter than AND, which binds tighter than OR. 'a NOT b' is 'a AND NOT b'
+//Names with spaces, parentheses or quotes in them, or spelled like an operator, are written in double quotes: "New York"
+//The expression is evaluated on the bitmaps of the tags (see TagIndex), AND NOT is computed as one andNot() instead of a complement
+public abstract class TagQuery {
+
+    //Returns the ids of the images matching the expression
+    //'tags' returns the bitmap of a tag name, an empty bitmap for an unknown name, 'all' holds every image and is only used by a lone NOT
+    abstract IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap all);
+
+    //Returns the expression of the query, throws IllegalArgumentException with the reason if it is not a valid expression
+    public static TagQuery parse(String query) {
+        Parser parser = new Parser(tokenize(query == null ? "" : query));
+        if (parser.tokens.isEmpty()) {
+            throw new IllegalArgumentException("The query has no tag");
+        }
+        TagQuery expression = parser.or();
+        if (parser.position < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.position).text + "'");
+        }
+        return expression;
+    }
+
+    //Returns the expression matching the images with the given tag
+    public static TagQuery tag(String name) {
+        return new Name(name);
+    }
+
+    //Returns the name written so that parse() reads it as one tag name
+    public static String quote(String name) {
+        if (!name.isEmpty() && name.matches("[^\\s()\"]+") && !name.equals("AND") && !name.equals("OR") && !name.equals("NOT")) {
+            return name;
+        }
+        return "\"" + name.replace("\"", "") + "\"";
+    }
+
+    private static List<Token> tokenize(String query) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(new Token(String.valueOf(c), false));
+                i++;
+            } else if (c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Missing closing quote");
+                }
+                tokens.add(new Token(query.substring(i + 1, end), true));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < query.length() && !Character.isWhitespace(query.charAt(i)) && "()\"".indexOf(query.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(new Token(query.substring(start, i), false));
+            }
+        }
+        return tokens;
+    }
+
+    private static class Token {
+
+        private final String text;
+
+        //A quoted name is never an operator
+        private final boolean quoted;
+
+        private Token(String text, boolean quoted) {
+            this.text = text;
+            this.quoted = quoted;
+        }
+
+        private boolean is(String operator) {
+            return !quoted && text.equals(operator);
+        }
+    }
+
+    //Recursive descent parser: or := and (OR and)*, and := not ((AND)? not)*, not := NOT not | '(' or ')' | name
+    private static class Parser {
+
+        private final List<Token> tokens;
+
+        private int position;
+
+        private Parser(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        private TagQuery or() {
+            TagQuery left = and();
+            while (accept("OR")) {
+                left = new Or(left, and());
+            }
+            return left;
+        }
+
+        private TagQuery and() {
+            TagQuery left = not();
+            while (position < tokens.size() && !peek("OR") && !peek(")")) {
+                accept("AND");
+                left = new And(left, not());
+            }
+            return left;
+        }
+
+        private TagQuery not() {
+            if (accept("NOT")) {
+                return new Not(not());
+            }
+            if (accept("(")) {
+                TagQuery inner = or();
+                if (!accept(")")) {
+                    throw new IllegalArgumentException("Missing closing parenthesis");
+                }
+                return inner;
+            }
+            if (position == tokens.size()) {
+                throw new IllegalArgumentException("A tag is missing at the end of the query");
+            }
+            Token token = tokens.get(position);
+            if (token.is("AND") || token.is("OR") || token.is(")")) {
+                throw new IllegalArgumentException("A tag is missing before '" + token.text + "'");
+            }
+            position++;
+            return new Name(token.text);
+        }
+
+        private boolean peek(String operator) {
+            return position < tokens.size() && tokens.get(position).is(operator);
+        }
+
+        private boolean accept(String operator) {
+            if (peek(operator)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class Name extends TagQuery {
+
+        private final String name;
+
+        private Name(String name) {
+            this.name = name;
+        }
+
+        @Override
+        IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap all) {
+            return tags.apply(name);
+        }
+    }
+
+    private static class Not extends TagQuery {
+
+        private final TagQuery operand;
+
+        private Not(TagQuery operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap all) {
+            return all.andNot(operand.evaluate(tags, all));
+        }
+    }
+
+    private static class And extends TagQuery {
+
+        private final TagQuery left;
+
+        private final TagQuery right;
+
+        private And(TagQuery left, TagQuery right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap all) {
+            if (right instanceof Not) {
+                return left.evaluate(tags, all).andNot(((Not) right).operand.evaluate(tags, all));
+            }
+            if (left instanceof Not) {
+                return right.evaluate(tags, all).andNot(((Not) left).operand.evaluate(tags, all));
+            }
+            return left.evaluate(tags, all).and(right.evaluate(tags, all));
+        }
+    }
+
+    private static class Or extends TagQuery {
+
+        private final TagQuery left;
+
+        private final TagQuery right;
+
+        private Or(TagQuery left, TagQuery right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap all) {
+            return left.evaluate(tags, all).or(right.evaluate(tags, all));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ImageHoster.search;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageCard;
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.Tag;
+import ImageHoster.repository.ImageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+//Browsing of the images by tag, '/tags/{name}', and by boolean tag queries such as 'sunset AND beach NOT night', see TagQuery
+//The queries are answered by the node-local TagIndex, only the cards of the page are loaded from the database
+//The index is loaded from the database when the application starts and then kept up to date by ImageService when an image is uploaded,
+//edited or deleted. The images changed while the index is being loaded are applied to the new index once it is complete
+//The index is in-process, an image changed on another node of the application is only found here after the next restart
+//Metrics, available at /actuator/metrics:
+//  imagehoster.tags.queries        time to answer a tag query, evaluation and loading of the cards
+//  imagehoster.tags.index.images   number of images in the index
+//  imagehoster.tags.index.bytes    approximate size of the bitmaps of the index
+@Service
+@Order(5)
+public class TagQueryService implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(TagQueryService.class);
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    //Number of images on one page of the results, the page size of the feed
+    @Value("${imagehoster.feed.page-size:20}")
+    private int pageSize;
+
+    @Value("${imagehoster.tags.index.load-batch-size:1000}")
+    private int loadBatchSize;
+
+    private volatile TagIndex index = new TagIndex();
+
+    //Changes made while the index is loaded, null when no load is running, guarded by 'this'
+    private List<Consumer<TagIndex>> pending;
+
+    private final Timer queries;
+
+    public TagQueryService(MeterRegistry registry) {
+        this.queries = registry.timer("imagehoster.tags.queries");
+        registry.gauge("imagehoster.tags.index.images", this, service -> service.index.size());
+        registry.gauge("imagehoster.tags.index.bytes", this, service -> service.index.bitmapBytes());
+    }
+
+    //Loads the index when the application starts
+    //The application works without it, queries then only find the images changed since the start, so a failure is only logged
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            log.warn("Could not load the tag index", e);
+        }
+    }
+
+    //Returns the page of the images matching the query, newest first, which starts after the given cursor, the first page if it is null
+    //The cursor of a page is the id of its last image, the next page holds the matching images with a lower id
+    public ImagePage browse(TagQuery query, String after) {
+        int before = cursorId(after);
+        return queries.record(() -> {
+            //one image more than the page tells whether there is a next page
+            int[] ids = index.query(query, before, pageSize + 1);
+            if (ids.length == 0) {
+                return ImagePage.empty();
+            }
+            List<Integer> pageIds = new ArrayList<>();
+            for (int i = 0; i < ids.length && i < pageSize; i++) {
+                pageIds.add(ids[i]);
+            }
+
+            //the cards come back in no particular order, they are put back in the order of the ids
+            Map<Integer, ImageCard> cards = new HashMap<>();
+            for (ImageCard card : imageRepository.getImageCardsByIds(pageIds)) {
+                cards.put(card.getId(), card);
+            }
+            List<ImageCard> images = new ArrayList<>();
+            for (Integer id : pageIds) {
+                //an image deleted on another node is still in the index of this one
+                if (cards.containsKey(id)) {
+                    images.add(cards.get(id));
+                }
+            }
+            String next = ids.length > pageSize ? String.valueOf(pageIds.get(pageIds.size() - 1)) : null;
+            return new ImagePage(images, next);
+        });
+    }
+
+    //Sets the tags of the image, which has been stored, in the index
+    public void index(Image image) {
+        if (image.getId() == null) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        if (image.getTags() != null) {
+            for (Tag tag : image.getTags()) {
+                names.add(tag.getName());
+            }
+        }
+        int imageId = image.getId();
+        apply(index -> index.put(imageId, names));
+    }
+
+    //Removes the image, which has been deleted, from the index
+    public void remove(Integer imageId) {
+        apply(index -> index.remove(imageId));
+    }
+
+    private synchronized void apply(Consumer<TagIndex> change) {
+        change.accept(index);
+        if (pending != null) {
+            pending.add(change);
+        }
+    }
+
+    //Loads a new index of all the images, 'imagehoster.tags.index.load-batch-size' images at a time, and replaces the current one with it
+    //The changes made in the meantime are applied again to the new index before it replaces the current one
+    public void reload() {
+        synchronized (this) {
+            if (pending != null) {
+                return;
+            }
+            pending = new ArrayList<>();
+        }
+        try {
+            long start = System.currentTimeMillis();
+            TagIndex loaded = new TagIndex();
+            int last = 0;
+            while (true) {
+                List<Integer> ids = imageRepository.getImageIds(last, loadBatchSize);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                Map<Integer, List<String>> names = new HashMap<>();
+                for (Object[] row : imageRepository.getTagNames(ids)) {
+                    names.computeIfAbsent((Integer) row[0], id -> new ArrayList<>()).add((String) row[1]);
+                }
+                for (Integer id : ids) {
+                    loaded.put(id, names.get(id));
+                }
+                last = ids.get(ids.size() - 1);
+                if (ids.size() < loadBatchSize) {
+                    break;
+                }
+            }
+            synchronized (this) {
+                for (Consumer<TagIndex> change : pending) {
+                    change.accept(loaded);
+                }
+                index = loaded;
+            }
+            log.info("Loaded the tags of {} images into the tag index in {} ms", loaded.size(), System.currentTimeMillis() - start);
+        } finally {
+            synchronized (this) {
+                pending = null;
+            }
+        }
+    }
+
+    //The id of the cursor, the pages are read below it
+    private static int cursorId(String after) {
+        if (after == null) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            return Integer.parseInt(after);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+}
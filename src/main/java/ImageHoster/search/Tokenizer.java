@@ -0,0 +1,38 @@
+package ImageHoster.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+//Splits the titles, descriptions, tag names and queries into the terms of the InvertedIndex
+//A term is a run of letters and digits, lower-cased and without accents, so that 'Café' and 'cafe' are the same term
+//The indexed text and the queries go through the same tokenizer, otherwise a query could not find its own words
+public final class Tokenizer {
+
+    //Longer runs are cut, they are almost never words and would only grow the dictionary
+    static final int MAX_TERM_LENGTH = 40;
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private Tokenizer() {
+    }
+
+    //Returns the terms of the text in their order, with their repetitions, an empty list if the text is null
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+        for (String term : SEPARATORS.split(normalized)) {
+            if (!term.isEmpty()) {
+                terms.add(term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term);
+            }
+        }
+        return terms;
+    }
+}
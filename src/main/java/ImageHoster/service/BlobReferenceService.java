@@ -0,0 +1,158 @@
+package ImageHoster.service;
+
+import ImageHoster.model.StorageReport;
+import ImageHoster.repository.BlobReferenceRepository;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.storage.BlobInfo;
+import ImageHoster.storage.BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+//The BlobStore stores identical bytes only once since the key of a blob is the SHA-256 of its bytes
+//This service counts how many images use each blob (as original, thumbnail or medium version) in the 'blob_refs' table
+//A blob whose count drops to zero is not deleted right away but after a grace period, so that a blob which is used again soon after,
+//such as the derivatives of a file uploaded again unchanged, is not deleted and stored again
+//BlobStore.put() does nothing when the bytes are already stored, so the blob may be deleted between the put() of an upload and its acquire():
+//the collection deletes a blob while its row is locked, acquire() then finds the blob gone and stores the bytes again
+//At startup the counts are rebuilt from the images if the table is empty (i.e. on the first start with this table)
+@Service
+@Order(1)
+public class BlobReferenceService implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobReferenceService.class);
+
+    @Autowired
+    private BlobReferenceRepository blobReferenceRepository;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    //Time in milliseconds an unused blob is kept before it is deleted
+    @Value("${imagehoster.storage.gc-grace:600000}")
+    private long gcGrace;
+
+    //Adds one reference to the blob which has just been stored from the source with BlobStore.put()
+    //Once the reference has been added the blob can no longer be collected, if it has been collected since the put() the source is stored again
+    public void acquire(BlobInfo blob, InputStreamSource source) throws IOException {
+        blobReferenceRepository.acquire(blob.getKey(), blob.getSize());
+        if (!blobStore.exists(blob.getKey())) {
+            log.info("Storing blob {} again, it was collected while it was being stored", blob.getKey());
+            try (InputStream data = source.getInputStream()) {
+                blobStore.put(data);
+            }
+        }
+    }
+
+    //Removes one reference from each of the keys
+    public void release(Collection<String> keys) {
+        keys.forEach(blobReferenceRepository::release);
+    }
+
+    //Removes one reference from each of the blobs if the current transaction is rolled back
+    //The references taken by acquire() are committed right away, an image which takes them over in a transaction which fails
+    //gives them back this way. Nothing is done outside of a transaction
+    public void releaseOnRollback(Collection<String> keys) {
+        if (keys.isEmpty() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    keys.forEach(blobReferenceRepository::releaseInNewTransaction);
+                }
+            }
+        });
+    }
+
+    //Returns the deduplication report for the admin storage page
+    public StorageReport getReport() {
+        return blobReferenceRepository.getReport();
+    }
+
+    //Deletes the blobs which have been unused for longer than the grace period
+    @Scheduled(fixedDelayString = "${imagehoster.storage.gc-interval:600000}")
+    public void deleteUnreferenced() {
+        Date before = new Date(System.currentTimeMillis() - gcGrace);
+        for (String key : blobReferenceRepository.getKeysReleasedBefore(before)) {
+            try {
+                blobReferenceRepository.deleteIfUnreferenced(key, before, this::deleteBlob);
+            } catch (UncheckedIOException e) {
+                log.warn("Could not delete unused blob {}", key, e.getCause());
+            }
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (blobReferenceRepository.count() > 0) {
+            return;
+        }
+
+        //every image counts once for each distinct key it uses
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, Long> sizes = new HashMap<>();
+        for (Object[] row : imageRepository.getAllImageKeys()) {
+            Set<String> keys = new LinkedHashSet<>();
+            for (int i = 0; i < 3; i++) {
+                if (row[i] != null) {
+                    keys.add((String) row[i]);
+                }
+            }
+            for (String key : keys) {
+                counts.merge(key, 1, Integer::sum);
+            }
+            if (row[0] != null && row[3] != null) {
+                sizes.put((String) row[0], (Long) row[3]);
+            }
+        }
+
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            String key = entry.getKey();
+            Long size = sizes.get(key);
+            if (size == null) {
+                //derivatives have no size column, ask the store
+                Resource blob = blobStore.get(key);
+                size = blob == null ? 0 : blob.contentLength();
+            }
+            for (int i = 0; i < entry.getValue(); i++) {
+                blobReferenceRepository.acquire(key, size);
+            }
+        }
+        if (!counts.isEmpty()) {
+            log.info("Rebuilt the reference counts of {} blobs", counts.size());
+        }
+    }
+
+    private void deleteBlob(String key) {
+        try {
+            blobStore.delete(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Comment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Pushes the new comments of an image to the viewers which have the image page open, as Server-Sent Events
+//Each open page subscribes to its image with an SseEmitter (see CommentController), the hub keeps the subscribers of each image
+//A comment is published once its transaction has committed, so a viewer never sees a comment which is rolled back
+//Every subscriber has its own queue of events, at most 'imagehoster.comments.stream.max-queued' of them, which is drained by one of the
+//'imagehoster.comments.stream.sender-threads' threads of the hub at a time: the request which posted the comment does not wait for the viewers,
+//and a viewer whose connection has stopped reading only holds up its own queue. Such a viewer is dropped when its queue overflows,
+//or by the heartbeat when a send to it has been blocked for more than 'imagehoster.comments.stream.write-timeout' ms
+//A viewer whose connection is gone is dropped when a send to it fails
+//A client (remote address) has at most 'imagehoster.comments.stream.max-per-client' streams, so that one client cannot take all the streams of the hub
+//The hub is in-process, the viewers connected to another node of the application only see the comment when they load the page
+//Metrics, available at /actuator/metrics:
+//  imagehoster.comments.stream.subscribers   number of open streams
+//  imagehoster.comments.stream.events        comments sent to the streams, one per stream
+//  imagehoster.comments.stream.dropped       streams dropped because the viewer did not keep up
+@Component
+public class CommentHub {
+
+    private static final Logger log = LoggerFactory.getLogger(CommentHub.class);
+
+    private final Map<Integer, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    //Number of streams of each client
+    private final Map<String, Integer> clients = new ConcurrentHashMap<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final long timeout;
+
+    private final int maxSubscribers;
+
+    private final int maxPerClient;
+
+    private final int maxQueued;
+
+    private final long writeTimeout;
+
+    private final ExecutorService sender;
+
+    private final Counter events;
+
+    private final Counter dropped;
+
+    @Autowired
+    public CommentHub(MeterRegistry registry,
+                      @Value("${imagehoster.comments.stream.timeout:1800000}") long timeout,
+                      @Value("${imagehoster.comments.stream.max-subscribers:1000}") int maxSubscribers,
+                      @Value("${imagehoster.comments.stream.max-per-client:10}") int maxPerClient,
+                      @Value("${imagehoster.comments.stream.max-queued:32}") int maxQueued,
+                      @Value("${imagehoster.comments.stream.write-timeout:10000}") long writeTimeout,
+                      @Value("${imagehoster.comments.stream.sender-threads:4}") int senderThreads) {
+        this(registry, timeout, maxSubscribers, maxPerClient, maxQueued, writeTimeout, Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "comment-hub");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    CommentHub(MeterRegistry registry, long timeout, int maxSubscribers, int maxPerClient, int maxQueued, long writeTimeout, ExecutorService sender) {
+        this.timeout = timeout;
+        this.maxSubscribers = maxSubscribers;
+        this.maxPerClient = maxPerClient;
+        this.maxQueued = maxQueued;
+        this.writeTimeout = writeTimeout;
+        this.sender = sender;
+        this.events = registry.counter("imagehoster.comments.stream.events");
+        this.dropped = registry.counter("imagehoster.comments.stream.dropped");
+        registry.gauge("imagehoster.comments.stream.subscribers", size);
+    }
+
+    //Returns a new stream of the comments of the image for the client, null if the hub already has 'imagehoster.comments.stream.max-subscribers'
+    //streams or the client 'imagehoster.comments.stream.max-per-client' streams
+    //The stream is closed by the server after 'imagehoster.comments.stream.timeout' ms, EventSource then reconnects by itself
+    public SseEmitter subscribe(Integer imageId, String client) {
+        SseEmitter emitter = new SseEmitter(timeout);
+        return subscribe(imageId, client, emitter) ? emitter : null;
+    }
+
+    //Adds the stream to the subscribers of the image, returns false if the hub or the client is full
+    boolean subscribe(Integer imageId, String client, SseEmitter emitter) {
+        if (size.incrementAndGet() > maxSubscribers) {
+            size.decrementAndGet();
+            return false;
+        }
+        boolean[] accepted = new boolean[1];
+        clients.compute(client, (key, count) -> {
+            int current = count == null ? 0 : count;
+            accepted[0] = current < maxPerClient;
+            return accepted[0] ? current + 1 : count;
+        });
+        if (!accepted[0]) {
+            size.decrementAndGet();
+            return false;
+        }
+        Subscriber subscriber = new Subscriber(imageId, client, emitter);
+        subscribers.compute(imageId, (id, set) -> {
+            Set<Subscriber> added = set == null ? ConcurrentHashMap.newKeySet() : set;
+            added.add(subscriber);
+            return added;
+        });
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        return true;
+    }
+
+    //Returns the number of open streams
+    public int size() {
+        return size.get();
+    }
+
+    //Sends the comment to the viewers of its image once the current transaction has committed, right away if there is no transaction
+    public void publish(Integer imageId, Comment comment) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("id", comment.getId());
+        data.put("user", comment.getUser() == null ? null : comment.getUser().getUsername());
+        data.put("text", comment.getText());
+        data.put("date", comment.getDate() == null ? null : comment.getDate().getTime());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    send(imageId, data);
+                }
+            });
+        } else {
+            send(imageId, data);
+        }
+    }
+
+    private void send(Integer imageId, Map<String, Object> data) {
+        Set<Subscriber> set = subscribers.get(imageId);
+        if (set == null) {
+            return;
+        }
+        for (Subscriber subscriber : set) {
+            enqueue(subscriber, SseEmitter.event().name("comment").id(String.valueOf(data.get("id"))).data(data, MediaType.APPLICATION_JSON), true);
+        }
+    }
+
+    //Sends a comment line to every stream, so that proxies do not close the idle connections and the closed ones are found
+    //The streams whose send has been blocked for more than the write timeout are dropped
+    @Scheduled(fixedDelayString = "${imagehoster.comments.stream.heartbeat-interval:30000}")
+    public void heartbeat() {
+        if (size.get() == 0) {
+            return;
+        }
+        long blockedSince = System.currentTimeMillis() - writeTimeout;
+        for (Set<Subscriber> set : subscribers.values()) {
+            for (Subscriber subscriber : set) {
+                long sendingSince = subscriber.sendingSince;
+                if (sendingSince != 0 && sendingSince < blockedSince) {
+                    drop(subscriber);
+                } else {
+                    enqueue(subscriber, SseEmitter.event().comment("heartbeat"), false);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        sender.shutdownNow();
+        subscribers.values().forEach(set -> set.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    //Queues the event for the subscriber and makes sure a thread drains its queue, a subscriber whose queue is full is too slow and is dropped
+    private void enqueue(Subscriber subscriber, SseEmitter.SseEventBuilder event, boolean comment) {
+        if (subscriber.queued.incrementAndGet() > maxQueued) {
+            subscriber.queued.decrementAndGet();
+            drop(subscriber);
+            return;
+        }
+        subscriber.queue.add(new Event(event, comment));
+        if (subscriber.draining.compareAndSet(false, true)) {
+            try {
+                sender.execute(() -> drain(subscriber));
+            } catch (RejectedExecutionException e) {
+                //the hub is closing
+            }
+        }
+    }
+
+    //Sends the queued events of the subscriber in order, only one thread drains a queue at a time
+    private void drain(Subscriber subscriber) {
+        while (true) {
+            Event event = subscriber.queue.poll();
+            if (event == null) {
+                subscriber.draining.set(false);
+                //an event queued after the poll and before the flag was cleared found the flag still set, and is sent here
+                if (subscriber.queue.isEmpty() || !subscriber.draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            subscriber.queued.decrementAndGet();
+            if (subscriber.closed.get()) {
+                continue;
+            }
+            subscriber.sendingSince = System.currentTimeMillis();
+            try {
+                subscriber.emitter.send(event.event);
+                if (event.comment) {
+                    events.increment();
+                }
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Dropping a comment stream of image {}", subscriber.imageId, e);
+                unsubscribe(subscriber);
+                subscriber.emitter.completeWithError(e);
+            } finally {
+                subscriber.sendingSince = 0;
+            }
+        }
+    }
+
+    //Drops a stream whose viewer does not keep up with the events
+    private void drop(Subscriber subscriber) {
+        if (unsubscribe(subscriber)) {
+            log.debug("Dropping a slow comment stream of image {}", subscriber.imageId);
+            dropped.increment();
+            subscriber.emitter.completeWithError(new IOException("The viewer does not keep up with the comments"));
+        }
+    }
+
+    //Returns true if the stream was still subscribed
+    //The set of an image is removed together with its last stream, atomically with subscribe() adding a stream to it
+    private boolean unsubscribe(Subscriber subscriber) {
+        if (!subscriber.closed.compareAndSet(false, true)) {
+            return false;
+        }
+        subscribers.computeIfPresent(subscriber.imageId, (id, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+        clients.computeIfPresent(subscriber.client, (key, count) -> count > 1 ? count - 1 : null);
+        size.decrementAndGet();
+        return true;
+    }
+
+    private static class Subscriber {
+
+        private final Integer imageId;
+
+        private final String client;
+
+        private final SseEmitter emitter;
+
+        private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+
+        //Number of events in the queue, ConcurrentLinkedQueue.size() walks the whole queue
+        private final AtomicInteger queued = new AtomicInteger();
+
+        //Whether a thread of the hub is draining the queue
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        //Time at which the current send started, 0 when no send is running
+        private volatile long sendingSince;
+
+        private Subscriber(Integer imageId, String client, SseEmitter emitter) {
+            this.imageId = imageId;
+            this.client = client;
+            this.emitter = emitter;
+        }
+    }
+
+    private static class Event {
+
+        private final SseEmitter.SseEventBuilder event;
+
+        //Comments are counted by the metrics, heartbeats are not
+        private final boolean comment;
+
+        private Event(SseEmitter.SseEventBuilder event, boolean comment) {
+            this.event = event;
+            this.comment = comment;
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package ImageHoster.service;
 
 import ImageHoster.model.Comment;
+import ImageHoster.model.CommentPage;
 import ImageHoster.repository.CommentRepository;
+import ImageHoster.trending.TrendingService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 
 @Service
@@ -11,8 +16,31 @@ public class CommentService {
     @Autowired
     private CommentRepository commentRepository;
 
-    //Call the createComment() method in the Repository to update comment for a image
-    public Comment createComment(Comment comment) {
-        return commentRepository.createComment(comment);
+    @Autowired
+    private CommentHub commentHub;
+
+    @Autowired
+    private TrendingService trendingService;
+
+    @Value("${imagehoster.comments.page-size:50}")
+    private int commentPageSize;
+
+    //Call the createComment() method in the Repository to add the comment to the image with corresponding id
+    //Returns false if there is no such image
+    //The comment is then pushed to the viewers of the image, see CommentHub, and counted in the trending score of the image
+    public boolean createComment(Integer imageId, Comment comment) {
+        if (!commentRepository.createComment(imageId, comment)) {
+            return false;
+        }
+        commentHub.publish(imageId, comment);
+        trendingService.recordComment(imageId);
+        return true;
+    }
+
+    //The method returns the page of comments of the image which are older than the comment 'before', the newest page if 'before' is null
+    //One comment more than the page size is fetched to know whether there is a next page, see CommentPage.of()
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public CommentPage getCommentPage(Integer imageId, Integer before) {
+        return CommentPage.of(commentRepository.getComments(imageId, before, commentPageSize + 1), commentPageSize);
     }
 }
@@ -0,0 +1,193 @@
+package ImageHoster.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+//Node-local cache of the galleries of the users, '/users/{username}/images': for each owner, the ids of their images, newest first
+//The cache is partitioned by owner, an upload, edit or delete invalidates the gallery of its owner only, so that an owner who uploads
+//a lot does not discard the galleries of the others. The cards of a page are always loaded from the database, only the ids are cached
+//A gallery holds at most 'imagehoster.galleries.cache.max-images' ids, the newest; the deeper pages of a larger gallery are read from the database
+//At most 'imagehoster.galleries.cache.size' galleries are cached, evicted like the names of TagDictionary (CLOCK), one entry per owner
+//however many images they have
+//A gallery loaded while its owner's gallery is invalidated could miss the change, so it is dropped: every owner maps to one of STRIPES
+//counters which invalidate() increments, and put() keeps the gallery only if the counter has not moved since stamp() was read before the load
+//invalidate() only reaches the cache of the node which made the change, so a gallery expires 'imagehoster.galleries.cache.ttl' ms after
+//it was loaded: the uploads, edits and deletes made on the other nodes show up in its owner's gallery within that time
+//Metrics, available at /actuator/metrics:
+//  imagehoster.galleries.cache.requests       lookups, tagged with result 'hit' or 'miss'
+//  imagehoster.galleries.cache.invalidations  galleries invalidated by a change of their owner's images
+//  imagehoster.galleries.cache.evictions      galleries evicted to keep the cache within its size
+//  imagehoster.galleries.cache.size           number of cached galleries
+@Component
+public class GalleryCache {
+
+    private static final int STRIPES = 64;
+
+    private final int maxSize;
+
+    private final int maxImages;
+
+    private final long ttl;
+
+    private final ConcurrentHashMap<Integer, Gallery> galleries = new ConcurrentHashMap<>();
+
+    private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+
+    //Only one thread sweeps at a time, the others go on without waiting for it
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter invalidations;
+
+    private final Counter evictions;
+
+    public GalleryCache(MeterRegistry registry, @Value("${imagehoster.galleries.cache.size:10000}") int maxSize,
+                        @Value("${imagehoster.galleries.cache.max-images:1000}") int maxImages,
+                        @Value("${imagehoster.galleries.cache.ttl:60000}") long ttl) {
+        this.maxSize = maxSize;
+        this.maxImages = maxImages;
+        this.ttl = ttl;
+        this.hits = registry.counter("imagehoster.galleries.cache.requests", "result", "hit");
+        this.misses = registry.counter("imagehoster.galleries.cache.requests", "result", "miss");
+        this.invalidations = registry.counter("imagehoster.galleries.cache.invalidations");
+        this.evictions = registry.counter("imagehoster.galleries.cache.evictions");
+        registry.gauge("imagehoster.galleries.cache.size", galleries, Map::size);
+    }
+
+    //Returns the cached gallery of the owner, or null if it is not cached or has expired
+    public Gallery get(int ownerId) {
+        Gallery gallery = galleries.get(ownerId);
+        if (gallery != null && System.currentTimeMillis() - gallery.loadedAt >= ttl) {
+            galleries.remove(ownerId, gallery);
+            gallery = null;
+        }
+        if (gallery == null) {
+            misses.increment();
+            return null;
+        }
+        gallery.referenced = true;
+        hits.increment();
+        return gallery;
+    }
+
+    //Returns the stamp to read before loading the gallery of the owner from the database, and to pass to put() with it
+    public long stamp(int ownerId) {
+        return stamps.get(stripe(ownerId));
+    }
+
+    //Caches the gallery of the owner loaded from the database, the newest 'maxImages' ids of it
+    //'ids' holds one id more than 'maxImages' when the owner has more images than that
+    //The gallery is dropped if the owner's gallery has been invalidated since the stamp was read
+    //Returns the cached gallery, which is also returned when it has been dropped
+    public Gallery put(int ownerId, long stamp, int[] ids) {
+        boolean complete = ids.length <= maxImages;
+        Gallery gallery = new Gallery(complete ? ids : Arrays.copyOf(ids, maxImages), complete);
+        galleries.put(ownerId, gallery);
+        //invalidate() moves the stamp before it removes the gallery, so a gallery put after that removal is removed here
+        if (stamps.get(stripe(ownerId)) != stamp) {
+            galleries.remove(ownerId, gallery);
+        } else if (galleries.size() > maxSize) {
+            evict();
+        }
+        return gallery;
+    }
+
+    //Discards the gallery of the owner, whose images have changed
+    public void invalidate(int ownerId) {
+        stamps.incrementAndGet(stripe(ownerId));
+        if (galleries.remove(ownerId) != null) {
+            invalidations.increment();
+        }
+    }
+
+    //Returns the number of ids to load for put(), one more than the cached ones to know whether the gallery is complete
+    public int loadSize() {
+        return maxImages + 1;
+    }
+
+    public int size() {
+        return galleries.size();
+    }
+
+    private static int stripe(int ownerId) {
+        return (ownerId & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    //Sweeps over the galleries, giving every gallery which has been looked up a second chance and removing the others,
+    //until the cache is back at 90% of its size, see TagDictionary.evict()
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int target = maxSize - maxSize / 10;
+            for (int pass = 0; pass < 2 && galleries.size() > target; pass++) {
+                Iterator<Map.Entry<Integer, Gallery>> it = galleries.entrySet().iterator();
+                while (it.hasNext() && galleries.size() > target) {
+                    Gallery gallery = it.next().getValue();
+                    if (gallery.referenced) {
+                        gallery.referenced = false;
+                    } else {
+                        it.remove();
+                        evictions.increment();
+                    }
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    //The ids of the images of an owner, newest (highest id) first
+    public static class Gallery {
+
+        private final int[] ids;
+
+        //Whether the ids are all the images of the owner, or only the newest of them
+        private final boolean complete;
+
+        private final long loadedAt = System.currentTimeMillis();
+
+        //Set on every lookup and cleared by the sweep
+        //A new gallery has only been viewed once, it is the first to go unless it is viewed again before the next sweep
+        private volatile boolean referenced;
+
+        private Gallery(int[] ids, boolean complete) {
+            this.ids = ids;
+            this.complete = complete;
+        }
+
+        //Returns at most 'limit' ids of images older than (with a lower id than) 'beforeId', newest first
+        //Returns null if the gallery is not complete and those ids go deeper than the cached ones, they have to be read from the database
+        public int[] page(int beforeId, int limit) {
+            int low = 0;
+            int high = ids.length;
+            //first position whose id is lower than beforeId, the ids are in descending order
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ids[middle] >= beforeId) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            long end = (long) low + limit;
+            if (end > ids.length && !complete) {
+                return null;
+            }
+            return Arrays.copyOfRange(ids, low, (int) Math.min(end, ids.length));
+        }
+    }
+}
@@ -1,26 +1,194 @@
 package ImageHoster.service;
 
+import ImageHoster.derivative.DerivativeService;
+import ImageHoster.derivative.DerivativeSize;
+import ImageHoster.derivative.ImageDecoder;
+import ImageHoster.derivative.ImageTooLargeException;
+import ImageHoster.model.Comment;
+import ImageHoster.model.CommentPage;
+import ImageHoster.model.DerivativeStatus;
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageCard;
+import ImageHoster.model.ImageDetail;
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.User;
+import ImageHoster.repository.CommentRepository;
 import ImageHoster.repository.ImageRepository;
+import ImageHoster.search.SearchService;
+import ImageHoster.search.TagQueryService;
+import ImageHoster.storage.BlobInfo;
+import ImageHoster.storage.BlobStore;
+import ImageHoster.storage.InvalidUploadException;
+import ImageHoster.storage.UploadInputStream;
+import ImageHoster.storage.UploadMetrics;
+import ImageHoster.trending.TrendingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class ImageService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageService.class);
+
     @Autowired
     private ImageRepository imageRepository;
 
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private UploadMetrics uploadMetrics;
+
+    @Autowired
+    private DerivativeService derivativeService;
+
+    @Autowired
+    private BlobReferenceService blobReferenceService;
+
+    @Autowired
+    private ImageDecoder imageDecoder;
+
+    @Autowired
+    private CommentRepository commentRepository;
+
+    @Autowired
+    private SearchService searchService;
+
+    @Autowired
+    private TagQueryService tagQueryService;
+
+    @Autowired
+    private TrendingService trendingService;
+
+    @Autowired
+    private GalleryCache galleryCache;
+
+    //Number of images on one page of the feed, 'imagehoster.feed.page-size' in application.properties
+    @Value("${imagehoster.feed.page-size:20}")
+    private int feedPageSize;
+
+    //Number of comments shown on the image detail page, 'imagehoster.comments.page-size' in application.properties
+    @Value("${imagehoster.comments.page-size:50}")
+    private int commentPageSize;
+
+    //Largest image accepted by storeImageFile(), 'imagehoster.upload.max-size' in application.properties
+    @Value("${imagehoster.upload.max-size:20971520}")
+    private long maxUploadSize;
+
     //Call the getAllImages() method in the Repository and obtain a List of all the images in the database
     public List<Image> getAllImages() {
         return imageRepository.getAllImages();
     }
 
+    //The method returns the page of the image feed which starts after the given cursor, the first page if the cursor is null
+    //One card more than the page size is fetched to know whether there is a next page without running a count query
+    public ImagePage getImageFeed(String after) {
+        List<ImageCard> cards = imageRepository.getImageCards(ImagePage.cursorDate(after), ImagePage.cursorId(after), feedPageSize + 1);
+        if (cards.size() <= feedPageSize) {
+            return new ImagePage(cards, null);
+        }
+        List<ImageCard> page = new ArrayList<>(cards.subList(0, feedPageSize));
+        return new ImagePage(page, ImagePage.cursorOf(page.get(page.size() - 1)));
+    }
+
+    //The method returns the page of the feed of the most recently active (posted, edited or commented) images which starts after the given cursor
+    //Paginated like getImageFeed(), on the activity of the images instead of their date
+    public ImagePage getActiveImageFeed(String after) {
+        List<ImageCard> cards = imageRepository.getActiveImageCards(ImagePage.cursorDate(after), ImagePage.cursorId(after), feedPageSize + 1);
+        if (cards.size() <= feedPageSize) {
+            return new ImagePage(cards, null);
+        }
+        List<ImageCard> page = new ArrayList<>(cards.subList(0, feedPageSize));
+        return new ImagePage(page, ImagePage.activityCursorOf(page.get(page.size() - 1)));
+    }
+
+    //The method returns the page of the gallery of the owner, newest first, which starts after the given cursor, the first page if it is null
+    //The cursor of a page is the id of its last image, the next page holds the owner's images with a lower id
+    //The ids of the page come from the GalleryCache, which loads the newest ids of the owner with one query on a miss,
+    //only a page deeper than the cached ids is read from the database. The cards are loaded by their ids
+    public ImagePage getUserImageFeed(Integer ownerId, String after) {
+        int before = galleryCursorId(after);
+        GalleryCache.Gallery gallery = galleryCache.get(ownerId);
+        if (gallery == null) {
+            long stamp = galleryCache.stamp(ownerId);
+            gallery = galleryCache.put(ownerId, stamp, toArray(imageRepository.getUserImageIds(ownerId, Integer.MAX_VALUE, galleryCache.loadSize())));
+        }
+        //one image more than the page tells whether there is a next page
+        int[] ids = gallery.page(before, feedPageSize + 1);
+        if (ids == null) {
+            ids = toArray(imageRepository.getUserImageIds(ownerId, before, feedPageSize + 1));
+        }
+        if (ids.length == 0) {
+            return ImagePage.empty();
+        }
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = 0; i < ids.length && i < feedPageSize; i++) {
+            pageIds.add(ids[i]);
+        }
+
+        //the cards come back in no particular order, they are put back in the order of the ids
+        Map<Integer, ImageCard> cards = new HashMap<>();
+        for (ImageCard card : imageRepository.getImageCardsByIds(pageIds)) {
+            cards.put(card.getId(), card);
+        }
+        List<ImageCard> images = new ArrayList<>();
+        for (Integer id : pageIds) {
+            //an image deleted on another node is still in the gallery cached by this one
+            if (cards.containsKey(id)) {
+                images.add(cards.get(id));
+            }
+        }
+        String next = ids.length > feedPageSize ? String.valueOf(pageIds.get(pageIds.size() - 1)) : null;
+        return new ImagePage(images, next);
+    }
+
+    //Repairs the comment and tag counters of the images which no longer match the comments and tags, see ImageRepository.reconcileCounters()
+    //They drift only if rows are changed outside of the application, e.g. by hand or by a restore
+    @Scheduled(fixedDelayString = "${imagehoster.images.counter-reconcile-interval:3600000}")
+    public void reconcileCounters() {
+        int repaired = imageRepository.reconcileCounters();
+        if (repaired > 0) {
+            log.warn("Repaired the comment and tag counters of {} images", repaired);
+        }
+    }
+
 
     //The method calls the createImage() method in the Repository and passes the image to be persisted in the database
+    //The image takes over the reference of its file taken by storeImageFile(), which is released if the transaction is rolled back
+    //Once the transaction has committed the generation of its thumbnail and medium versions is queued, the image is added to the
+    //search index and to the tag index, and the cached gallery of its owner is invalidated
+    @Transactional
     public void uploadImage(Image image) {
+        blobReferenceService.releaseOnRollback(keysOf(image));
         imageRepository.uploadImage(image);
+        afterCommit(() -> {
+            invalidateGallery(image.getUser());
+            searchService.index(image);
+            tagQueryService.index(image);
+            derivativeService.schedule(image.getId());
+        });
     }
 
     //The method calls the getImage() method in the Repository and passes the id of the image to be fetched
@@ -28,14 +196,209 @@ public class ImageService {
         return imageRepository.getImage(imageId);
     }
 
+    //The method returns everything the image detail page shows with two queries, whatever the number of tags and comments:
+    //the image with its owner and tags, and the first page of comments (the newest) with their authors
+    //Both queries share one EntityManager, so that the comments find their image in it instead of loading it again
+    //They are read-only and may be served by a read replica, the scope does not start a transaction of its own (propagation SUPPORTS)
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public ImageDetail getImageDetail(Integer imageId) {
+        Image image = imageRepository.getImageWithTags(imageId);
+        List<Comment> comments = commentRepository.getComments(imageId, null, commentPageSize + 1);
+        return new ImageDetail(image, image.getTags(), CommentPage.of(comments, commentPageSize));
+    }
+
     //The method calls the updateImage() method in the Repository and passes the Image to be updated in the database
-    public void updateImage(Image updatedImage) {
+    //The row of the image is locked first. If the file has not been replaced, the file and derivative columns, which the edit page does not
+    //send back, are taken from the locked row: derivatives recorded by DerivativeService while the page was open are kept, not overwritten
+    //with the values read when the page was loaded
+    //If the image file has been replaced by storeImageFile(), the image takes over the reference of the new file taken by it, which is released
+    //if the transaction is rolled back, the references to the previous file and its derivatives are released in the transaction,
+    //and the generation of the derivatives of the new file is queued once it has committed
+    //A file uploaded again with the same bytes is handled the same way: its derivatives have been reset by storeImageFile(), they are generated again
+    //Once the transaction has committed the new title, description and tags replace the previous ones in the search index, the new tags the
+    //previous ones in the tag index, and the cached gallery of the owner is invalidated
+    @Transactional
+    public void updateImage(Image updatedImage, boolean fileReplaced) {
+        if (fileReplaced) {
+            blobReferenceService.releaseOnRollback(keysOf(updatedImage));
+        }
+        Image current = imageRepository.lockImage(updatedImage.getId());
+        List<String> previousKeys = current == null ? Collections.emptyList() : keysOf(current);
+        if (!fileReplaced && current != null) {
+            copyImageFile(current, updatedImage);
+        }
         imageRepository.updateImage(updatedImage);
+        if (fileReplaced) {
+            blobReferenceService.release(previousKeys);
+        }
+        afterCommit(() -> {
+            invalidateGallery(updatedImage.getUser());
+            searchService.index(updatedImage);
+            tagQueryService.index(updatedImage);
+            if (fileReplaced) {
+                derivativeService.schedule(updatedImage.getId());
+            }
+        });
     }
 
     //The method calls the deleteImage() method in the Repository and passes the Image id of the image to be deleted in the database
+    //The row of the image is locked first, so that derivatives recorded in the meantime are released as well
+    //The references of the image to its files are released in the same transaction, the files are deleted once no image uses them anymore
+    //Once the transaction has committed the image is removed from the search index, from the tag index and from the trending feed,
+    //and the cached gallery of its owner is invalidated
+    @Transactional
     public void deleteImage(Integer imageId) {
-        imageRepository.deleteImage(imageId);
+        Image current = imageRepository.lockImage(imageId);
+        List<String> imageKeys = current == null ? Collections.emptyList() : keysOf(current);
+        Integer ownerId = imageRepository.deleteImage(imageId);
+        blobReferenceService.release(imageKeys);
+        afterCommit(() -> {
+            if (ownerId != null) {
+                galleryCache.invalidate(ownerId);
+            }
+            searchService.remove(imageId);
+            tagQueryService.remove(imageId);
+            trendingService.remove(imageId);
+        });
+    }
+
+    //The method streams the bytes of the uploaded image into the BlobStore
+    //and sets the key, size, MIME type and hash of the stored bytes on the image
+    //The upload is never held on the heap as a whole, it is hashed, size limited and validated while it is copied with a fixed-size buffer
+    //The MIME type is detected from the bytes, the one sent by the browser is not trusted
+    //The stored file gets one reference right away, so that it cannot be collected before the image is saved, which uploadImage() or
+    //updateImage() takes over. The file is read again if it has been collected in the meantime, see BlobReferenceService.acquire()
+    //Throws InvalidUploadException if the upload is too large, is not an image or has more pixels than ImageDecoder decodes,
+    //nothing is stored in that case
+    public void storeImageFile(Image image, InputStreamSource file) throws IOException {
+        long start = uploadMetrics.started();
+        try (InputStream data = file.getInputStream()) {
+            UploadInputStream upload = new UploadInputStream(data, maxUploadSize);
+            BlobInfo blob = blobStore.put(upload);
+            uploadMetrics.completed(start, upload);
+            blobReferenceService.acquire(blob, file);
+            checkDimensions(blob);
+
+            image.setImageKey(blob.getKey());
+            image.setImageSize(blob.getSize());
+            image.setImageHash(blob.getSha256());
+            image.setContentType(upload.getContentType());
+            image.setImageFile(null);
+
+            //the derivatives of the previous file, if any, do not match the new file
+            image.setDerivativeStatus(DerivativeStatus.PENDING);
+            image.setImageWidth(null);
+            image.setImageHeight(null);
+            image.setThumbnailKey(null);
+            image.setThumbnailWidth(null);
+            image.setMediumKey(null);
+            image.setMediumWidth(null);
+        } catch (InvalidUploadException e) {
+            uploadMetrics.rejected(e.getReason());
+            throw e;
+        } finally {
+            uploadMetrics.finished();
+        }
+    }
+
+    //The method returns the bytes of the requested version of the image, the original is returned until the derivatives are ready
+    //Images which have not been moved to the BlobStore yet are decoded from the Base64 'imageFile' column
+    //Returns null if the image has no file
+    public Resource getImageFile(Image image, DerivativeSize size) throws IOException {
+        String key = size.keyOf(image);
+        if (key != null) {
+            return blobStore.get(key);
+        }
+        if (image.getImageFile() != null) {
+            return new ByteArrayResource(Base64.getDecoder().decode(image.getImageFile()));
+        }
+        return null;
     }
 
+    //Rejects an image whose header declares more pixels than ImageDecoder decodes, a small file could otherwise declare
+    //an image too large to be decoded for its thumbnail and medium versions. Only the header is read
+    private void checkDimensions(BlobInfo blob) throws IOException {
+        Dimension dimensions;
+        try (InputStream in = blobStore.get(blob.getKey()).getInputStream()) {
+            dimensions = imageDecoder.readDimensions(in);
+        }
+        if (dimensions == null) {
+            return;
+        }
+        try {
+            imageDecoder.check(dimensions);
+        } catch (ImageTooLargeException e) {
+            blobReferenceService.release(Collections.singletonList(blob.getKey()));
+            throw new InvalidUploadException("too_many_pixels", "The image must not have more than " + (e.getMaxPixels() / 1000000) + " megapixels");
+        }
+    }
+
+    //Runs the task once the current transaction has committed, right away if there is no transaction
+    //The in-memory indexes, the cache and the derivative workers must not see a change which is then rolled back, nor miss it because
+    //they read the database before the change was committed
+    private static void afterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    private void invalidateGallery(User owner) {
+        if (owner != null && owner.getId() != null) {
+            galleryCache.invalidate(owner.getId());
+        }
+    }
+
+    //The method copies the file of the image and its derivatives from one image to another
+    private static void copyImageFile(Image from, Image to) {
+        to.setImageFile(from.getImageFile());
+        to.setImageKey(from.getImageKey());
+        to.setImageSize(from.getImageSize());
+        to.setImageHash(from.getImageHash());
+        to.setContentType(from.getContentType());
+        to.setImageWidth(from.getImageWidth());
+        to.setImageHeight(from.getImageHeight());
+        to.setDerivativeStatus(from.getDerivativeStatus());
+        to.setThumbnailKey(from.getThumbnailKey());
+        to.setThumbnailWidth(from.getThumbnailWidth());
+        to.setMediumKey(from.getMediumKey());
+        to.setMediumWidth(from.getMediumWidth());
+    }
+
+    //The keys of the files the image references: its original and derivatives, see ImageRepository.getImageKeys()
+    private static List<String> keysOf(Image image) {
+        List<String> keys = new ArrayList<>();
+        for (String key : Arrays.asList(image.getImageKey(), image.getThumbnailKey(), image.getMediumKey())) {
+            if (key != null && !keys.contains(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+
+    //The id of the cursor of a gallery, the pages are read below it
+    private static int galleryCursorId(String after) {
+        if (after == null) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            return Integer.parseInt(after);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
 }
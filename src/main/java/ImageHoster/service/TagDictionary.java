@@ -0,0 +1,136 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.TagRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+//Node-local cache from tag name to tag id, so that the tags of an upload or an edit are usually resolved without a query
+//Tags are never renamed or deleted, so an entry never becomes stale and the cache needs no invalidation
+//It is warmed at startup with the most used tags and holds at most 'imagehoster.tags.cache-size' names
+//When it is full the names which have not been looked up since the last sweep are evicted (the CLOCK algorithm),
+//so that the long tail of rarely used tags does not push out the common ones
+//Metrics, available at /actuator/metrics:
+//  imagehoster.tags.cache.requests   lookups, tagged with result 'hit' or 'miss'
+//  imagehoster.tags.cache.evictions  names evicted to keep the cache within its size
+//  imagehoster.tags.cache.size       number of cached names
+@Component
+@Order(3)
+public class TagDictionary implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(TagDictionary.class);
+
+    @Autowired
+    private TagRepository tagRepository;
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    //Only one thread sweeps at a time, the others go on without waiting for it
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    public TagDictionary(MeterRegistry registry, @Value("${imagehoster.tags.cache-size:10000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.hits = registry.counter("imagehoster.tags.cache.requests", "result", "hit");
+        this.misses = registry.counter("imagehoster.tags.cache.requests", "result", "miss");
+        this.evictions = registry.counter("imagehoster.tags.cache.evictions");
+        registry.gauge("imagehoster.tags.cache.size", entries, Map::size);
+    }
+
+    //Loads the most used tags when the application starts
+    //The application works without them, so a failure is only logged
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            for (Object[] row : tagRepository.getMostUsedTagIds(maxSize)) {
+                entries.putIfAbsent((String) row[0], new Entry((Integer) row[1], false));
+            }
+            log.info("Loaded {} tags into the tag dictionary", entries.size());
+        } catch (RuntimeException e) {
+            log.warn("Could not load the tag dictionary", e);
+        }
+    }
+
+    //Returns the id of the tag with the given name, or null if the name is not cached
+    public Integer getId(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.referenced = true;
+        hits.increment();
+        return entry.id;
+    }
+
+    //Adds the tag with the given name and id, which must have been committed to the database
+    //The name counts as looked up, so that it survives the next sweep
+    public void put(String name, int id) {
+        if (entries.putIfAbsent(name, new Entry(id, true)) == null && entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    //Sweeps over the names, giving every name which has been looked up a second chance and removing the others,
+    //until the cache is back at 90% of its size so that the next sweep is not needed right away
+    //A name looked up again during the sweep keeps its place, a name in the long tail is removed on the second pass at the latest
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int target = maxSize - maxSize / 10;
+            for (int pass = 0; pass < 2 && entries.size() > target; pass++) {
+                Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+                while (it.hasNext() && entries.size() > target) {
+                    Entry entry = it.next().getValue();
+                    if (entry.referenced) {
+                        entry.referenced = false;
+                    } else {
+                        it.remove();
+                        evictions.increment();
+                    }
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Entry {
+
+        private final int id;
+
+        //Set on every lookup and cleared by the sweep
+        private volatile boolean referenced;
+
+        private Entry(int id, boolean referenced) {
+            this.id = id;
+            this.referenced = referenced;
+        }
+    }
+}
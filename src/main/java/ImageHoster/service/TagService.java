@@ -5,17 +5,115 @@ import ImageHoster.repository.TagRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
 
 @Service
 public class TagService {
     @Autowired
     private TagRepository tagRepository;
 
+    @Autowired
+    private TagDictionary tagDictionary;
+
+    //The tag is taken from the TagDictionary if it is cached there, only a miss queries the database
     public Tag getTagByName(String title) {
-        return tagRepository.findTag(title);
+        Integer id = tagDictionary.getId(title);
+        if (id != null) {
+            return tag(title, id);
+        }
+        Tag tag = tagRepository.findTag(title);
+        if (tag != null) {
+            tagDictionary.put(tag.getName(), tag.getId());
+        }
+        return tag;
     }
 
     public Tag createTag(Tag tag) {
-        return tagRepository.createTag(tag);
+        Tag created = tagRepository.createTag(tag);
+        tagDictionary.put(created.getName(), created.getId());
+        return created;
+    }
+
+    //findOrCreateTags() method returns the list of tags after converting the ‘tags’ string to a list of all the tags and also stores the tags in the database if they do not exist in the database
+    //The names cached in the TagDictionary need no query at all
+    //The other names are looked up with a single query, the missing ones are inserted with a single statement and then fetched with one more query
+    //The tags are returned in the order of the names in the string, blank and repeated names are skipped
+    //The missing names are inserted in sorted order: two uploads creating the same new tags take the locks of the unique index on the names
+    //in the same order, whatever order their users typed them in, and cannot deadlock
+    public List<Tag> findOrCreateTags(String tagNames) {
+        Set<String> names = parseTagNames(tagNames);
+        Map<String, Tag> tags = new HashMap<String, Tag>();
+        List<String> uncached = new ArrayList<String>();
+        for (String name : names) {
+            Integer id = tagDictionary.getId(name);
+            if (id != null) {
+                tags.put(name, tag(name, id));
+            } else {
+                uncached.add(name);
+            }
+        }
+        if (!uncached.isEmpty()) {
+            addAll(tags, tagRepository.findTags(uncached));
+        }
+
+        if (tags.size() < names.size()) {
+            List<String> missing = new ArrayList<String>();
+            for (String name : names) {
+                if (!tags.containsKey(name)) {
+                    missing.add(name);
+                }
+            }
+            Collections.sort(missing);
+            tagRepository.insertTags(missing);
+            addAll(tags, tagRepository.findTags(missing));
+        }
+
+        List<Tag> result = new ArrayList<Tag>();
+        for (String name : names) {
+            Tag tag = tags.get(name);
+            if (tag == null) {
+                throw new IllegalStateException("Tag '" + name + "' could not be created");
+            }
+            result.add(tag);
+        }
+        return result;
+    }
+
+    //Splits the comma separated string into trimmed, non blank and distinct names
+    private Set<String> parseTagNames(String tagNames) {
+        Set<String> names = new LinkedHashSet<String>();
+        if (tagNames == null) {
+            return names;
+        }
+        StringTokenizer st = new StringTokenizer(tagNames, ",");
+        while (st.hasMoreTokens()) {
+            String tagName = st.nextToken().trim();
+            if (!tagName.isEmpty()) {
+                names.add(tagName);
+            }
+        }
+        return names;
+    }
+
+    private void addAll(Map<String, Tag> tags, List<Tag> found) {
+        for (Tag tag : found) {
+            tags.put(tag.getName(), tag);
+            tagDictionary.put(tag.getName(), tag.getId());
+        }
+    }
+
+    //A detached tag with the id of the row is enough to associate it with an image, the database is not queried for it
+    private Tag tag(String name, int id) {
+        Tag tag = new Tag(name);
+        tag.setId(id);
+        return tag;
     }
 }
@@ -33,4 +33,8 @@ public class UserService {
         }
     }
 
+    //Returns the id of the user with the given username, null if there is no such user
+    public Integer getUserId(String username) {
+        return userRepository.getUserId(username);
+    }
 }
@@ -0,0 +1,93 @@
+package ImageHoster.storage;
+
+import ImageHoster.model.DerivativeStatus;
+import ImageHoster.model.Image;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.service.BlobReferenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+//Before the BlobStore was introduced every image was stored Base64 encoded in the 'imageFile' column of the 'images' table
+//This runner moves those images into the BlobStore at startup, one image at a time so that only one of them is on the heap
+//An image whose migration fails keeps its 'imageFile' column and is retried on the next startup
+//The migration can be switched off with 'imagehoster.storage.migrate-base64=false'
+//It runs after BlobReferenceService has rebuilt the reference counts, since it adds references itself
+@Component
+@Order(2)
+public class Base64ImageMigration implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(Base64ImageMigration.class);
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private BlobReferenceService blobReferenceService;
+
+    @Value("${imagehoster.storage.migrate-base64:true}")
+    private boolean enabled;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+
+        List<Integer> imageIds = imageRepository.getImageIdsWithInlineFile();
+        int migrated = 0;
+        for (Integer imageId : imageIds) {
+            try {
+                migrate(imageRepository.getImage(imageId));
+                migrated++;
+            } catch (IOException | IllegalArgumentException e) {
+                log.warn("Could not move image {} into the blob store", imageId, e);
+            }
+        }
+        if (!imageIds.isEmpty()) {
+            log.info("Moved {} of {} Base64 encoded images into the blob store", migrated, imageIds.size());
+        }
+    }
+
+    private void migrate(Image image) throws IOException {
+        byte[] bytes = Base64.getDecoder().decode(image.getImageFile());
+        BlobInfo blob = blobStore.put(new ByteArrayInputStream(bytes));
+
+        image.setImageKey(blob.getKey());
+        image.setImageSize(blob.getSize());
+        image.setImageHash(blob.getSha256());
+        image.setContentType(guessContentType(bytes));
+        image.setImageFile(null);
+        image.setDerivativeStatus(DerivativeStatus.PENDING);
+        //the reference is taken before the key becomes visible, see BlobReferenceService.acquire()
+        blobReferenceService.acquire(blob, new ByteArrayResource(bytes));
+        try {
+            imageRepository.updateImage(image);
+        } catch (RuntimeException e) {
+            blobReferenceService.release(Collections.singletonList(blob.getKey()));
+            throw e;
+        }
+    }
+
+    //The old upload path did not record the MIME type, so it is detected from the first bytes of the image
+    //The templates always declared the images as jpeg, which is kept as the fallback
+    private String guessContentType(byte[] bytes) {
+        String contentType = ImageFormats.detect(bytes, bytes.length);
+        return contentType != null ? contentType : "image/jpeg";
+    }
+}
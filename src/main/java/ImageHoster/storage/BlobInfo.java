@@ -0,0 +1,29 @@
+package ImageHoster.storage;
+
+//The class describes a blob once it has been written to the BlobStore
+public class BlobInfo {
+
+    private final String key;
+
+    private final long size;
+
+    private final String sha256;
+
+    public BlobInfo(String key, long size, String sha256) {
+        this.key = key;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+}
@@ -0,0 +1,26 @@
+package ImageHoster.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+//A BlobStore keeps the raw bytes of the uploaded images outside of the database
+//Every blob is stored under a content key (the SHA-256 of its bytes) and the 'images' table only keeps that key and some metadata
+//The store to be used is selected in StorageConfig
+public interface BlobStore {
+
+    //Reads all the bytes from the stream and stores them
+    //Returns the key under which the bytes can be read back along with their size and hash
+    BlobInfo put(InputStream data) throws IOException;
+
+    //Returns the blob stored under the key as a Resource
+    //Returns null if there is no blob stored under the key
+    Resource get(String key) throws IOException;
+
+    //Returns true if a blob is stored under the key
+    boolean exists(String key);
+
+    //Deletes the blob stored under the key, does nothing if there is no such blob
+    void delete(String key) throws IOException;
+}
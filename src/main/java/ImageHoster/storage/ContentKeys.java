@@ -0,0 +1,47 @@
+package ImageHoster.storage;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+//Helper methods to compute the content key of a blob
+//The content key is the lower case hex encoded SHA-256 of the bytes of the blob
+public final class ContentKeys {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentKeys() {
+    }
+
+    //Returns a new SHA-256 MessageDigest
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //Converts the digest to the content key
+    public static String toKey(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    //Returns true if the key looks like a content key, used to reject keys which could escape the storage directory
+    public static boolean isValid(String key) {
+        if (key == null || key.length() != 64) {
+            return false;
+        }
+        for (char c : key.toCharArray()) {
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
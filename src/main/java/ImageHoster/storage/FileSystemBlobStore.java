@@ -0,0 +1,88 @@
+package ImageHoster.storage;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+//BlobStore which keeps every blob in its own file below the root directory
+//The blob with key 'abcdef...' is stored in the file '<root>/ab/cd/abcdef...' so that no directory gets too many entries
+//The bytes are first written to a temporary file while the hash is computed and then moved to their final location
+public class FileSystemBlobStore implements BlobStore {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Path root;
+
+    private final Path tmp;
+
+    public FileSystemBlobStore(String root) throws IOException {
+        this.root = Paths.get(root).toAbsolutePath();
+        this.tmp = this.root.resolve("tmp");
+        Files.createDirectories(this.tmp);
+    }
+
+    @Override
+    public BlobInfo put(InputStream data) throws IOException {
+        MessageDigest digest = ContentKeys.newDigest();
+        Path tmpFile = Files.createTempFile(tmp, "upload", ".part");
+        long size = 0;
+
+        try (InputStream in = new DigestInputStream(data, digest);
+             OutputStream out = Files.newOutputStream(tmpFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
+
+        String key = ContentKeys.toKey(digest.digest());
+        Path target = pathOf(key);
+        if (Files.exists(target)) {
+            //same bytes are already stored
+            Files.delete(tmpFile);
+        } else {
+            Files.createDirectories(target.getParent());
+            Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return new BlobInfo(key, size, key);
+    }
+
+    @Override
+    public Resource get(String key) {
+        if (!exists(key)) {
+            return null;
+        }
+        return new FileSystemResource(pathOf(key).toFile());
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return ContentKeys.isValid(key) && Files.exists(pathOf(key));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        if (ContentKeys.isValid(key)) {
+            Files.deleteIfExists(pathOf(key));
+        }
+    }
+
+    //Returns the path of the file holding the blob with the given key
+    Path pathOf(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+}
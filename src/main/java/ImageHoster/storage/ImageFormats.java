@@ -0,0 +1,43 @@
+package ImageHoster.storage;
+
+//Detects the format of an image from the signature in its first bytes
+//The MIME type sent by the browser is not trusted since it is only derived from the file name
+public final class ImageFormats {
+
+    private ImageFormats() {
+    }
+
+    //Returns the MIME type of the image whose first 'length' bytes are in 'header'
+    //Returns null if the bytes do not start with the signature of a supported format
+    public static String detect(byte[] header, int length) {
+        if (startsWith(header, length, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(header, length, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (startsWith(header, length, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(header, length, 'R', 'I', 'F', 'F') && length >= 12
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "image/webp";
+        }
+        if (startsWith(header, length, 'B', 'M')) {
+            return "image/bmp";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] header, int length, int... signature) {
+        if (length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+package ImageHoster.storage;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//BlobStore which keeps all the blobs in a map on the heap
+//It is meant for tests and local development only, all the blobs are lost when the application stops
+public class InMemoryBlobStore implements BlobStore {
+
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
+    @Override
+    public BlobInfo put(InputStream data) throws IOException {
+        MessageDigest digest = ContentKeys.newDigest();
+        byte[] bytes = StreamUtils.copyToByteArray(new DigestInputStream(data, digest));
+        String key = ContentKeys.toKey(digest.digest());
+        blobs.putIfAbsent(key, bytes);
+        return new BlobInfo(key, bytes.length, key);
+    }
+
+    @Override
+    public Resource get(String key) {
+        byte[] bytes = key == null ? null : blobs.get(key);
+        return bytes == null ? null : new ByteArrayResource(bytes);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return key != null && blobs.containsKey(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        if (key != null) {
+            blobs.remove(key);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ImageHoster.storage;
+
+import java.io.IOException;
+
+//The exception is thrown while an upload is streamed into the BlobStore and the upload turns out to be too large or not an image
+//The message is meant to be shown to the user
+public class InvalidUploadException extends IOException {
+
+    private final String reason;
+
+    public InvalidUploadException(String reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    //Short reason used to tag the rejected uploads in the metrics, such as 'too_large' or 'not_an_image'
+    public String getReason() {
+        return reason;
+    }
+}
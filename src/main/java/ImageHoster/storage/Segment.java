@@ -0,0 +1,205 @@
+package ImageHoster.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+//One segment file of the SegmentBlobStore
+//A segment is appended to until it is full, then it is sealed: its footer is written and the whole file is mapped into memory
+//
+//File layout
+//  record*  footer?
+//  record  = header (HEADER_SIZE bytes) followed by the bytes of the blob, tombstones have no bytes
+//  header  = magic (int), type (byte), 3 unused bytes, key (64 ASCII bytes), length (long)
+//  footer  = entry* trailer, written when the segment is sealed
+//  entry   = type (byte), key (64 ASCII bytes), offset of the bytes (long), length (long)
+//  trailer = offset of the footer (long), number of entries (int), FOOTER_MAGIC (int)
+//The magic of a record is written after its bytes, so a record torn by a crash is recognised and cut off at startup
+class Segment {
+
+    static final int RECORD_MAGIC = 0x494D4842;
+    static final int FOOTER_MAGIC = 0x494D4846;
+    static final byte BLOB = 1;
+    static final byte TOMBSTONE = 2;
+    static final int KEY_SIZE = 64;
+    static final int HEADER_SIZE = 4 + 4 + KEY_SIZE + 8;
+    static final int ENTRY_SIZE = 1 + KEY_SIZE + 8 + 8;
+    static final int TRAILER_SIZE = 8 + 4 + 4;
+
+    //A record of the segment, 'offset' is the position of the bytes of the blob (right after the header)
+    static class Record {
+        final byte type;
+        final String key;
+        final long offset;
+        final long length;
+
+        Record(byte type, String key, long offset, long length) {
+            this.type = type;
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    final int id;
+
+    final Path path;
+
+    final FileChannel channel;
+
+    //the records in the order they have been appended, kept to write the footer and to compact the segment
+    final List<Record> records = new CopyOnWriteArrayList<>();
+
+    //bytes of all the blobs appended to the segment, and of those still in the index
+    final AtomicLong dataBytes = new AtomicLong();
+    final AtomicLong liveBytes = new AtomicLong();
+
+    //end of the last record, only changed while holding the write lock of the store
+    volatile long size;
+
+    //the whole segment mapped read only, set once the segment is sealed
+    volatile MappedByteBuffer mapped;
+
+    Segment(int id, Path path) throws IOException {
+        this.id = id;
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    boolean isSealed() {
+        return mapped != null;
+    }
+
+    //Returns the bytes of the blob at the offset, a slice of the mapping if the segment is sealed and a new mapping otherwise
+    ByteBuffer slice(long offset, long length) throws IOException {
+        MappedByteBuffer sealed = mapped;
+        if (sealed != null) {
+            ByteBuffer slice = sealed.duplicate();
+            slice.position((int) offset);
+            slice.limit((int) (offset + length));
+            return slice.slice();
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    //Appends a record header at the end of the segment with an empty magic, completed by commit()
+    long appendHeader(byte type, String key, long length) throws IOException {
+        long position = size;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0).put(type).put(new byte[3]).put(key.getBytes("US-ASCII")).putLong(length);
+        header.flip();
+        writeFully(header, position);
+        return position;
+    }
+
+    //Writes the magic of the record starting at the position, the record is valid from now on
+    void commit(long position, Record record) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4).putInt(RECORD_MAGIC);
+        magic.flip();
+        writeFully(magic, position);
+        size = record.offset + record.length;
+        records.add(record);
+        if (record.type == BLOB) {
+            dataBytes.addAndGet(record.length);
+            liveBytes.addAndGet(record.length);
+        }
+    }
+
+    //Writes the footer and maps the segment, no record can be appended afterwards
+    void seal() throws IOException {
+        ByteBuffer footer = ByteBuffer.allocate(records.size() * ENTRY_SIZE + TRAILER_SIZE);
+        for (Record record : records) {
+            footer.put(record.type).put(record.key.getBytes("US-ASCII")).putLong(record.offset).putLong(record.length);
+        }
+        footer.putLong(size).putInt(records.size()).putInt(FOOTER_MAGIC);
+        footer.flip();
+        writeFully(footer, size);
+        channel.force(true);
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    //Reads the records of the segment from its footer
+    //Returns false if the segment has no valid footer, i.e. it has not been sealed
+    boolean readFooter() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < TRAILER_SIZE) {
+            return false;
+        }
+        ByteBuffer trailer = readFully(fileSize - TRAILER_SIZE, TRAILER_SIZE);
+        long footerOffset = trailer.getLong();
+        int count = trailer.getInt();
+        if (trailer.getInt() != FOOTER_MAGIC || footerOffset < 0 || footerOffset + (long) count * ENTRY_SIZE + TRAILER_SIZE != fileSize) {
+            return false;
+        }
+
+        ByteBuffer entries = readFully(footerOffset, count * ENTRY_SIZE);
+        byte[] key = new byte[KEY_SIZE];
+        for (int i = 0; i < count; i++) {
+            byte type = entries.get();
+            entries.get(key);
+            addLoaded(new Record(type, new String(key, "US-ASCII"), entries.getLong(), entries.getLong()));
+        }
+        size = footerOffset;
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        return true;
+    }
+
+    //Reads the records of an unsealed segment by walking over their headers
+    //The segment is cut off at the first incomplete record, which is left by a crash during an append
+    void scan() throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        byte[] key = new byte[KEY_SIZE];
+        while (position + HEADER_SIZE <= fileSize) {
+            ByteBuffer header = readFully(position, HEADER_SIZE);
+            if (header.getInt() != RECORD_MAGIC) {
+                break;
+            }
+            byte type = header.get();
+            header.position(header.position() + 3);
+            header.get(key);
+            long length = header.getLong();
+            if (length < 0 || position + HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            addLoaded(new Record(type, new String(key, "US-ASCII"), position + HEADER_SIZE, length));
+            position += HEADER_SIZE + length;
+        }
+        channel.truncate(position);
+        size = position;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private void addLoaded(Record record) {
+        records.add(record);
+        if (record.type == BLOB) {
+            dataBytes.addAndGet(record.length);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment " + path);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,316 @@
+package ImageHoster.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+//BlobStore which appends the blobs to a few large segment files instead of keeping one file per blob
+//This avoids running out of inodes and slow directory listings with tens of millions of small images
+//
+//  - An in-memory index maps every key to (segment, offset, length). At startup it is rebuilt from the footers of the sealed segments
+//    and by scanning the records of the segment which was still being appended to
+//  - Blobs are read through slices of the memory mapped segments, nothing is copied onto the heap
+//  - Deleting a blob appends a tombstone record so that the deletion survives a restart
+//  - compact() copies the blobs still in use out of the segments which are mostly garbage and deletes those segments
+//
+//Uploads are first streamed into a temporary file while their hash is computed, only the copy into the segment holds the write lock
+//See Segment for the file layout
+public class SegmentBlobStore implements BlobStore, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentBlobStore.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    //Position of a blob in the segments
+    static class Entry {
+        final int segmentId;
+        final long offset;
+        final long length;
+
+        Entry(int segmentId, long offset, long length) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Path root;
+
+    private final Path tmp;
+
+    private final long segmentSize;
+
+    private final double compactionThreshold;
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    //serializes all the appends to the active segment
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile Segment active;
+
+    //segmentSize: a segment is sealed once it would grow beyond this size, at most 2 GB since the segments are mapped
+    //compactionThreshold: a sealed segment is compacted once less than this fraction of its blobs are still in use
+    public SegmentBlobStore(String root, long segmentSize, double compactionThreshold) throws IOException {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The segment size must be between 1 byte and 2 GB");
+        }
+        this.root = Paths.get(root).toAbsolutePath();
+        this.tmp = this.root.resolve("tmp");
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        Files.createDirectories(this.tmp);
+        load();
+    }
+
+    @Override
+    public BlobInfo put(InputStream data) throws IOException {
+        MessageDigest digest = ContentKeys.newDigest();
+        Path tmpFile = Files.createTempFile(tmp, "upload", ".part");
+        try {
+            long size = 0;
+            try (InputStream in = new DigestInputStream(data, digest);
+                 OutputStream out = Files.newOutputStream(tmpFile)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+
+            String key = ContentKeys.toKey(digest.digest());
+            writeLock.lock();
+            try {
+                if (!index.containsKey(key)) {
+                    try (FileChannel source = FileChannel.open(tmpFile, StandardOpenOption.READ)) {
+                        index.put(key, append(key, source, 0, size));
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            return new BlobInfo(key, size, key);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    @Override
+    public Resource get(String key) throws IOException {
+        //a compaction may move the blob between the lookup and the read, the lookup is then repeated once
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Entry entry = key == null ? null : index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            Segment segment = segments.get(entry.segmentId);
+            if (segment == null) {
+                continue;
+            }
+            try {
+                return new ByteBufferResource(segment.slice(entry.offset, entry.length), "blob " + key);
+            } catch (ClosedChannelException e) {
+                //the segment has been compacted away
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return key != null && index.containsKey(key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        if (key == null) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            Entry entry = index.remove(key);
+            if (entry != null) {
+                release(entry);
+                appendTombstone(key);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    //Compacts the sealed segments in which less than 'compactionThreshold' of the bytes are still in use
+    //The blobs in use are appended to the active segment, then the old segment file is deleted
+    //Readers which already hold a slice of the old segment keep reading from its mapping
+    @Scheduled(fixedDelayString = "${imagehoster.storage.segment.compaction-interval:300000}")
+    public void compact() {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == active || !segment.isSealed()) {
+                continue;
+            }
+            long data = segment.dataBytes.get();
+            long live = segment.liveBytes.get();
+            boolean oldestAndEmpty = live == 0 && segment.id == segments.firstKey();
+            if ((data > 0 && live < compactionThreshold * data) || oldestAndEmpty) {
+                try {
+                    compact(segment);
+                } catch (IOException e) {
+                    log.warn("Could not compact segment {}", segment.path, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        long reclaimed = segment.size;
+        for (Segment.Record record : segment.records) {
+            writeLock.lock();
+            try {
+                if (record.type == Segment.BLOB) {
+                    Entry entry = index.get(record.key);
+                    if (entry != null && entry.segmentId == segment.id && entry.offset == record.offset) {
+                        index.put(record.key, append(record.key, segment.channel, record.offset, record.length));
+                    }
+                } else if (!index.containsKey(record.key) && segment.id != segments.firstKey()) {
+                    //the tombstone may still hide a copy of the blob in an older segment, so it has to survive the compaction
+                    appendTombstone(record.key);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        writeLock.lock();
+        try {
+            segments.remove(segment.id);
+        } finally {
+            writeLock.unlock();
+        }
+        segment.close();
+        Files.deleteIfExists(segment.path);
+        log.info("Compacted segment {}, {} bytes reclaimed", segment.path.getFileName(), reclaimed);
+    }
+
+    //Appends the blob to the active segment and returns its position, must be called with the write lock held
+    private Entry append(String key, FileChannel source, long sourceOffset, long length) throws IOException {
+        Segment segment = activeSegmentFor(length);
+        long position = segment.appendHeader(Segment.BLOB, key, length);
+        long offset = position + Segment.HEADER_SIZE;
+        long copied = 0;
+        while (copied < length) {
+            segment.channel.position(offset + copied);
+            copied += source.transferTo(sourceOffset + copied, length - copied, segment.channel);
+        }
+        segment.commit(position, new Segment.Record(Segment.BLOB, key, offset, length));
+        return new Entry(segment.id, offset, length);
+    }
+
+    //Appends a tombstone for the key to the active segment, must be called with the write lock held
+    private void appendTombstone(String key) throws IOException {
+        Segment segment = activeSegmentFor(0);
+        long position = segment.appendHeader(Segment.TOMBSTONE, key, 0);
+        segment.commit(position, new Segment.Record(Segment.TOMBSTONE, key, position + Segment.HEADER_SIZE, 0));
+    }
+
+    //Returns the active segment, sealing it and starting a new one first if the record would not fit
+    private Segment activeSegmentFor(long length) throws IOException {
+        Segment segment = active;
+        if (segment.size > 0 && segment.size + Segment.HEADER_SIZE + length > segmentSize) {
+            segment.seal();
+            segment = newSegment(segment.id + 1);
+        }
+        return segment;
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment segment = new Segment(id, root.resolve(String.format("segment-%08d.dat", id)));
+        segments.put(id, segment);
+        active = segment;
+        return segment;
+    }
+
+    //The entry is no longer in the index, its bytes become garbage of its segment
+    private void release(Entry entry) {
+        Segment segment = segments.get(entry.segmentId);
+        if (segment != null) {
+            segment.liveBytes.addAndGet(-entry.length);
+        }
+    }
+
+    //Opens the segments in the order they have been written and replays their records into the index
+    //A later record of a key replaces an earlier one, a tombstone removes it
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "segment-*.dat")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String name = file.getFileName().toString();
+            int id = Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+            Segment segment = new Segment(id, file);
+            if (!segment.readFooter()) {
+                segment.scan();
+                if (i < files.size() - 1) {
+                    //only the last segment can be unsealed, unless a crash happened while an older one was sealed
+                    segment.seal();
+                }
+            }
+            segments.put(id, segment);
+
+            for (Segment.Record record : segment.records) {
+                Entry previous;
+                if (record.type == Segment.BLOB) {
+                    previous = index.put(record.key, new Entry(id, record.offset, record.length));
+                    segment.liveBytes.addAndGet(record.length);
+                } else {
+                    previous = index.remove(record.key);
+                }
+                if (previous != null) {
+                    release(previous);
+                }
+            }
+        }
+
+        Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (last == null || last.isSealed()) {
+            newSegment(last == null ? 1 : last.id + 1);
+        } else {
+            active = last;
+        }
+        log.info("Loaded {} blobs from {} segments", index.size(), segments.size());
+    }
+}
@@ -0,0 +1,106 @@
+package ImageHoster.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+//The stream wraps the bytes of an upload while they are copied into the BlobStore
+//It never buffers the upload itself, it only
+//  - counts the bytes and fails as soon as the upload grows larger than the limit
+//  - looks at the first bytes and fails if they are not the signature of a supported image format
+//  - records the largest read so that the memory held per upload can be reported
+//Since the BlobStore removes its partial file when reading fails, a rejected upload never becomes visible
+public class UploadInputStream extends FilterInputStream {
+
+    private static final int HEADER_SIZE = 12;
+
+    private final long maxSize;
+
+    private final byte[] header = new byte[HEADER_SIZE];
+
+    private int headerLength;
+
+    private String contentType;
+
+    private long size;
+
+    private int largestRead;
+
+    public UploadInputStream(InputStream in, long maxSize) {
+        super(in);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) {
+            checkComplete();
+        } else {
+            inspect(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read == -1) {
+            checkComplete();
+        } else {
+            inspect(b, off, read);
+        }
+        return read;
+    }
+
+    //Mark and reset would replay bytes which have already been counted
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    //Returns the MIME type detected from the first bytes of the upload, null until enough bytes have been read
+    public String getContentType() {
+        return contentType;
+    }
+
+    //Returns the number of bytes read so far
+    public long getSize() {
+        return size;
+    }
+
+    //Returns the largest number of bytes handed out by a single read, which is the buffer size of the reader
+    public int getLargestRead() {
+        return largestRead;
+    }
+
+    private void inspect(byte[] b, int off, int len) throws IOException {
+        size += len;
+        largestRead = Math.max(largestRead, len);
+        if (size > maxSize) {
+            throw new InvalidUploadException("too_large", "The image must not be larger than " + (maxSize / (1024 * 1024)) + " MB");
+        }
+        if (headerLength < HEADER_SIZE) {
+            int copy = Math.min(len, HEADER_SIZE - headerLength);
+            System.arraycopy(b, off, header, headerLength, copy);
+            headerLength += copy;
+            if (headerLength == HEADER_SIZE) {
+                detectContentType();
+            }
+        }
+    }
+
+    //Called at the end of the stream, uploads shorter than the header are checked here
+    private void checkComplete() throws IOException {
+        if (contentType == null) {
+            detectContentType();
+        }
+    }
+
+    private void detectContentType() throws IOException {
+        contentType = ImageFormats.detect(header, headerLength);
+        if (contentType == null) {
+            throw new InvalidUploadException("not_an_image", "Only JPEG, PNG, GIF, WebP and BMP images can be uploaded");
+        }
+    }
+}
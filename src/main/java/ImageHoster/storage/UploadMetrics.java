@@ -0,0 +1,58 @@
+package ImageHoster.storage;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Metrics of the upload pipeline, available at /actuator/metrics
+//  imagehoster.upload.active        uploads currently being streamed into the BlobStore
+//  imagehoster.upload.size          size of the stored uploads in bytes
+//  imagehoster.upload.buffer        largest read per upload in bytes, i.e. the heap held by one upload while it is copied
+//  imagehoster.upload.duration      time taken to stream an upload into the BlobStore
+//  imagehoster.upload.rejected      uploads rejected by the pipeline, tagged with the reason
+@Component
+public class UploadMetrics {
+
+    private final MeterRegistry registry;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final DistributionSummary size;
+
+    private final DistributionSummary buffer;
+
+    private final Timer duration;
+
+    public UploadMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        registry.gauge("imagehoster.upload.active", active);
+        this.size = DistributionSummary.builder("imagehoster.upload.size").baseUnit("bytes").register(registry);
+        this.buffer = DistributionSummary.builder("imagehoster.upload.buffer").baseUnit("bytes").register(registry);
+        this.duration = Timer.builder("imagehoster.upload.duration").register(registry);
+    }
+
+    //Called when an upload starts, returns the start time to be passed to completed()
+    //Every call must be followed by a call to finished()
+    public long started() {
+        active.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void completed(long start, UploadInputStream upload) {
+        duration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        size.record(upload.getSize());
+        buffer.record(upload.getLargestRead());
+    }
+
+    public void rejected(String reason) {
+        registry.counter("imagehoster.upload.rejected", "reason", reason).increment();
+    }
+
+    public void finished() {
+        active.decrementAndGet();
+    }
+}
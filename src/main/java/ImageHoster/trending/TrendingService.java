@@ -0,0 +1,210 @@
+package ImageHoster.trending;
+
+import ImageHoster.model.ImageCard;
+import ImageHoster.model.ImagePage;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.TrendingRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//The trending feed: the images ranked by a score of their recent views and comments, which decays with time, see TrendingWindow
+//There is one window per horizon, 'day' and 'week', which differ by the half-life of their scores
+//The scores are updated in memory on every event, ImageController records the views and CommentService the comments,
+//and a page of the feed is a slice of the precomputed top of the window, only the cards of the page are loaded from the database
+//The scores are checkpointed to the trending_scores table every 'imagehoster.trending.checkpoint-interval' ms and when the application
+//stops, and restored from it when it starts. The events since the last checkpoint are lost if the application does not stop cleanly
+//The scores are in-process, the events of another node of the application are not counted here
+//Metrics, available at /actuator/metrics:
+//  imagehoster.trending.events        number of events recorded, by type (view, comment)
+//  imagehoster.trending.images        number of images tracked, by window
+//  imagehoster.trending.checkpoints   time to write a checkpoint
+@Service
+@Order(6)
+public class TrendingService implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(TrendingService.class);
+
+    public static final String DEFAULT_WINDOW = "day";
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private TrendingRepository trendingRepository;
+
+    //Number of images on one page of the feed
+    @Value("${imagehoster.feed.page-size:20}")
+    private int pageSize;
+
+    @Value("${imagehoster.trending.view-weight:1}")
+    private double viewWeight;
+
+    @Value("${imagehoster.trending.comment-weight:5}")
+    private double commentWeight;
+
+    private final Map<String, TrendingWindow> windows = new LinkedHashMap<>();
+
+    //Whether an event has been recorded since the last checkpoint
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    private final Counter views;
+
+    private final Counter comments;
+
+    private final Timer checkpoints;
+
+    public TrendingService(MeterRegistry registry,
+                           @Value("${imagehoster.trending.day.half-life:21600000}") long dayHalfLife,
+                           @Value("${imagehoster.trending.week.half-life:151200000}") long weekHalfLife,
+                           @Value("${imagehoster.trending.size:1000}") int size,
+                           @Value("${imagehoster.trending.capacity:100000}") int capacity) {
+        long now = System.currentTimeMillis();
+        windows.put("day", new TrendingWindow("day", dayHalfLife, size, capacity, now));
+        windows.put("week", new TrendingWindow("week", weekHalfLife, size, capacity, now));
+        this.views = registry.counter("imagehoster.trending.events", "type", "view");
+        this.comments = registry.counter("imagehoster.trending.events", "type", "comment");
+        this.checkpoints = registry.timer("imagehoster.trending.checkpoints");
+        for (TrendingWindow window : windows.values()) {
+            registry.gauge("imagehoster.trending.images", Tags.of("window", window.getName()), window, TrendingWindow::tracked);
+        }
+    }
+
+    //Restores the checkpointed scores when the application starts
+    //The feed works without them, it then only ranks the events since the start, so a failure is only logged
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            restore();
+        } catch (RuntimeException e) {
+            log.warn("Could not restore the trending scores", e);
+        }
+    }
+
+    //Counts a view of the image
+    public void recordView(Integer imageId) {
+        record(imageId, viewWeight);
+        views.increment();
+    }
+
+    //Counts a comment on the image
+    public void recordComment(Integer imageId) {
+        record(imageId, commentWeight);
+        comments.increment();
+    }
+
+    private void record(Integer imageId, double weight) {
+        if (imageId == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (TrendingWindow window : windows.values()) {
+            window.add(imageId, weight, now);
+        }
+        changed.set(true);
+    }
+
+    //Drops the image, which has been deleted, from the feed
+    public void remove(Integer imageId) {
+        for (TrendingWindow window : windows.values()) {
+            window.remove(imageId);
+        }
+        changed.set(true);
+    }
+
+    //Returns the page of the feed of the window, best first, the cursor of the next page is its number
+    //An unknown window is the default one
+    public ImagePage getTrendingFeed(String window, String page) {
+        int[] top = windows.getOrDefault(window, windows.get(DEFAULT_WINDOW)).top();
+        int number = pageNumber(page);
+        long offset = (long) number * pageSize;
+        if (offset >= top.length) {
+            return ImagePage.empty();
+        }
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = (int) offset; i < top.length && i < offset + pageSize; i++) {
+            pageIds.add(top[i]);
+        }
+
+        //the cards come back in no particular order, they are put back in the order of the ranking
+        Map<Integer, ImageCard> cards = new HashMap<>();
+        for (ImageCard card : imageRepository.getImageCardsByIds(pageIds)) {
+            cards.put(card.getId(), card);
+        }
+        List<ImageCard> images = new ArrayList<>();
+        for (Integer id : pageIds) {
+            //an image deleted on another node is still ranked by this one
+            if (cards.containsKey(id)) {
+                images.add(cards.get(id));
+            }
+        }
+        return new ImagePage(images, offset + pageSize < top.length ? String.valueOf(number + 1) : null);
+    }
+
+    //Writes the scores of every window to the database, unless no event has been recorded since the last checkpoint
+    @Scheduled(fixedDelayString = "${imagehoster.trending.checkpoint-interval:300000}",
+            initialDelayString = "${imagehoster.trending.checkpoint-interval:300000}")
+    public void checkpoint() {
+        if (!changed.getAndSet(false)) {
+            return;
+        }
+        try {
+            checkpoints.record(() -> {
+                long now = System.currentTimeMillis();
+                for (TrendingWindow window : windows.values()) {
+                    trendingRepository.saveScores(window.getName(), window.scores(now), new Date(now));
+                }
+            });
+        } catch (RuntimeException e) {
+            //the scores are written again at the next checkpoint
+            changed.set(true);
+            log.warn("Could not checkpoint the trending scores", e);
+        }
+    }
+
+    //Writes a last checkpoint when the application stops
+    @PreDestroy
+    public void close() {
+        checkpoint();
+    }
+
+    //Adds the checkpointed scores to the windows, decayed from the time they were written
+    private void restore() {
+        int restored = 0;
+        for (Object[] row : trendingRepository.getScores()) {
+            TrendingWindow window = windows.get((String) row[0]);
+            if (window != null) {
+                window.add(((Number) row[1]).intValue(), ((Number) row[2]).doubleValue(), ((Date) row[3]).getTime());
+                restored++;
+            }
+        }
+        log.info("Restored {} trending scores", restored);
+    }
+
+    private static int pageNumber(String page) {
+        try {
+            return page == null ? 0 : Math.max(0, Integer.parseInt(page));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
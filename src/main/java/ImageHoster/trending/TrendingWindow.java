@@ -0,0 +1,170 @@
+package ImageHoster.trending;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+//The trending scores of the images over one time window, such as the last day or the last week
+//Every event (a view, a comment) adds its weight to the score of the image, and the scores decay exponentially with the half-life of the window,
+//an event counts half as much one half-life later. The decay is applied forward: an event at time t adds weight * e^(lambda * (t - landmark))
+//to the stored value, so the values of the images which get no event never have to be touched, and the order of the values is the order of
+//the decayed scores at any time. The values grow with time, they are scaled back (rebased) before they could overflow
+//At most 'capacity' images are tracked, the one with the lowest score is dropped to make room for a new one
+//The 'size' best images are kept as a snapshot which is read without locking, it is only recomputed when an event changes an image which
+//is or becomes one of them
+public class TrendingWindow {
+
+    //Exponent above which the values are rebased, e^50 is far from the range of a double
+    private static final double MAX_EXPONENT = 50;
+
+    //Ascending values, the same value by ascending id so that the newer image ranks first
+    private static final Comparator<Item> ORDER = Comparator.comparingDouble((Item item) -> item.value).thenComparingInt(item -> item.id);
+
+    private final String name;
+
+    //Decay rate per millisecond, ln 2 / half-life
+    private final double lambda;
+
+    private final int size;
+
+    private final int capacity;
+
+    //Time (ms) from which the values are counted
+    private long landmark;
+
+    private final Map<Integer, Item> items = new HashMap<>();
+
+    private final TreeSet<Item> order = new TreeSet<>(ORDER);
+
+    //Ids of the best images, best first
+    private volatile int[] top = new int[0];
+
+    //Value of the last image of the top when it is full, an image with a lower value cannot enter it
+    private double threshold;
+
+    public TrendingWindow(String name, long halfLife, int size, int capacity, long now) {
+        this.name = name;
+        this.lambda = Math.log(2) / halfLife;
+        this.size = size;
+        this.capacity = Math.max(size, capacity);
+        this.landmark = now;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    //Adds the weight of an event of the image at the given time (ms) to its score
+    //Also restores a checkpointed score: the score at the time of the checkpoint is added as an event of that time
+    public synchronized void add(int imageId, double weight, long time) {
+        rebase(time);
+        double increment = weight * Math.exp(lambda * (time - landmark));
+        Item item = items.get(imageId);
+        boolean evictedTop = false;
+        if (item == null) {
+            item = new Item(imageId, increment);
+            items.put(imageId, item);
+            order.add(item);
+            if (items.size() > capacity) {
+                Item lowest = order.pollFirst();
+                items.remove(lowest.id);
+                evictedTop = lowest.top;
+                if (lowest == item) {
+                    return;
+                }
+            }
+        } else {
+            order.remove(item);
+            item.value += increment;
+            order.add(item);
+        }
+        if (item.top || item.value >= threshold || evictedTop) {
+            refreshTop();
+        }
+    }
+
+    //Stops tracking the image, which has been deleted
+    public synchronized void remove(int imageId) {
+        Item item = items.remove(imageId);
+        if (item == null) {
+            return;
+        }
+        order.remove(item);
+        if (item.top) {
+            refreshTop();
+        }
+    }
+
+    //Returns the ids of the best images, best first, at most 'size' of them
+    //The returned array is a snapshot which is never modified
+    public int[] top() {
+        return top;
+    }
+
+    //Returns the number of images tracked
+    public synchronized int tracked() {
+        return items.size();
+    }
+
+    //Returns the decayed scores of all the tracked images at the given time (ms)
+    public synchronized Map<Integer, Double> scores(long now) {
+        double decay = Math.exp(-lambda * (now - landmark));
+        Map<Integer, Double> scores = new HashMap<>(items.size() * 4 / 3 + 1);
+        for (Item item : items.values()) {
+            scores.put(item.id, item.value * decay);
+        }
+        return scores;
+    }
+
+    private void refreshTop() {
+        for (int id : top) {
+            Item previous = items.get(id);
+            if (previous != null) {
+                previous.top = false;
+            }
+        }
+        int[] best = new int[Math.min(size, order.size())];
+        Iterator<Item> descending = order.descendingIterator();
+        Item last = null;
+        for (int i = 0; i < best.length; i++) {
+            last = descending.next();
+            last.top = true;
+            best[i] = last.id;
+        }
+        threshold = best.length < size || last == null ? 0 : last.value;
+        top = best;
+    }
+
+    //Scales the values to a landmark at the given time when the exponent of the next increment gets too large
+    //The order does not change, but the set is rebuilt because the values it is sorted by change
+    private void rebase(long time) {
+        if (lambda * (time - landmark) <= MAX_EXPONENT) {
+            return;
+        }
+        double scale = Math.exp(-lambda * (time - landmark));
+        order.clear();
+        for (Item item : items.values()) {
+            item.value *= scale;
+            order.add(item);
+        }
+        threshold *= scale;
+        landmark = time;
+    }
+
+    private static class Item {
+
+        private final int id;
+
+        private double value;
+
+        //Whether the image is in the current top
+        private boolean top;
+
+        private Item(int id, double value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package ImageHoster.upload;
+
+import ImageHoster.storage.InvalidUploadException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+//Keeps the resumable uploads which are sent in chunks, see UploadSession
+//The chunks are stored below 'imagehoster.upload.chunked.dir' until the upload is completed and its chunks are streamed into the BlobStore
+//The sessions are kept on the heap, so an upload can only be resumed on the instance where it was started and not after a restart
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    @Value("${imagehoster.upload.chunked.dir:data/chunks}")
+    private String chunkDir;
+
+    @Value("${imagehoster.upload.chunked.chunk-size:1048576}")
+    private int chunkSize;
+
+    @Value("${imagehoster.upload.chunked.max-sessions:4}")
+    private int maxSessionsPerUser;
+
+    @Value("${imagehoster.upload.chunked.expiry:86400000}")
+    private long expiry;
+
+    @Value("${imagehoster.upload.max-size:20971520}")
+    private long maxUploadSize;
+
+    private Path root;
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    //The chunks left over by a previous run can never be completed as their sessions are gone
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(chunkDir);
+        Files.createDirectories(root);
+        try (Stream<Path> leftovers = Files.list(root)) {
+            leftovers.forEach(this::deleteDirectory);
+        }
+    }
+
+    //Starts an upload of 'size' bytes for the user with corresponding id
+    //The upload is rejected right away if it is larger than the largest image accepted by ImageService.storeImageFile()
+    public UploadSession create(Integer userId, long size) throws IOException {
+        if (size <= 0) {
+            throw new InvalidUploadException("empty", "The file is empty");
+        }
+        if (size > maxUploadSize) {
+            throw new InvalidUploadException("too_large", "The image is too large, the largest allowed size is " + (maxUploadSize / (1024 * 1024)) + " MB");
+        }
+        String id = UUID.randomUUID().toString();
+        UploadSession session = new UploadSession(id, userId, size, chunkSize, root.resolve(id));
+        //the uploads of the user are counted and the new one is added under one lock, so that two concurrent creates
+        //cannot both take the last place left to the user. Removing an upload only frees a place and needs no lock
+        synchronized (sessions) {
+            long open = sessions.values().stream().filter(s -> Objects.equals(s.getUserId(), userId)).count();
+            if (open >= maxSessionsPerUser) {
+                throw new InvalidUploadException("too_many_uploads", "Too many uploads in progress, finish or cancel one of them first");
+            }
+            sessions.put(id, session);
+        }
+        try {
+            Files.createDirectories(session.getDirectory());
+        } catch (IOException | RuntimeException e) {
+            sessions.remove(id, session);
+            throw e;
+        }
+        return session;
+    }
+
+    //Returns the upload with corresponding id, or null if it does not exist, has expired or belongs to another user
+    public UploadSession get(String id, Integer userId) {
+        UploadSession session = sessions.get(id);
+        if (session == null || !Objects.equals(session.getUserId(), userId)) {
+            return null;
+        }
+        return session;
+    }
+
+    //Stores the chunk with the given index, a chunk which is sent again replaces the previous copy
+    //The chunk is written to a temporary file first and moved in place once it has the expected length,
+    //so a chunk interrupted by a dropped connection is never taken for a received one
+    public void putChunk(UploadSession session, int index, InputStream data) throws IOException {
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new InvalidUploadException("bad_chunk", "The chunk " + index + " does not exist, the upload has " + session.getChunkCount() + " chunks");
+        }
+        session.touch();
+
+        long expected = session.chunkLength(index);
+        Path tmp = Files.createTempFile(session.getDirectory(), index + "-", ".tmp");
+        try {
+            long written = 0;
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = data.read(buffer)) != -1 && written <= expected) {
+                    out.write(buffer, 0, n);
+                    written += n;
+                }
+            }
+            if (written != expected) {
+                throw new InvalidUploadException("bad_chunk", "The chunk " + index + " must have " + expected + " bytes");
+            }
+            Files.move(tmp, session.chunkPath(index), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        session.markReceived(index);
+        session.touch();
+    }
+
+    //Returns the chunks of a complete upload as one stream, the chunk files are opened one after the other
+    public InputStream open(UploadSession session) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < session.getChunkCount();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return Files.newInputStream(session.chunkPath(next++));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    //Forgets the upload and deletes its chunks, called once the upload has been completed or cancelled
+    public void delete(UploadSession session) {
+        sessions.remove(session.getId(), session);
+        deleteDirectory(session.getDirectory());
+    }
+
+    //Deletes the uploads which have not received a chunk for 'imagehoster.upload.chunked.expiry' ms
+    @Scheduled(fixedDelayString = "${imagehoster.upload.chunked.expiry-interval:600000}")
+    public void expire() {
+        long limit = System.currentTimeMillis() - expiry;
+        for (UploadSession session : sessions.values()) {
+            if (session.getLastActivity() < limit && !session.isCompleting()) {
+                log.info("Upload {} has expired, deleting its chunks", session.getId());
+                delete(session);
+            }
+        }
+    }
+
+    private void deleteDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Could not delete {}", file, e);
+                }
+            });
+        } catch (NoSuchFileException e) {
+            //already deleted
+        } catch (IOException e) {
+            log.warn("Could not delete {}", directory, e);
+        }
+    }
+}
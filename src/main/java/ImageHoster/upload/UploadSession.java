@@ -0,0 +1,109 @@
+package ImageHoster.upload;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//A resumable upload which is sent as numbered chunks of 'chunkSize' bytes, the last chunk may be shorter
+//The chunks are written to files in their own directory and may arrive in any order and in parallel
+public class UploadSession {
+
+    private final String id;
+    private final Integer userId;
+    private final long size;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final Path directory;
+
+    //Chunks which have been received completely, guarded by 'this'
+    private final BitSet received;
+
+    private final AtomicBoolean completing = new AtomicBoolean();
+
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    public UploadSession(String id, Integer userId, long size, int chunkSize, Path directory) {
+        this.id = id;
+        this.userId = userId;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        this.directory = directory;
+        this.received = new BitSet(chunkCount);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    //Number of bytes the chunk with the given index must have
+    public long chunkLength(int index) {
+        return index == chunkCount - 1 ? size - (long) index * chunkSize : chunkSize;
+    }
+
+    //File in which the chunk with the given index is stored once it has been received completely
+    public Path chunkPath(int index) {
+        return directory.resolve(index + ".part");
+    }
+
+    public synchronized void markReceived(int index) {
+        received.set(index);
+    }
+
+    //Indexes of the chunks received so far, the client sends the missing ones when it resumes the upload
+    public synchronized List<Integer> getReceivedChunks() {
+        List<Integer> chunks = new ArrayList<>(received.cardinality());
+        for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+            chunks.add(i);
+        }
+        return chunks;
+    }
+
+    public synchronized boolean isComplete() {
+        return received.cardinality() == chunkCount;
+    }
+
+    //Only one request may assemble the chunks, returns false if the upload is already being completed
+    public boolean startCompleting() {
+        return completing.compareAndSet(false, true);
+    }
+
+    //Allows the client to retry the completion after it failed for a reason which was not the fault of the upload
+    public void cancelCompleting() {
+        completing.set(false);
+    }
+
+    public boolean isCompleting() {
+        return completing.get();
+    }
+}
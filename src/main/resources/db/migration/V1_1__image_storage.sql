@@ -0,0 +1,34 @@
+-- Storage of the images outside of the database (BlobStore) and their derivatives, which the entities gained before the migrations
+-- were introduced. The images of a baselined database still have their file in imageFile, Base64ImageMigration moves them to the store
+-- at startup. Numbered 1.1 to run before V2__indexes.sql, which indexes blob_refs
+
+-- The original: key in the store, size, type and hash (ETag) of its bytes
+ALTER TABLE images ADD COLUMN image_key VARCHAR(255);
+ALTER TABLE images ADD COLUMN image_size BIGINT;
+ALTER TABLE images ADD COLUMN content_type VARCHAR(255);
+ALTER TABLE images ADD COLUMN image_hash VARCHAR(255);
+ALTER TABLE images ADD COLUMN image_width INTEGER;
+ALTER TABLE images ADD COLUMN image_height INTEGER;
+
+-- The derivatives generated by DerivativeService, the status of an image without one is taken as PENDING
+ALTER TABLE images ADD COLUMN derivative_status VARCHAR(255);
+ALTER TABLE images ADD COLUMN thumbnail_key VARCHAR(255);
+ALTER TABLE images ADD COLUMN thumbnail_width INTEGER;
+ALTER TABLE images ADD COLUMN medium_key VARCHAR(255);
+ALTER TABLE images ADD COLUMN medium_width INTEGER;
+
+-- Reference counts of the blobs of the store (BlobReferenceService), which are shared by the images with the same bytes
+CREATE TABLE blob_refs (
+    blob_key    VARCHAR(64) NOT NULL,
+    ref_count   INTEGER,
+    released_at TIMESTAMP,
+    size        BIGINT,
+    PRIMARY KEY (blob_key)
+);
+
+-- A tag is looked up by its name (TagService), two tags with the same name are merged into the oldest before the name is made unique
+-- The pairs of images_Tags which become duplicates are removed by V2__indexes.sql
+UPDATE images_Tags SET tags_id = (SELECT MIN(d.id) FROM Tags t JOIN Tags d ON d.name = t.name WHERE t.id = images_Tags.tags_id)
+WHERE tags_id IN (SELECT t.id FROM Tags t WHERE EXISTS (SELECT 1 FROM Tags d WHERE d.name = t.name AND d.id < t.id));
+DELETE FROM Tags WHERE EXISTS (SELECT 1 FROM Tags d WHERE d.name = Tags.name AND d.id < Tags.id);
+ALTER TABLE Tags ADD CONSTRAINT tags_name_key UNIQUE (name);
@@ -0,0 +1,58 @@
+-- Schema of ImageHoster as Hibernate created it (hibernate.hbm2ddl.auto=update) before the migrations were introduced, nothing more:
+-- what has been added to the entities since is added by the later scripts, which also run on the baselined databases
+-- Existing databases already have it and are baselined at this version (spring.flyway.baseline-on-migrate), the script only runs on an empty database
+-- The statements are plain SQL which Postgres and H2 (used by the integration tests) both accept
+
+CREATE SEQUENCE hibernate_sequence START WITH 1 INCREMENT BY 1;
+
+CREATE TABLE user_profile (
+    id            INTEGER NOT NULL,
+    email_address VARCHAR(255),
+    full_name     VARCHAR(255),
+    mobile_number VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE users (
+    id         INTEGER NOT NULL,
+    password   VARCHAR(255),
+    username   VARCHAR(255),
+    profile_id INTEGER,
+    PRIMARY KEY (id),
+    CONSTRAINT users_profile_id_fkey FOREIGN KEY (profile_id) REFERENCES user_profile (id)
+);
+
+CREATE TABLE images (
+    id          INTEGER NOT NULL,
+    date        TIMESTAMP,
+    description VARCHAR(255),
+    imageFile   TEXT,
+    title       VARCHAR(255),
+    user_id     INTEGER,
+    PRIMARY KEY (id),
+    CONSTRAINT images_user_id_fkey FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+CREATE TABLE Tags (
+    id   INTEGER NOT NULL,
+    name VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE images_Tags (
+    images_id INTEGER NOT NULL,
+    tags_id   INTEGER NOT NULL,
+    CONSTRAINT images_tags_images_id_fkey FOREIGN KEY (images_id) REFERENCES images (id),
+    CONSTRAINT images_tags_tags_id_fkey FOREIGN KEY (tags_id) REFERENCES Tags (id)
+);
+
+CREATE TABLE comments (
+    id       INTEGER NOT NULL,
+    date     TIMESTAMP,
+    text     VARCHAR(255),
+    image_id INTEGER,
+    user_id  INTEGER,
+    PRIMARY KEY (id),
+    CONSTRAINT comments_image_id_fkey FOREIGN KEY (image_id) REFERENCES images (id),
+    CONSTRAINT comments_user_id_fkey FOREIGN KEY (user_id) REFERENCES users (id)
+);
@@ -0,0 +1,32 @@
+-- Indexes of the lookups of the repositories, which were sequential scans while Hibernate managed the schema
+-- Postgres builds each index under a lock which blocks the writes of its table, run the migration of a large database in a quiet hour
+
+-- Login (UserRepository.checkUser). Not unique: the registration has never rejected a taken username, existing databases may have duplicates
+CREATE INDEX IF NOT EXISTS users_username_idx ON users (username);
+
+-- The feed is ordered by date and id and continues after the last card of the previous page (ImageRepository.getImageCards)
+-- Postgres reads the index backwards for the descending order
+CREATE INDEX IF NOT EXISTS images_date_id_idx ON images (date, id);
+
+-- The images of a user (gallery, deletion of the user)
+CREATE INDEX IF NOT EXISTS images_user_id_idx ON images (user_id);
+
+-- The comments of an image in the order they were written (CommentRepository.getComments)
+CREATE INDEX IF NOT EXISTS comments_image_id_id_idx ON comments (image_id, id);
+
+-- The comments of a user (deletion of the user)
+CREATE INDEX IF NOT EXISTS comments_user_id_idx ON comments (user_id);
+
+-- The key of the join table is the pair of image and tag. Hibernate created the table without a key, a pair which was
+-- inserted twice is kept once before the key is added
+CREATE TABLE images_Tags_distinct AS SELECT DISTINCT images_id, tags_id FROM images_Tags;
+DELETE FROM images_Tags;
+INSERT INTO images_Tags (images_id, tags_id) SELECT images_id, tags_id FROM images_Tags_distinct;
+DROP TABLE images_Tags_distinct;
+ALTER TABLE images_Tags ADD CONSTRAINT images_tags_pkey PRIMARY KEY (images_id, tags_id);
+
+-- The primary key serves the tags of an image, this index the images of a tag
+CREATE INDEX IF NOT EXISTS images_tags_tags_id_idx ON images_Tags (tags_id);
+
+-- The blobs released before a given time (BlobReferenceRepository, garbage collection of the storage)
+CREATE INDEX IF NOT EXISTS blob_refs_released_at_idx ON blob_refs (released_at);
@@ -0,0 +1,18 @@
+-- Counters of the comments and tags of each image and the time of its last activity (posted, edited or commented)
+-- The gallery shows and sorts by them without aggregating the comments and images_Tags tables
+-- They are kept up to date by the statements which add comments and change tags (ImageRepository, CommentRepository)
+-- and repaired by ImageService.reconcileCounters() if they drift
+
+ALTER TABLE images ADD COLUMN comment_count INTEGER DEFAULT 0 NOT NULL;
+ALTER TABLE images ADD COLUMN tag_count INTEGER DEFAULT 0 NOT NULL;
+ALTER TABLE images ADD COLUMN last_activity TIMESTAMP;
+
+UPDATE images SET
+    comment_count = (SELECT COUNT(*) FROM comments c WHERE c.image_id = images.id),
+    tag_count = (SELECT COUNT(*) FROM images_Tags t WHERE t.images_id = images.id),
+    last_activity = COALESCE((SELECT MAX(c.date) FROM comments c WHERE c.image_id = images.id), date);
+-- An image edited after its last comment was active when it was edited
+UPDATE images SET last_activity = date WHERE last_activity < date;
+
+-- The gallery of the most recently active images, ordered by (last_activity, id) like the feed by (date, id)
+CREATE INDEX images_last_activity_id_idx ON images (last_activity, id);
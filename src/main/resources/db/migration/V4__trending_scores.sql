@@ -0,0 +1,11 @@
+-- Checkpoint of the trending scores held in memory by TrendingService, one row per image of each time window ('day', 'week')
+-- The score is the decayed score at updated_at, it is decayed further from there when the scores are restored at startup
+-- The table is rewritten window by window at every checkpoint, a deleted image is dropped from it at the next one, so there is no foreign key
+
+CREATE TABLE trending_scores (
+    time_window VARCHAR(16) NOT NULL,
+    image_id INTEGER NOT NULL,
+    score DOUBLE PRECISION NOT NULL,
+    updated_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (time_window, image_id)
+);
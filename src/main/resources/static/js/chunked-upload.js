@@ -0,0 +1,151 @@
+// Resumable upload of large images for the upload form (images/upload.html)
+// Files larger than one chunk are sent in chunks to /images/uploads (see ChunkedUploadController) instead of posting the form,
+// several chunks at a time, and a failed chunk is sent again. The id of the upload is kept in localStorage, so when the same
+// file is chosen again after the connection or the browser was lost only the chunks the server does not have yet are sent
+// Without fetch the form is posted as before
+(function () {
+    var form = document.getElementById('upload-form');
+    var fileInput = document.getElementById('file');
+    if (!form || !fileInput || !window.fetch || !window.URLSearchParams) {
+        return;
+    }
+
+    var PARALLEL_CHUNKS = 3;
+    var RETRIES = 3;
+    var progress = document.getElementById('upload-progress');
+    var errorBox = document.getElementById('upload-error');
+    var uploading = false;
+
+    form.addEventListener('submit', function (event) {
+        var file = fileInput.files[0];
+        if (!file || file.size <= Number(form.getAttribute('data-chunk-threshold')) || uploading) {
+            return;
+        }
+        event.preventDefault();
+        uploading = true;
+        upload(file)
+            .then(function (result) {
+                window.location.href = result.location;
+            })
+            .catch(function (error) {
+                uploading = false;
+                showError(error.message || 'The upload failed, submit the form again to resume it');
+            });
+    });
+
+    function upload(file) {
+        var storageKey = 'chunked-upload:' + file.name + ':' + file.size + ':' + file.lastModified;
+        return resume(storageKey, file)
+            .then(function (session) {
+                localStorage.setItem(storageKey, session.uploadId);
+                return sendChunks(file, session).then(function () {
+                    return complete(session);
+                });
+            })
+            .then(function (result) {
+                localStorage.removeItem(storageKey);
+                return result;
+            });
+    }
+
+    // continues the upload of the same file if the server still has it, otherwise starts a new one
+    function resume(storageKey, file) {
+        var uploadId = localStorage.getItem(storageKey);
+        var existing = uploadId
+            ? request('GET', '/images/uploads/' + encodeURIComponent(uploadId)).catch(function () {
+                return null;
+            })
+            : Promise.resolve(null);
+        return existing.then(function (session) {
+            return session || request('POST', '/images/uploads?size=' + file.size);
+        });
+    }
+
+    function sendChunks(file, session) {
+        var pending = [];
+        for (var i = 0; i < session.chunkCount; i++) {
+            if (session.received.indexOf(i) < 0) {
+                pending.push(i);
+            }
+        }
+        var done = session.chunkCount - pending.length;
+        showProgress(done, session.chunkCount);
+
+        function worker() {
+            var index = pending.shift();
+            if (index === undefined) {
+                return Promise.resolve();
+            }
+            var start = index * session.chunkSize;
+            var chunk = file.slice(start, Math.min(start + session.chunkSize, file.size));
+            return sendChunk(session, index, chunk, RETRIES).then(function () {
+                showProgress(++done, session.chunkCount);
+                return worker();
+            });
+        }
+
+        var workers = [];
+        for (var w = 0; w < PARALLEL_CHUNKS; w++) {
+            workers.push(worker());
+        }
+        return Promise.all(workers);
+    }
+
+    function sendChunk(session, index, chunk, retries) {
+        var url = '/images/uploads/' + encodeURIComponent(session.uploadId) + '/chunks/' + index;
+        return request('PUT', url, chunk).catch(function (error) {
+            if (retries <= 0 || error.status === 404) {
+                throw error;
+            }
+            return delay((RETRIES - retries + 1) * 1000).then(function () {
+                return sendChunk(session, index, chunk, retries - 1);
+            });
+        });
+    }
+
+    function complete(session) {
+        var params = new URLSearchParams();
+        params.append('title', form.elements.title.value);
+        params.append('description', form.elements.description.value);
+        params.append('tags', form.elements.tags.value);
+        return request('POST', '/images/uploads/' + encodeURIComponent(session.uploadId) + '/complete', params);
+    }
+
+    function request(method, url, body) {
+        return fetch(url, {method: method, body: body, credentials: 'same-origin'}).then(function (response) {
+            if (response.status === 204) {
+                return null;
+            }
+            return response.json().catch(function () {
+                return {};
+            }).then(function (json) {
+                if (!response.ok) {
+                    var error = new Error(json.error || 'The upload failed, submit the form again to resume it');
+                    error.status = response.status;
+                    throw error;
+                }
+                return json;
+            });
+        });
+    }
+
+    function delay(ms) {
+        return new Promise(function (resolve) {
+            setTimeout(resolve, ms);
+        });
+    }
+
+    function showProgress(done, total) {
+        if (progress) {
+            progress.hidden = false;
+            progress.max = total;
+            progress.value = done;
+        }
+    }
+
+    function showError(message) {
+        if (errorBox) {
+            errorBox.textContent = message;
+        }
+    }
+})();
@@ -0,0 +1,75 @@
+// Comments of the image page (images/image.html)
+// The page renders the newest comments followed by an 'older comments' link (a.more-comments) which works without JavaScript
+// A click on the link fetches the older comments and appends them below the ones shown, the link then points to the page after them
+// The comments posted while the page is open arrive as 'comment' events on the stream of data-stream and are added on top
+(function () {
+    var comments = document.getElementById('comments');
+    if (!comments) {
+        return;
+    }
+
+    function shown(id) {
+        return comments.querySelector('article[data-id="' + id + '"]') !== null;
+    }
+
+    if (window.fetch && window.DOMParser) {
+        comments.addEventListener('click', function (event) {
+            var more = event.target.closest ? event.target.closest('a.more-comments') : null;
+            if (!more) {
+                return;
+            }
+            event.preventDefault();
+            fetch(more.href, {credentials: 'same-origin'})
+                .then(function (response) {
+                    return response.text();
+                })
+                .then(function (html) {
+                    var page = new DOMParser().parseFromString(html, 'text/html');
+                    var articles = page.querySelectorAll('article');
+                    for (var i = 0; i < articles.length; i++) {
+                        // a comment streamed in can be older than the cursor of the page when other comments came with it
+                        if (!shown(articles[i].getAttribute('data-id'))) {
+                            comments.insertBefore(document.importNode(articles[i], true), more);
+                        }
+                    }
+                    var following = page.querySelector('a.more-comments');
+                    if (following) {
+                        more.href = following.href;
+                    } else {
+                        more.parentNode.removeChild(more);
+                    }
+                })
+                .catch(function () {
+                    // follow the plain link instead
+                    window.location.href = more.href;
+                });
+        });
+    }
+
+    var stream = comments.getAttribute('data-stream');
+    if (!stream || !window.EventSource) {
+        return;
+    }
+    // EventSource reconnects by itself when the server closes the stream
+    new EventSource(stream).addEventListener('comment', function (event) {
+        var comment = JSON.parse(event.data);
+        if (shown(comment.id)) {
+            return;
+        }
+        var article = document.createElement('article');
+        article.className = 'ba b--black-10 mv4';
+        article.setAttribute('data-id', comment.id);
+        var title = document.createElement('h1');
+        title.className = 'f4 bg-light-gray black-80 mv0 pv2 ph3';
+        title.textContent = comment.user + ' says';
+        var body = document.createElement('div');
+        body.className = 'pa3 bt b--black-10';
+        var text = document.createElement('p');
+        text.className = 'f6 f5-ns lh-copy measure';
+        text.textContent = comment.text;
+        body.appendChild(text);
+        article.appendChild(title);
+        article.appendChild(body);
+        comments.insertBefore(article, comments.firstChild);
+    });
+})();
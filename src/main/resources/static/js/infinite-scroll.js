@@ -0,0 +1,42 @@
+// Infinite scroll for the image galleries (index.html and images.html)
+// The galleries render one page of images followed by a 'next page' link (a.next-page) which works without JavaScript
+// When the link scrolls into view the next page is fetched, its posts are appended to #images and the link is moved to the page after it
+(function () {
+    var next = document.querySelector('a.next-page');
+    var gallery = document.getElementById('images');
+    if (!next || !gallery || !('IntersectionObserver' in window) || !window.fetch) {
+        return;
+    }
+
+    var loading = false;
+    var observer = new IntersectionObserver(function (entries) {
+        if (!entries[0].isIntersecting || loading) {
+            return;
+        }
+        loading = true;
+        fetch(next.href, {credentials: 'same-origin'})
+            .then(function (response) {
+                return response.text();
+            })
+            .then(function (html) {
+                var page = new DOMParser().parseFromString(html, 'text/html');
+                var posts = page.querySelectorAll('#images post');
+                for (var i = 0; i < posts.length; i++) {
+                    gallery.appendChild(document.importNode(posts[i], true));
+                }
+                var following = page.querySelector('a.next-page');
+                if (following) {
+                    next.href = following.href;
+                } else {
+                    observer.disconnect();
+                    next.parentNode.removeChild(next);
+                }
+                loading = false;
+            })
+            .catch(function () {
+                // keep the plain link, the user can still follow it
+                observer.disconnect();
+            });
+    }, {rootMargin: '400px'});
+    observer.observe(next);
+})();
@@ -0,0 +1,61 @@
+package ImageHoster.config;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.servlet.FilterChain;
+
+import static org.junit.Assert.*;
+
+public class EntityManagerLeakDetectorTest {
+
+    //This test checks that a request which closes its EntityManagers passes the detector
+    @Test
+    public void closedEntityManagerPasses() throws Exception {
+        EntityManagerLeakDetector detector = new EntityManagerLeakDetector(EntityManagerLeakDetector.Mode.FAIL, 60000);
+        EntityManagerFactory emf = detector.track(factory());
+
+        detector.doFilter(new MockHttpServletRequest("GET", "/images"), new MockHttpServletResponse(),
+                (request, response) -> emf.createEntityManager().close());
+
+        assertEquals(0, detector.getOpenCount());
+    }
+
+    //This test checks that a request which does not close an EntityManager fails when the detector is in 'fail' mode
+    @Test
+    public void leakedEntityManagerFailsRequest() throws Exception {
+        EntityManagerLeakDetector detector = new EntityManagerLeakDetector(EntityManagerLeakDetector.Mode.FAIL, 60000);
+        EntityManagerFactory emf = detector.track(factory());
+        FilterChain leakingChain = (request, response) -> emf.createEntityManager();
+
+        try {
+            detector.doFilter(new MockHttpServletRequest("GET", "/images"), new MockHttpServletResponse(), leakingChain);
+            fail("The leaked EntityManager was not detected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("/images"));
+        }
+        assertEquals(1, detector.getOpenCount());
+    }
+
+    //This test checks that a leak is only logged when the detector is in 'log' mode
+    @Test
+    public void leakedEntityManagerIsLogged() throws Exception {
+        EntityManagerLeakDetector detector = new EntityManagerLeakDetector(EntityManagerLeakDetector.Mode.LOG, 60000);
+        EntityManagerFactory emf = detector.track(factory());
+
+        detector.doFilter(new MockHttpServletRequest("GET", "/images"), new MockHttpServletResponse(),
+                (request, response) -> emf.createEntityManager());
+
+        assertEquals(1, detector.getOpenCount());
+    }
+
+    private EntityManagerFactory factory() {
+        EntityManagerFactory emf = Mockito.mock(EntityManagerFactory.class);
+        Mockito.when(emf.createEntityManager()).thenAnswer(invocation -> Mockito.mock(EntityManager.class));
+        return emf;
+    }
+}
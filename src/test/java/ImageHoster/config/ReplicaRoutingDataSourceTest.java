@@ -0,0 +1,126 @@
+package ImageHoster.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+//The primary and the replica are two embedded databases which know their own name, so that a query tells where it was sent
+public class ReplicaRoutingDataSourceTest {
+
+    private static final long TOLERANCE = 5000;
+
+    private HikariDataSource primary;
+
+    private HikariDataSource replica;
+
+    @Before
+    public void setUp() throws SQLException {
+        primary = database("primary");
+        replica = database("replica");
+    }
+
+    @After
+    public void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+        ReplicaRoutingDataSource.setLastWrite(null);
+        primary.close();
+        replica.close();
+    }
+
+    //This test checks that the read-only operations go to the replica and all the others to the primary
+    @Test
+    public void readOnlyOperationsGoToReplica() throws SQLException {
+        ReplicaRoutingDataSource dataSource = routing("");
+
+        assertEquals("primary", name(dataSource));
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertEquals("replica", name(dataSource));
+    }
+
+    //This test checks that the thread which has written reads from the primary until the replicas had the time to catch up
+    @Test
+    public void readsAfterWriteGoToPrimary() throws SQLException {
+        ReplicaRoutingDataSource dataSource = routing("");
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        assertEquals("primary", name(dataSource));
+        assertNotNull(ReplicaRoutingDataSource.getLastWrite());
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertEquals("primary", name(dataSource));
+
+        ReplicaRoutingDataSource.setLastWrite(System.currentTimeMillis() - TOLERANCE - 1);
+        assertEquals("replica", name(dataSource));
+    }
+
+    //This test checks that a replica which is too far behind is not used
+    @Test
+    public void laggingReplicaIsSkipped() throws SQLException {
+        ReplicaRoutingDataSource dataSource = routing("SELECT " + (TOLERANCE + 1));
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        dataSource.check();
+
+        assertEquals("primary", name(dataSource));
+    }
+
+    //This test checks that the filter keeps the last write of a request in the session and restores it for the next request
+    @Test
+    public void lastWriteIsKeptInSession() throws Exception {
+        ReadYourWritesFilter filter = new ReadYourWritesFilter();
+        MockHttpSession session = new MockHttpSession();
+
+        MockHttpServletRequest post = new MockHttpServletRequest("POST", "/images/upload");
+        post.setSession(session);
+        filter.doFilter(post, new MockHttpServletResponse(), (request, response) -> ReplicaRoutingDataSource.setLastWrite(42L));
+        assertNull(ReplicaRoutingDataSource.getLastWrite());
+        assertEquals(42L, session.getAttribute(ReadYourWritesFilter.LAST_WRITE));
+
+        MockHttpServletRequest get = new MockHttpServletRequest("GET", "/images");
+        get.setSession(session);
+        Long[] seen = new Long[1];
+        filter.doFilter(get, new MockHttpServletResponse(), (request, response) -> seen[0] = ReplicaRoutingDataSource.getLastWrite());
+        assertEquals(Long.valueOf(42L), seen[0]);
+    }
+
+    private ReplicaRoutingDataSource routing(String lagQuery) {
+        return new ReplicaRoutingDataSource(primary, Collections.singletonList(replica), TOLERANCE, lagQuery, new SimpleMeterRegistry());
+    }
+
+    private HikariDataSource database(String name) throws SQLException {
+        HikariDataSource ds = new HikariDataSource();
+        ds.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        ds.setPoolName(name);
+        try (Connection connection = ds.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS Marker (name VARCHAR(16))");
+            statement.execute("DELETE FROM Marker");
+            statement.execute("INSERT INTO Marker VALUES ('" + name + "')");
+        }
+        return ds;
+    }
+
+    private String name(ReplicaRoutingDataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT name FROM Marker")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.StorageReport;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.service.BlobReferenceService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(AdminController.class)
+public class AdminControllerTest {
+
+    protected MockHttpSession session;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private BlobReferenceService blobReferenceService;
+
+    //This test checks the controller logic when an admin requests the storage report and checks whether the dedup ratio and the bytes saved are shown
+    @Test
+    public void storageReportWithAdmin() throws Exception {
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user("admin"));
+
+        Mockito.when(blobReferenceService.getReport()).thenReturn(new StorageReport(2, 6, 3000, 9000));
+
+        this.mockMvc.perform(get("/admin/storage").session(session))
+                .andExpect(view().name("admin/storage"))
+                .andExpect(content().string(containsString("6,000")))
+                .andExpect(content().string(containsString("3.00 : 1")));
+    }
+
+    //This test checks the controller logic when a user who is not an admin requests the storage report and checks whether 403 Forbidden is returned
+    @Test
+    public void storageReportWithNonAdmin() throws Exception {
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user("Abhi"));
+
+        this.mockMvc.perform(get("/admin/storage").session(session))
+                .andExpect(status().isForbidden());
+    }
+
+    private User user(String username) {
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setId(1);
+        userProfile.setFullName("Abhi Mahajan");
+        user.setProfile(userProfile);
+        user.setId(1);
+        user.setUsername(username);
+        user.setPassword("password1@");
+        return user;
+    }
+}
@@ -0,0 +1,164 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.TagService;
+import ImageHoster.storage.InvalidUploadException;
+import ImageHoster.upload.ChunkedUploadService;
+import ImageHoster.upload.UploadSession;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Paths;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(ChunkedUploadController.class)
+public class ChunkedUploadControllerTest {
+
+    protected MockHttpSession session;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ChunkedUploadService chunkedUploadService;
+
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private TagService tagService;
+
+    //This test checks the controller logic when the user starts a chunked upload and checks whether the id, the chunk size and the number of chunks are returned
+    @Test
+    public void createUpload() throws Exception {
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user());
+
+        Mockito.when(chunkedUploadService.create(1, 2500)).thenReturn(new UploadSession("abc", 1, 2500, 1000, Paths.get("abc")));
+
+        this.mockMvc.perform(post("/images/uploads").param("size", "2500").session(session))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Location", "/images/uploads/abc"))
+                .andExpect(jsonPath("$.uploadId").value("abc"))
+                .andExpect(jsonPath("$.chunkSize").value(1000))
+                .andExpect(jsonPath("$.chunkCount").value(3));
+    }
+
+    //This test checks the controller logic when the user starts a chunked upload of a file which is too large and checks whether 413 is returned
+    @Test
+    public void createUploadTooLarge() throws Exception {
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user());
+
+        Mockito.when(chunkedUploadService.create(1, 999999999))
+                .thenThrow(new InvalidUploadException("too_large", "The image is too large"));
+
+        this.mockMvc.perform(post("/images/uploads").param("size", "999999999").session(session))
+                .andExpect(status().isPayloadTooLarge())
+                .andExpect(jsonPath("$.error").value("The image is too large"));
+    }
+
+    //This test checks that an upload cannot be started without a logged in user, the request is answered with 401 instead of failing
+    @Test
+    public void createUploadWithoutUser() throws Exception {
+        this.mockMvc.perform(post("/images/uploads").param("size", "2500"))
+                .andExpect(status().isUnauthorized());
+        Mockito.verify(chunkedUploadService, Mockito.never()).create(Mockito.any(), Mockito.anyLong());
+    }
+
+    //This test checks the controller logic when the user sends a chunk of an upload and checks whether the chunk is stored
+    @Test
+    public void putChunk() throws Exception {
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user());
+
+        UploadSession upload = new UploadSession("abc", 1, 2500, 1000, Paths.get("abc"));
+        Mockito.when(chunkedUploadService.get("abc", 1)).thenReturn(upload);
+
+        this.mockMvc.perform(put("/images/uploads/abc/chunks/1").content(new byte[1000]).session(session))
+                .andExpect(status().isNoContent());
+        Mockito.verify(chunkedUploadService).putChunk(Mockito.eq(upload), Mockito.eq(1), Mockito.any());
+    }
+
+    //This test checks the controller logic when the user sends a chunk of an upload of another user and checks whether 404 is returned
+    @Test
+    public void putChunkOfOtherUser() throws Exception {
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user());
+
+        this.mockMvc.perform(put("/images/uploads/xyz/chunks/0").content(new byte[1000]).session(session))
+                .andExpect(status().isNotFound());
+    }
+
+    //This test checks the controller logic when the user completes an upload before all the chunks are received and checks whether 409 is returned with the received chunks
+    @Test
+    public void completeUploadWithMissingChunks() throws Exception {
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user());
+
+        UploadSession upload = new UploadSession("abc", 1, 2500, 1000, Paths.get("abc"));
+        upload.markReceived(0);
+        upload.markReceived(2);
+        Mockito.when(chunkedUploadService.get("abc", 1)).thenReturn(upload);
+
+        this.mockMvc.perform(post("/images/uploads/abc/complete").param("title", "new").param("tags", "dog").session(session))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.received[0]").value(0))
+                .andExpect(jsonPath("$.received[1]").value(2));
+        Mockito.verify(imageService, Mockito.never()).uploadImage(Mockito.any());
+    }
+
+    //This test checks the controller logic when the user completes an upload and checks whether the image is stored and its URL is returned
+    @Test
+    public void completeUpload() throws Exception {
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user());
+
+        UploadSession upload = new UploadSession("abc", 1, 2500, 1000, Paths.get("abc"));
+        upload.markReceived(0);
+        upload.markReceived(1);
+        upload.markReceived(2);
+        Mockito.when(chunkedUploadService.get("abc", 1)).thenReturn(upload);
+        Mockito.when(chunkedUploadService.open(upload)).thenReturn(new ByteArrayInputStream(new byte[2500]));
+        Mockito.doAnswer(invocation -> {
+            ((Image) invocation.getArgument(0)).setId(7);
+            return null;
+        }).when(imageService).uploadImage(Mockito.any());
+
+        this.mockMvc.perform(post("/images/uploads/abc/complete").param("title", "new").param("tags", "dog").session(session))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imageId").value(7))
+                .andExpect(jsonPath("$.location").value("/images/7/new"));
+        Mockito.verify(imageService).storeImageFile(Mockito.any(), Mockito.any());
+        Mockito.verify(tagService).findOrCreateTags("dog");
+        Mockito.verify(chunkedUploadService).delete(upload);
+    }
+
+    private User user() {
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setId(1);
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        user.setProfile(userProfile);
+        user.setId(1);
+        user.setUsername("Abhi");
+        user.setPassword("password1@");
+        return user;
+    }
+}
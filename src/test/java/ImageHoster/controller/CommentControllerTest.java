@@ -1,13 +1,16 @@
 package ImageHoster.controller;
 
 
-import ImageHoster.model.Image;
+import ImageHoster.model.Comment;
+import ImageHoster.model.CommentPage;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
+import ImageHoster.service.CommentHub;
 import ImageHoster.service.CommentService;
-import ImageHoster.service.ImageService;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
@@ -15,9 +18,18 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
 @WebMvcTest(CommentController.class)
@@ -31,7 +43,7 @@ public class CommentControllerTest {
     private CommentService commentService;
 
     @MockBean
-    private ImageService imageService;
+    private CommentHub commentHub;
 
     //This test checks controller logic for comment and checks whether the controller logic redirects to the request handling method with request mapping of type "/images/{imageId}/{title}"
     @Test
@@ -50,17 +62,69 @@ public class CommentControllerTest {
         session = new MockHttpSession();
         session.setAttribute("loggeduser", user);
 
-
-        Image image = new Image();
-        image.setId(1);
-        image.setTitle("new");
-        image.setDescription("This image is for testing purpose");
-
-        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(commentService.createComment(Mockito.eq(1), Mockito.any(Comment.class))).thenReturn(true);
 
         this.mockMvc.perform(post("/image/1/new/comments")
-                .param("comment", "This comment is for testing purpose")
+                .param("text", "This comment is for testing purpose")
                 .session(session))
                 .andExpect(redirectedUrl("/images/1/new"));
+
+        ArgumentCaptor<Comment> comment = ArgumentCaptor.forClass(Comment.class);
+        Mockito.verify(commentService).createComment(Mockito.eq(1), comment.capture());
+        Assert.assertEquals("This comment is for testing purpose", comment.getValue().getText());
+        Assert.assertSame(user, comment.getValue().getUser());
+        //the id of the image in the path must not become the id of the comment
+        Assert.assertNull(comment.getValue().getId());
+    }
+
+    //This test checks that a comment on an image which does not exist is answered with 404 Not Found
+    @Test
+    public void createCommentOnMissingImage() throws Exception {
+        User user = new User();
+        user.setId(1);
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        Mockito.when(commentService.createComment(Mockito.eq(2), Mockito.any(Comment.class))).thenReturn(false);
+
+        this.mockMvc.perform(post("/image/2/gone/comments")
+                .param("text", "Too late")
+                .session(session))
+                .andExpect(status().isNotFound());
+    }
+
+    //This test checks that a page of older comments is rendered alone, with the link to the page after it
+    @Test
+    public void getOlderComments() throws Exception {
+        User user = new User();
+        user.setUsername("Abhi");
+        Comment newer = new Comment();
+        newer.setId(9);
+        newer.setText("Second comment");
+        newer.setUser(user);
+        Comment older = new Comment();
+        older.setId(8);
+        older.setText("First comment");
+        older.setUser(user);
+
+        Mockito.when(commentService.getCommentPage(1, 10)).thenReturn(new CommentPage(Arrays.asList(newer, older), 8));
+
+        this.mockMvc.perform(get("/image/1/comments").param("before", "10"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("Second comment")))
+                .andExpect(content().string(containsString("/image/1/comments?before=8")))
+                .andExpect(content().string(not(containsString("<html"))));
+    }
+
+    //This test checks that the stream of new comments is opened, and refused with 503 Service Unavailable when the hub or the client is full
+    @Test
+    public void streamComments() throws Exception {
+        Mockito.when(commentHub.subscribe(1, "127.0.0.1")).thenReturn(new SseEmitter());
+        this.mockMvc.perform(get("/image/1/comments/stream"))
+                .andExpect(request().asyncStarted());
+
+        Mockito.when(commentHub.subscribe(2, "127.0.0.1")).thenReturn(null);
+        this.mockMvc.perform(get("/image/2/comments/stream"))
+                .andExpect(status().isServiceUnavailable());
     }
 }
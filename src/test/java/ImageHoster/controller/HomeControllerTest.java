@@ -1,8 +1,12 @@
 package ImageHoster.controller;
 
+import ImageHoster.model.ImageCard;
+import ImageHoster.model.ImagePage;
 import ImageHoster.service.ImageService;
+import ImageHoster.trending.TrendingService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
@@ -10,9 +14,13 @@ import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.Collections;
+import java.util.Date;
+
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
 
 @RunWith(SpringRunner.class)
@@ -27,11 +35,45 @@ public class HomeControllerTest {
     @MockBean
     private ImageService imageService;
 
+    @MockBean
+    private TrendingService trendingService;
+
     //This test checks the controller logic when the user sends the GET request to get all images in the application and checks whether the logic returns the html file 'index.html'
     @Test
     public void getAllImages() throws Exception {
+        Mockito.when(imageService.getImageFeed(Mockito.any())).thenReturn(ImagePage.empty());
+
         this.mockMvc.perform(get("/"))
                 .andExpect(view().name("index"))
                 .andExpect(content().string(containsString("Image Hoster")));
     }
+
+
+    //This test checks the controller logic when the feed has more than one page and checks whether the page links to the next page with its cursor
+    @Test
+    public void getAllImagesWithNextPage() throws Exception {
+        ImageCard card = new ImageCard(7, "new", new Date(1000L), "hash", null, null, null, null, null, null, 3, 2, new Date(1500L));
+        Mockito.when(imageService.getImageFeed("2000.9")).thenReturn(new ImagePage(Collections.singletonList(card), "1000.7"));
+
+        this.mockMvc.perform(get("/").param("after", "2000.9"))
+                .andExpect(view().name("index"))
+                .andExpect(model().attribute("nextPage", "1000.7"))
+                .andExpect(content().string(containsString("/?after=1000.7")))
+                .andExpect(content().string(containsString("/images/7/raw?v=hash")))
+                .andExpect(content().string(containsString("3 comments, 2 tags")));
+    }
+
+    //This test checks the controller logic when the user asks for the trending feed of the week and checks whether the next page link keeps the sort and the window
+    @Test
+    public void getTrendingImages() throws Exception {
+        ImageCard card = new ImageCard(7, "hot", new Date(1000L), "hash", null, null, null, null, null, null, 9, 0, new Date(1500L));
+        Mockito.when(trendingService.getTrendingFeed("week", "1")).thenReturn(new ImagePage(Collections.singletonList(card), "2"));
+
+        this.mockMvc.perform(get("/").param("sort", "trending").param("window", "week").param("after", "1"))
+                .andExpect(view().name("index"))
+                .andExpect(model().attribute("window", "week"))
+                .andExpect(content().string(containsString("/?sort=trending&amp;window=week&amp;after=2")))
+                .andExpect(content().string(containsString("/images/7/raw?v=hash")));
+        Mockito.verify(imageService, Mockito.never()).getImageFeed(Mockito.any());
+    }
 }
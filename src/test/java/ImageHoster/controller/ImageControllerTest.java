@@ -1,24 +1,42 @@
 package ImageHoster.controller;
 
+import ImageHoster.derivative.DerivativeSize;
+import ImageHoster.derivative.Variant;
+import ImageHoster.derivative.VariantBusyException;
+import ImageHoster.derivative.VariantFormat;
+import ImageHoster.derivative.VariantQuality;
+import ImageHoster.derivative.VariantService;
+import ImageHoster.model.Comment;
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageCard;
+import ImageHoster.model.CommentPage;
+import ImageHoster.model.ImageDetail;
+import ImageHoster.model.ImagePage;
 import ImageHoster.model.Tag;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
 import ImageHoster.service.CommentService;
 import ImageHoster.service.ImageService;
 import ImageHoster.service.TagService;
+import ImageHoster.service.UserService;
+import ImageHoster.storage.InvalidUploadException;
+import ImageHoster.trending.TrendingService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.mock.web.MockHttpSession;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.containsString;
@@ -43,6 +61,15 @@ public class ImageControllerTest {
     @MockBean
     private CommentService commentService;
 
+    @MockBean
+    private VariantService variantService;
+
+    @MockBean
+    private TrendingService trendingService;
+
+    @MockBean
+    private UserService userService;
+
     //This test checks the controller logic to get all the images after the user is logged in the application and checks whether the logic returns the html file 'images.html'
     @Test
     public void getUserImages() throws Exception {
@@ -60,12 +87,68 @@ public class ImageControllerTest {
         session = new MockHttpSession();
         session.setAttribute("loggeduser", user);
 
+        Mockito.when(imageService.getImageFeed(Mockito.any())).thenReturn(ImagePage.empty());
+
         this.mockMvc.perform(get("/images").session(session))
                 .andExpect(view().name("images"))
                 .andExpect(content().string(containsString("Welcome User. These are the images")));
     }
 
 
+    //This test checks the controller logic when the gallery of a user is requested and checks whether the next page stays in that gallery
+    @Test
+    public void getImagesOfUser() throws Exception {
+        ImageCard card = new ImageCard(7, "mine", new Date(1000L), "hash", null, null, null, null, null, null, 0, 0, new Date(1000L));
+        Mockito.when(userService.getUserId("Abhi")).thenReturn(3);
+        Mockito.when(imageService.getUserImageFeed(3, "9")).thenReturn(new ImagePage(Collections.singletonList(card), "7"));
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setFullName("Abhi Mahajan");
+        user.setProfile(userProfile);
+        user.setUsername("Abhi");
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        this.mockMvc.perform(get("/users/Abhi/images").param("after", "9").session(session))
+                .andExpect(view().name("images"))
+                .andExpect(model().attribute("owner", "Abhi"))
+                .andExpect(content().string(containsString("Images of Abhi")))
+                .andExpect(content().string(containsString("/users/Abhi/images?after=7")));
+    }
+
+    //This test checks the controller logic when the gallery of an unknown user is requested and checks whether it answers 404
+    @Test
+    public void getImagesOfUnknownUser() throws Exception {
+        Mockito.when(userService.getUserId("nobody")).thenReturn(null);
+
+        this.mockMvc.perform(get("/users/nobody/images"))
+                .andExpect(status().isNotFound());
+        Mockito.verify(imageService, Mockito.never()).getUserImageFeed(Mockito.any(), Mockito.any());
+    }
+
+    //This test checks the controller logic when the logged in user asks for the most recently active images and checks whether the next page keeps the order
+    @Test
+    public void getActiveUserImages() throws Exception {
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setFullName("Abhi Mahajan");
+        user.setProfile(userProfile);
+        user.setUsername("Abhi");
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        ImageCard card = new ImageCard(7, "new", new Date(1000L), "hash", null, null, null, null, null, null, 5, 1, new Date(3000L));
+        Mockito.when(imageService.getActiveImageFeed(null)).thenReturn(new ImagePage(Collections.singletonList(card), "3000.7"));
+
+        this.mockMvc.perform(get("/images").param("sort", "active").session(session))
+                .andExpect(view().name("images"))
+                .andExpect(model().attribute("sort", "active"))
+                .andExpect(content().string(containsString("5 comments, 1 tags")))
+                .andExpect(content().string(containsString("/images?after=3000.7&amp;sort=active")));
+        Mockito.verify(imageService, Mockito.never()).getImageFeed(Mockito.any());
+    }
+
+
     //This test checks the controller logic when the logged in user sends the GET request to the server to get the details of a particular image and checks whether the logic returns the html file 'images/image.html'
     @Test
     public void showImage() throws Exception {
@@ -89,15 +172,118 @@ public class ImageControllerTest {
         image.setDescription("This image is for testing purpose");
         image.setUser(user);
 
-        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Comment comment = new Comment();
+        comment.setText("Nice picture");
+        comment.setUser(user);
+        comment.setImage(image);
+
+        Mockito.when(imageService.getImageDetail(Mockito.anyInt()))
+                .thenReturn(new ImageDetail(image, image.getTags(), new CommentPage(Collections.singletonList(comment), null)));
 
         this.mockMvc.perform(get("/images/1/new").session(session))
                 .andExpect(view().name("images/image"))
-                .andExpect(content().string(containsString("Welcome User. This is the image")));
+                .andExpect(content().string(containsString("Welcome User. This is the image")))
+                .andExpect(content().string(containsString("Nice picture")));
 
     }
 
 
+    //This test checks the controller logic when the bytes of an image are requested and checks whether the bytes stored for the image are returned with its MIME type
+    @Test
+    public void getImageFile() throws Exception {
+        Image image = new Image();
+        image.setId(1);
+        image.setTitle("new");
+        image.setImageKey("key");
+        image.setContentType("image/png");
+
+        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageFile(image, DerivativeSize.ORIGINAL)).thenReturn(new ByteArrayResource("some_image".getBytes()));
+
+        this.mockMvc.perform(get("/images/1/raw"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(content().bytes("some_image".getBytes()));
+    }
+
+
+    //This test checks the controller logic when a re-encoded variant of an image is requested with the 'quality' parameter and checks whether the variant is returned with its format
+    @Test
+    public void getImageFileVariant() throws Exception {
+        Image image = new Image();
+        image.setId(1);
+        image.setImageKey("hash");
+        image.setContentType("image/jpeg");
+
+        Variant variant = new Variant(VariantFormat.JPEG, VariantQuality.LOW);
+        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(variantService.negotiate("image/jpeg", "image/*", "low")).thenReturn(variant);
+        Mockito.when(variantService.getVariant("hash", variant)).thenReturn(new ByteArrayResource("small".getBytes()));
+
+        this.mockMvc.perform(get("/images/1/raw").param("quality", "low").header("Accept", "image/*"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/jpeg"))
+                .andExpect(header().string("ETag", "\"hash-jpeg-low\""))
+                .andExpect(header().string("Vary", "Accept"))
+                .andExpect(content().bytes("small".getBytes()));
+        Mockito.verify(imageService, Mockito.never()).getImageFile(Mockito.any(), Mockito.any());
+    }
+
+
+    //This test checks the controller logic when a variant is requested while the server computes as many variants as it can and checks whether 503 is returned
+    @Test
+    public void getImageFileVariantBusy() throws Exception {
+        Image image = new Image();
+        image.setId(1);
+        image.setImageKey("hash");
+        image.setContentType("image/jpeg");
+
+        Variant variant = new Variant(VariantFormat.JPEG, VariantQuality.LOW);
+        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(variantService.negotiate("image/jpeg", "image/*", "low")).thenReturn(variant);
+        Mockito.when(variantService.getVariant("hash", variant)).thenThrow(new VariantBusyException());
+
+        this.mockMvc.perform(get("/images/1/raw").param("quality", "low").header("Accept", "image/*"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+
+    //This test checks the controller logic when a part of the bytes of an image is requested with a Range header and checks whether only that part is returned
+    @Test
+    public void getImageFileRange() throws Exception {
+        Image image = new Image();
+        image.setId(1);
+        image.setImageKey("hash");
+        image.setImageHash("hash");
+        image.setContentType("image/png");
+
+        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageFile(image, DerivativeSize.ORIGINAL)).thenReturn(new ByteArrayResource("some_image".getBytes()));
+
+        this.mockMvc.perform(get("/images/1/raw").param("v", "hash").header("Range", "bytes=5-9"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 5-9/10"))
+                .andExpect(header().string("Cache-Control", containsString("immutable")))
+                .andExpect(content().bytes("image".getBytes()));
+    }
+
+
+    //This test checks the controller logic when the browser revalidates a cached image with its ETag and checks whether 304 Not Modified is returned
+    @Test
+    public void getImageFileNotModified() throws Exception {
+        Image image = new Image();
+        image.setId(1);
+        image.setImageKey("hash");
+        image.setImageHash("hash");
+
+        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageFile(image, DerivativeSize.ORIGINAL)).thenReturn(new ByteArrayResource("some_image".getBytes()));
+
+        this.mockMvc.perform(get("/images/1/raw").header("If-None-Match", "\"hash\""))
+                .andExpect(status().isNotModified());
+    }
+
+
     //This test checks the controller logic when the logged in user sends a GET request to the server to get the form to upload an image in the application and checks whether the logic returns the html file 'images/upload.html'
     @Test
     public void uploadImageWithGetRequest() throws Exception {
@@ -153,6 +339,39 @@ public class ImageControllerTest {
                 .andExpect(redirectedUrl("/images"));
     }
 
+    //This test checks the controller logic when the upload is rejected by the upload pipeline and checks whether the upload page is shown again with the error
+    @Test
+    public void uploadImageWithInvalidFile() throws Exception {
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setId(1);
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        user.setProfile(userProfile);
+        user.setId(1);
+        user.setUsername("Abhi");
+        user.setPassword("password1@");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        MockMultipartFile mockFile = new MockMultipartFile("file", "image.jpg", "image/jpeg", "not_an_image".getBytes());
+
+        Mockito.doThrow(new InvalidUploadException("not_an_image", "Only JPEG, PNG, GIF, WebP and BMP images can be uploaded"))
+                .when(imageService).storeImageFile(Mockito.any(Image.class), Mockito.any(InputStreamSource.class));
+
+        Image image = new Image();
+        image.setTitle("new");
+        this.mockMvc.perform(multipart("/images/upload")
+                .file(mockFile)
+                .param("tags", "dog")
+                .flashAttr("newImage", image)
+                .session(session))
+                .andExpect(view().name("images/upload"))
+                .andExpect(model().attribute("uploadError", "Only JPEG, PNG, GIF, WebP and BMP images can be uploaded"));
+    }
+
     //This test checks the controller logic when the owner of the image sends the GET request to get the form to edit the image and checks whether the logic returns the html file 'images/edit.html'
     @Test
     public void editImageWithOwnerOfTheImage() throws Exception {
@@ -230,6 +449,8 @@ public class ImageControllerTest {
 
 
         Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageDetail(Mockito.anyInt()))
+                .thenReturn(new ImageDetail(image, Collections.emptyList(), new CommentPage(Collections.emptyList(), null)));
 
         this.mockMvc.perform(get("/editImage")
                 .param("imageId", "1")
@@ -305,6 +526,8 @@ public class ImageControllerTest {
 
 
         Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageDetail(Mockito.anyInt()))
+                .thenReturn(new ImageDetail(image, Collections.emptyList(), new CommentPage(Collections.emptyList(), null)));
 
         this.mockMvc.perform(delete("/deleteImage")
                 .param("imageId", "1")
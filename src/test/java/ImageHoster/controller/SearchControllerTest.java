@@ -0,0 +1,62 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ImageCard;
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.search.SearchService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(SearchController.class)
+public class SearchControllerTest {
+
+    protected MockHttpSession session;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private SearchService searchService;
+
+    //This test checks the controller logic when the user searches the images and checks whether the results are shown with the link to the next page of results
+    @Test
+    public void search() throws Exception {
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setId(1);
+        userProfile.setFullName("Abhi Mahajan");
+        user.setProfile(userProfile);
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        ImageCard card = new ImageCard(7, "Sunset on the beach", new Date(1000L), "hash", null, null, null, null, null, null, 0, 1, new Date(1000L));
+        Mockito.when(searchService.search("sunset", null)).thenReturn(new ImagePage(Collections.singletonList(card), "1"));
+
+        this.mockMvc.perform(get("/search").param("q", "sunset").session(session))
+                .andExpect(view().name("images"))
+                .andExpect(model().attribute("query", "sunset"))
+                .andExpect(content().string(containsString("Sunset on the beach")))
+                .andExpect(content().string(containsString("/search?q=sunset&amp;page=1")));
+    }
+}
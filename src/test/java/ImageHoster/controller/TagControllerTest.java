@@ -0,0 +1,78 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ImageCard;
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.search.TagQuery;
+import ImageHoster.search.TagQueryService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(TagController.class)
+public class TagControllerTest {
+
+    protected MockHttpSession session;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private TagQueryService tagQueryService;
+
+    @Before
+    public void setUp() {
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setId(1);
+        userProfile.setFullName("Abhi Mahajan");
+        user.setProfile(userProfile);
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+    }
+
+    //This test checks the controller logic when the user browses a tag and checks whether the images are shown with the link to the next page
+    @Test
+    public void getTaggedImages() throws Exception {
+        ImageCard card = new ImageCard(7, "Sunset on the beach", new Date(1000L), "hash", null, null, null, null, null, null, 0, 1, new Date(1000L));
+        Mockito.when(tagQueryService.browse(Mockito.any(TagQuery.class), Mockito.isNull()))
+                .thenReturn(new ImagePage(Collections.singletonList(card), "7"));
+
+        this.mockMvc.perform(get("/tags/sunset").session(session))
+                .andExpect(view().name("images"))
+                .andExpect(model().attribute("tagQuery", "sunset"))
+                .andExpect(content().string(containsString("Sunset on the beach")))
+                .andExpect(content().string(containsString("/tags?q=sunset&amp;after=7")));
+    }
+
+    //This test checks the controller logic when the tag query cannot be parsed and checks whether the reason is shown instead of images
+    @Test
+    public void queryTagsWithInvalidQuery() throws Exception {
+        this.mockMvc.perform(get("/tags").param("q", "sunset AND").session(session))
+                .andExpect(view().name("images"))
+                .andExpect(model().attributeExists("queryError"));
+
+        Mockito.verify(tagQueryService, Mockito.never()).browse(Mockito.any(), Mockito.any());
+    }
+}
@@ -1,5 +1,6 @@
 package ImageHoster.controller;
 
+import ImageHoster.model.ImagePage;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
 import ImageHoster.service.ImageService;
@@ -160,6 +161,8 @@ public class UserControllerTest {
         session = new MockHttpSession();
         session.setAttribute("loggeduser", user);
 
+        Mockito.when(imageService.getImageFeed(Mockito.any())).thenReturn(ImagePage.empty());
+
         this.mockMvc.perform(post("/users/logout").session(session))
                 .andExpect(view().name("index"))
                 .andExpect(content().string(containsString("Image Hoster")));
@@ -0,0 +1,67 @@
+package ImageHoster.derivative;
+
+import ImageHoster.model.DerivativeStatus;
+import ImageHoster.model.Image;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.service.BlobReferenceService;
+import ImageHoster.storage.InMemoryBlobStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+
+import static org.mockito.ArgumentMatchers.any;
+
+public class DerivativeServiceTest {
+
+    private ImageRepository imageRepository;
+
+    private InMemoryBlobStore blobStore;
+
+    private DerivativeService derivativeService;
+
+    @Before
+    public void setUp() {
+        imageRepository = Mockito.mock(ImageRepository.class);
+        blobStore = new InMemoryBlobStore();
+        derivativeService = new DerivativeService();
+        ReflectionTestUtils.setField(derivativeService, "imageRepository", imageRepository);
+        ReflectionTestUtils.setField(derivativeService, "blobStore", blobStore);
+        ReflectionTestUtils.setField(derivativeService, "blobReferenceService", Mockito.mock(BlobReferenceService.class));
+        ReflectionTestUtils.setField(derivativeService, "imageDecoder", new ImageDecoder(1000));
+    }
+
+    //This test checks that an image whose file is missing from the store is marked FAILED, so that the sweep does not queue it forever
+    @Test
+    public void missingFileIsFailed() {
+        Mockito.when(imageRepository.getImage(1)).thenReturn(image("missing"));
+
+        derivativeService.generate(1);
+
+        Mockito.verify(imageRepository).updateDerivativeStatus(1, "missing", DerivativeStatus.FAILED);
+        Mockito.verify(imageRepository, Mockito.never()).updateDerivatives(any());
+    }
+
+    //This test checks that an image with more pixels than the decoder accepts is marked FAILED without being decoded
+    @Test
+    public void bombIsFailed() throws Exception {
+        String key = blobStore.put(new ByteArrayInputStream(ImageDecoderTest.bomb())).getKey();
+        Mockito.when(imageRepository.getImage(1)).thenReturn(image(key));
+
+        derivativeService.generate(1);
+
+        Mockito.verify(imageRepository).updateDerivativeStatus(1, key, DerivativeStatus.FAILED);
+        Mockito.verify(imageRepository, Mockito.never()).updateDerivatives(any());
+    }
+
+    private static Image image(String imageKey) {
+        Image image = new Image();
+        image.setId(1);
+        image.setImageKey(imageKey);
+        image.setContentType("image/gif");
+        image.setDerivativeStatus(DerivativeStatus.PENDING);
+        return image;
+    }
+}
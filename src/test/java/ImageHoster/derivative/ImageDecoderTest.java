@@ -0,0 +1,59 @@
+package ImageHoster.derivative;
+
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ImageDecoderTest {
+
+    //The smallest valid GIF, one transparent pixel
+    private static final byte[] GIF = {
+            'G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0, (byte) 0x80, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+            '!', (byte) 0xf9, 4, 1, 0, 0, 0, 0, ',', 0, 0, 0, 0, 1, 0, 1, 0, 0, 2, 2, 'D', 1, 0, ';'};
+
+    private final ImageDecoder decoder = new ImageDecoder(1000);
+
+    //This test checks that an image within the limit is decoded
+    @Test
+    public void smallImageIsDecoded() throws IOException {
+        BufferedImage image = decoder.read(new ByteArrayInputStream(GIF));
+
+        assertEquals(1, image.getWidth());
+        assertEquals(1, image.getHeight());
+    }
+
+    //This test checks that the dimensions declared by the header of a bomb are read, and that it is not decoded
+    @Test
+    public void bombIsNotDecoded() throws IOException {
+        byte[] bomb = bomb();
+
+        assertEquals(new Dimension(65535, 65535), decoder.readDimensions(new ByteArrayInputStream(bomb)));
+        try {
+            decoder.read(new ByteArrayInputStream(bomb));
+            fail();
+        } catch (ImageTooLargeException e) {
+            assertEquals(1000, e.getMaxPixels());
+        }
+    }
+
+    //This test checks that bytes without an ImageIO reader are not an error
+    @Test
+    public void unknownFormatIsNull() throws IOException {
+        assertNull(decoder.readDimensions(new ByteArrayInputStream("RIFF....WEBP".getBytes())));
+        assertNull(decoder.read(new ByteArrayInputStream("RIFF....WEBP".getBytes())));
+    }
+
+    //The GIF above whose screen and image descriptor declare 65535 x 65535 pixels, 16 GB of heap once decoded
+    static byte[] bomb() {
+        byte[] bomb = GIF.clone();
+        for (int i : new int[]{6, 7, 8, 9, 32, 33, 34, 35}) {
+            bomb[i] = (byte) 0xff;
+        }
+        return bomb;
+    }
+}
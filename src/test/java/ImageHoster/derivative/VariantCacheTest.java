@@ -0,0 +1,78 @@
+package ImageHoster.derivative;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class VariantCacheTest {
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("variants");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    //This test checks that a variant is computed once and then served from the cache
+    @Test
+    public void computedOnce() throws IOException {
+        VariantCache cache = new VariantCache(root, 1000);
+        AtomicInteger loads = new AtomicInteger();
+
+        Path first = cache.get("a-jpeg-low", () -> bytes(loads, 100));
+        Path second = cache.get("a-jpeg-low", () -> bytes(loads, 100));
+
+        assertEquals(first, second);
+        assertEquals(1, loads.get());
+        assertEquals(100, Files.size(first));
+    }
+
+    //This test checks that the least recently served variants are deleted once the cache grows beyond its size
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        VariantCache cache = new VariantCache(root, 250);
+        AtomicInteger loads = new AtomicInteger();
+
+        Path a = cache.get("a", () -> bytes(loads, 100));
+        Path b = cache.get("b", () -> bytes(loads, 100));
+        cache.get("a", () -> bytes(loads, 100));
+        Path c = cache.get("c", () -> bytes(loads, 100));
+
+        assertTrue(Files.exists(a));
+        assertFalse(Files.exists(b));
+        assertTrue(Files.exists(c));
+        assertEquals(200, cache.getSize());
+        assertEquals(3, loads.get());
+    }
+
+    //This test checks that the cached variants are found again after a restart
+    @Test
+    public void reloadAfterRestart() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+        new VariantCache(root, 1000).get("a", () -> bytes(loads, 100));
+
+        VariantCache reopened = new VariantCache(root, 1000);
+        reopened.get("a", () -> bytes(loads, 100));
+
+        assertEquals(1, loads.get());
+        assertEquals(100, reopened.getSize());
+    }
+
+    private byte[] bytes(AtomicInteger loads, int size) {
+        loads.incrementAndGet();
+        return new byte[size];
+    }
+}
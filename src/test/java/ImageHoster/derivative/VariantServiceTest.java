@@ -0,0 +1,143 @@
+package ImageHoster.derivative;
+
+import ImageHoster.storage.InMemoryBlobStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class VariantServiceTest {
+
+    private Path root;
+
+    private InMemoryBlobStore blobStore;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private VariantService variantService;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("variants");
+        blobStore = new InMemoryBlobStore();
+        meterRegistry = new SimpleMeterRegistry();
+        variantService = new VariantService();
+        ReflectionTestUtils.setField(variantService, "blobStore", blobStore);
+        ReflectionTestUtils.setField(variantService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(variantService, "imageDecoder", new ImageDecoder(1000000));
+        ReflectionTestUtils.setField(variantService, "variantDir", root.toString());
+        ReflectionTestUtils.setField(variantService, "cacheSize", 1L);
+        ReflectionTestUtils.setField(variantService, "maxConcurrentEncodes", 1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    //This test checks that a file is sent as it is without a quality tier when the client accepts its format
+    @Test
+    public void acceptedFormatIsNotReencoded() {
+        assertNull(variantService.negotiate("image/png", "image/webp,image/*;q=0.8", null));
+        assertNull(variantService.negotiate("image/jpeg", null, null));
+    }
+
+    //This test checks that a file whose format the client does not accept is re-encoded into one it accepts, at the high tier
+    @Test
+    public void unacceptedFormatIsReencoded() {
+        Variant variant = variantService.negotiate("image/webp", "image/png,image/jpeg;q=0.9", null);
+
+        assertEquals(VariantFormat.PNG, variant.getFormat());
+        assertNull(variant.getQuality());
+        assertEquals(VariantQuality.HIGH, variantService.negotiate("image/webp", "image/jpeg", null).getQuality());
+    }
+
+    //This test checks that a quality tier picks a lossy format first, unless the file may have transparency
+    @Test
+    public void qualityTierPrefersLossy() {
+        Variant opaque = variantService.negotiate("image/jpeg", "*/*", "low");
+        assertEquals(VariantFormat.JPEG, opaque.getFormat());
+        assertEquals(VariantQuality.LOW, opaque.getQuality());
+
+        //a lossless file is not re-encoded into its own format
+        assertNull(variantService.negotiate("image/png", "*/*", "low"));
+    }
+
+    //This test checks that the most specific media range wins, 'image/png;q=0' excludes PNG whatever '*/*' accepts
+    @Test
+    public void specificRangeExcludesFormat() {
+        Variant variant = variantService.negotiate("image/png", "*/*,image/png;q=0", null);
+
+        assertEquals(VariantFormat.JPEG, variant.getFormat());
+    }
+
+    //This test checks that a file is sent as it is when the client accepts none of the formats, and that an invalid header accepts all
+    @Test
+    public void noAcceptableFormat() {
+        assertNull(variantService.negotiate("image/webp", "image/avif", "low"));
+        assertEquals(VariantFormat.JPEG, variantService.negotiate("image/jpeg", "not a media type", "medium").getFormat());
+    }
+
+    //This test checks that a variant evicted from the cache before the response opens it is computed again
+    @Test
+    public void evictedVariantIsComputedAgain() throws IOException {
+        variantService.init();
+        Variant variant = new Variant(VariantFormat.JPEG, VariantQuality.LOW);
+        String first = blobStore.put(new ByteArrayInputStream(png(Color.RED))).getKey();
+        String second = blobStore.put(new ByteArrayInputStream(png(Color.BLUE))).getKey();
+
+        Resource resource = variantService.getVariant(first, variant);
+        byte[] bytes = read(resource);
+        //the cache holds one byte, the second variant evicts the first
+        variantService.getVariant(second, variant);
+        assertFalse(Files.exists(root.resolve(variant.keyOf(first))));
+
+        assertEquals(bytes.length, resource.contentLength());
+        assertArrayEquals(bytes, read(resource));
+    }
+
+    //This test checks that a variant which is not cached is refused while as many variants as allowed are being computed
+    @Test
+    public void busyEncodeIsRejected() throws IOException {
+        ReflectionTestUtils.setField(variantService, "maxConcurrentEncodes", 0);
+        variantService.init();
+        String key = blobStore.put(new ByteArrayInputStream(png(Color.RED))).getKey();
+
+        try {
+            variantService.getVariant(key, new Variant(VariantFormat.JPEG, VariantQuality.LOW));
+            fail();
+        } catch (VariantBusyException e) {
+            assertEquals(1.0, meterRegistry.counter("imagehoster.variants.requests", "result", "rejected").count(), 0);
+        }
+    }
+
+    private static byte[] read(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return StreamUtils.copyToByteArray(in);
+        }
+    }
+
+    private static byte[] png(Color color) throws IOException {
+        BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, color.getRGB());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
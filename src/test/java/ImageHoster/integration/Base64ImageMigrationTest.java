@@ -0,0 +1,95 @@
+package ImageHoster.integration;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.service.TagService;
+import ImageHoster.service.UserService;
+import ImageHoster.storage.Base64ImageMigration;
+import ImageHoster.storage.BlobStore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+//Runs Base64ImageMigration against an embedded database holding an image uploaded before the BlobStore existed, its file inline in 'imageFile'
+//The migration runs when the application starts, before any request, so the image it updates is detached and its tags are not loaded
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("integration")
+public class Base64ImageMigrationTest {
+
+    @Autowired
+    private Base64ImageMigration base64ImageMigration;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private TagService tagService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    //This test checks that the file of a legacy image is moved into the BlobStore and that its counters still match its tags
+    @Test
+    public void inlineImageIsMoved() throws Exception {
+        byte[] bytes = png();
+        Image image = new Image();
+        image.setTitle("legacy");
+        image.setDescription("uploaded before the blob store");
+        image.setUser(createUser("legacy"));
+        image.setDate(new Date());
+        image.setImageFile(Base64.getEncoder().encodeToString(bytes));
+        image.setTags(tagService.findOrCreateTags("legacy1,legacy2"));
+        imageRepository.uploadImage(image);
+
+        base64ImageMigration.run(null);
+
+        Image migrated = imageRepository.getImage(image.getId());
+        assertNull(migrated.getImageFile());
+        assertEquals("image/png", migrated.getContentType());
+        assertNotNull(blobStore.get(migrated.getImageKey()));
+        assertEquals(Integer.valueOf(2), jdbcTemplate.queryForObject("SELECT tag_count FROM images WHERE id = ?", Integer.class, image.getId()));
+        assertFalse(imageRepository.getImageIdsWithInlineFile().contains(image.getId()));
+    }
+
+    private User createUser(String username) {
+        UserProfile profile = new UserProfile();
+        profile.setFullName(username);
+        profile.setEmailAddress(username + "@example.com");
+        profile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("password1@");
+        user.setProfile(profile);
+        userService.registerUser(user);
+        return user;
+    }
+
+    private static byte[] png() throws IOException {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,91 @@
+package ImageHoster.integration;
+
+import ImageHoster.model.DerivativeStatus;
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.TagService;
+import ImageHoster.service.UserService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+//Runs ImageService.updateImage() against an embedded database, for an edit made while DerivativeService records the derivatives of the image
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("integration")
+public class ImageEditTest {
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private TagService tagService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    //This test checks that an edit without a new file keeps the derivatives recorded after the edit page was loaded
+    @Test
+    public void editKeepsDerivativesRecordedMeanwhile() {
+        User owner = createUser("editor");
+        Image image = new Image();
+        image.setTitle("lake");
+        image.setUser(owner);
+        image.setDate(new Date());
+        image.setImageKey("original-key");
+        image.setDerivativeStatus(DerivativeStatus.PENDING);
+        image.setTags(tagService.findOrCreateTags("lake"));
+        imageRepository.uploadImage(image);
+
+        //the edit page is loaded, then the derivatives are recorded
+        Image loaded = imageRepository.getImage(image.getId());
+        jdbcTemplate.update("UPDATE images SET derivative_status = 'READY', thumbnail_key = 'thumbnail-key', medium_key = 'medium-key' WHERE id = ?",
+                image.getId());
+
+        //the edit page sends back the title, description and tags only
+        Image updatedImage = new Image();
+        updatedImage.setId(loaded.getId());
+        updatedImage.setTitle("lake at dawn");
+        updatedImage.setUser(owner);
+        updatedImage.setDate(new Date());
+        updatedImage.setTags(tagService.findOrCreateTags("lake,dawn"));
+        imageService.updateImage(updatedImage, false);
+
+        Image edited = imageRepository.getImage(image.getId());
+        assertEquals("lake at dawn", edited.getTitle());
+        assertEquals("original-key", edited.getImageKey());
+        assertEquals(DerivativeStatus.READY, edited.getDerivativeStatus());
+        assertEquals("thumbnail-key", edited.getThumbnailKey());
+        assertEquals("medium-key", edited.getMediumKey());
+    }
+
+    private User createUser(String username) {
+        UserProfile profile = new UserProfile();
+        profile.setFullName(username);
+        profile.setEmailAddress(username + "@example.com");
+        profile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("password1@");
+        user.setProfile(profile);
+        userService.registerUser(user);
+        return user;
+    }
+}
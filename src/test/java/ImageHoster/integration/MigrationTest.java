@@ -0,0 +1,131 @@
+package ImageHoster.integration;
+
+import ImageHoster.model.BlobReference;
+import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
+import ImageHoster.model.Tag;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import org.flywaydb.core.Flyway;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Table;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+//Runs the migrations of db/migration and db/vendor/h2 on embedded databases, as Flyway does when the application starts (see spring.flyway.* in application.properties)
+//A database created by Hibernate before the migrations existed (db/hibernate-baseline.sql) is baselined at version 1 and only runs the later
+//scripts, it has to end up with the same schema as an empty database which runs all of them. The integration profile does not show a
+//difference between the two: its database is always empty, and Hibernate does not validate the schema of H2 (ddl-auto=none)
+public class MigrationTest {
+
+    //This test checks that a baselined database gets every table and column of the entities, and the same ones as a new database
+    @Test
+    public void baselinedDatabaseIsUpgraded() throws SQLException {
+        DataSource baselined = baselinedDatabase("baselinedSchema");
+        DataSource created = database("createdSchema");
+        migrate(created);
+
+        Map<String, Set<String>> columns = columns(baselined);
+        assertEquals(columns(created), columns);
+
+        for (Table table : entityTables()) {
+            String name = table.getName().toUpperCase();
+            assertTrue("Missing table " + name, columns.containsKey(name));
+            Iterator<Column> it = table.getColumnIterator();
+            while (it.hasNext()) {
+                String column = it.next().getName().toUpperCase();
+                assertTrue("Missing column " + name + "." + column, columns.get(name).stream().anyMatch(c -> c.startsWith(column + " ")));
+            }
+        }
+    }
+
+    //This test checks that the rows of a baselined database are repaired: the tags with the same name are merged and the counters are filled
+    @Test
+    public void baselinedDataIsRepaired() throws SQLException {
+        JdbcTemplate jdbc = new JdbcTemplate(baselinedDatabase("baselinedData"));
+
+        assertEquals(Integer.valueOf(1), jdbc.queryForObject("SELECT COUNT(*) FROM Tags WHERE name = 'nature'", Integer.class));
+        assertEquals(Integer.valueOf(1), jdbc.queryForObject("SELECT COUNT(*) FROM images_Tags WHERE images_id = 3", Integer.class));
+        assertEquals(Integer.valueOf(2), jdbc.queryForObject("SELECT COUNT(*) FROM images_Tags WHERE images_id = 4", Integer.class));
+        assertEquals(Integer.valueOf(2), jdbc.queryForObject("SELECT tag_count FROM images WHERE id = 4", Integer.class));
+        assertEquals(Integer.valueOf(1), jdbc.queryForObject("SELECT comment_count FROM images WHERE id = 3", Integer.class));
+        //the file is still in imageFile, Base64ImageMigration moves it to the store when the application starts
+        assertNull(jdbc.queryForObject("SELECT image_key FROM images WHERE id = 3", String.class));
+    }
+
+    private DataSource baselinedDatabase(String name) throws SQLException {
+        DataSource dataSource = database(name);
+        try (Connection connection = dataSource.getConnection()) {
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource("db/hibernate-baseline.sql"));
+        }
+        migrate(dataSource);
+        return dataSource;
+    }
+
+    private static DataSource database(String name) {
+        return new DriverManagerDataSource("jdbc:h2:mem:" + name + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    private static void migrate(DataSource dataSource) {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.setLocations("classpath:db/migration", "classpath:db/vendor/h2");
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersionAsString("1");
+        flyway.migrate();
+    }
+
+    //Returns the columns of every table of the database, as name and type
+    private static Map<String, Set<String>> columns(DataSource dataSource) throws SQLException {
+        Map<String, Set<String>> columns = new TreeMap<>();
+        try (Connection connection = dataSource.getConnection();
+             ResultSet rs = connection.getMetaData().getColumns(null, "PUBLIC", null, null)) {
+            while (rs.next()) {
+                columns.computeIfAbsent(rs.getString("TABLE_NAME"), table -> new TreeSet<>())
+                        .add(rs.getString("COLUMN_NAME") + " " + rs.getString("TYPE_NAME"));
+            }
+        }
+        return columns;
+    }
+
+    //Returns the tables the entities are mapped to
+    private static Iterable<Table> entityTables() {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting("hibernate.dialect", H2Dialect.class.getName())
+                .applySetting("hibernate.temp.use_jdbc_metadata_defaults", false)
+                .build();
+        try {
+            Metadata metadata = new MetadataSources(registry)
+                    .addAnnotatedClass(UserProfile.class)
+                    .addAnnotatedClass(User.class)
+                    .addAnnotatedClass(Image.class)
+                    .addAnnotatedClass(Tag.class)
+                    .addAnnotatedClass(Comment.class)
+                    .addAnnotatedClass(BlobReference.class)
+                    .buildMetadata();
+            return metadata.collectTableMappings();
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package ImageHoster.integration;
+
+import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.service.CommentService;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.TagService;
+import ImageHoster.service.UserService;
+import ImageHoster.trending.TrendingService;
+import org.hibernate.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.MockMvcPrint;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import javax.imageio.ImageIO;
+import javax.persistence.EntityManagerFactory;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+//Runs the application against an embedded database and checks that every request stays within its budget of JDBC statements
+//The budgets are fixed numbers which do not grow with the data: the images have many tags and comments, so an N+1 query pattern
+//(a query per image, tag, comment or author) exceeds the budget and fails the build, the failure lists the executed statements
+//Every request is made with an empty second-level cache, the budget is the cost of a cold page
+//The model is not printed, the EntityManager of the request is already closed when MockMvc would print it
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc(print = MockMvcPrint.NONE)
+@ActiveProfiles("integration")
+@Import(StatementCountingConfig.class)
+public class StatementBudgetTest {
+
+    private static final int IMAGES = 25;
+
+    private static final int TAGS_PER_IMAGE = 4;
+
+    private static final int COMMENTS_PER_IMAGE = 8;
+
+    //The data is created once for all the tests, the application context and its database are shared by them
+    private static User owner;
+
+    private static Integer imageId;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private TagService tagService;
+
+    @Autowired
+    private CommentService commentService;
+
+    @Autowired
+    private TrendingService trendingService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private MockHttpSession session;
+
+    @Before
+    public void setUp() throws IOException {
+        if (owner == null) {
+            owner = createUser("owner");
+            User commenter = createUser("commenter");
+            for (int i = 0; i < IMAGES; i++) {
+                Image image = createImage(owner, "image" + i, i);
+                for (int c = 0; c < COMMENTS_PER_IMAGE; c++) {
+                    createComment(image, c % 2 == 0 ? owner : commenter, "comment" + c);
+                }
+                imageId = image.getId();
+            }
+        }
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", owner);
+    }
+
+    //The first page of the feed is a single query selecting only the columns of the cards
+    @Test
+    public void homePage() throws Exception {
+        perform(1, get("/"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void imageFeed() throws Exception {
+        perform(1, get("/images").session(session))
+                .andExpect(status().isOk());
+    }
+
+    //The image with its owner and tags, and the first page of comments with their authors, see ImageService.getImageDetail()
+    @Test
+    public void imageDetail() throws Exception {
+        perform(2, get("/images/" + imageId + "/title").session(session))
+                .andExpect(status().isOk());
+    }
+
+    //The images are ranked by the in-memory search index, only the cards of the page are loaded, in one query
+    @Test
+    public void search() throws Exception {
+        perform(1, get("/search").param("q", "description").session(session))
+                .andExpect(status().isOk());
+    }
+
+    //The images are selected by the in-memory bitmaps of the tags, only the cards of the page are loaded, in one query
+    @Test
+    public void tagQuery() throws Exception {
+        perform(1, get("/tags").param("q", "tag3 OR tag10 NOT tag4").session(session))
+                .andExpect(status().isOk());
+    }
+
+    //The gallery of a user: the id of the user, the ids of their newest images (once, then cached) and the cards of the page
+    //The next page comes from the cached ids, only the id of the user and the cards are queried
+    @Test
+    public void userGallery() throws Exception {
+        perform(3, get("/users/owner/images").session(session))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("nextPage", notNullValue()));
+        perform(2, get("/users/owner/images").param("after", imageId.toString()).session(session))
+                .andExpect(status().isOk());
+    }
+
+    //A page of the trending feed is a slice of the top held in memory, only the cards of the page are loaded
+    @Test
+    public void trendingFeed() throws Exception {
+        trendingService.recordView(imageId);
+        perform(1, get("/").param("sort", "trending").param("window", "week"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void imageFile() throws Exception {
+        perform(1, get("/images/" + imageId + "/raw"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void editPage() throws Exception {
+        perform(2, get("/editImage").param("imageId", imageId.toString()).session(session))
+                .andExpect(status().isOk());
+    }
+
+    //The update of the comment count of the image, the id from the sequence and the insert, the image itself is not loaded
+    @Test
+    public void addComment() throws Exception {
+        perform(3, post("/image/" + imageId + "/title/comments").param("text", "one more").session(session))
+                .andExpect(status().is3xxRedirection());
+    }
+
+    //Resolving the tags (lookup, insert of the new ones, lookup of the inserted ones), the id from the sequence, the insert of the image,
+    //one batch for the rows of images_Tags and the reference count of the blob (update, then insert for a new blob)
+    @Test
+    public void uploadImage() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "new.png", "image/png", png(99));
+        perform(8, multipart("/images/upload").file(file)
+                .param("title", "new").param("description", "new image").param("tags", "new1,new2,new3,tag1")
+                .session(session))
+                .andExpect(redirectedUrl("/images"));
+    }
+
+    //Performs the request with an empty second-level cache and fails if it executes more than 'budget' statements
+    private ResultActions perform(int budget, MockHttpServletRequestBuilder request) throws Exception {
+        SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        sessionFactory.getCache().evictAllRegions();
+
+        StatementCounter.start();
+        ResultActions result;
+        List<String> statements;
+        try {
+            result = mockMvc.perform(request);
+        } finally {
+            statements = StatementCounter.stop();
+        }
+        if (statements.size() > budget) {
+            StringBuilder message = new StringBuilder("Expected at most " + budget + " statements but " + statements.size() + " were executed:");
+            for (String statement : statements) {
+                message.append("\n  ").append(statement);
+            }
+            fail(message.toString());
+        }
+        return result;
+    }
+
+    private User createUser(String username) {
+        UserProfile profile = new UserProfile();
+        profile.setFullName(username);
+        profile.setEmailAddress(username + "@example.com");
+        profile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("password1@");
+        user.setProfile(profile);
+        userService.registerUser(user);
+        return user;
+    }
+
+    private Image createImage(User user, String title, int seed) throws IOException {
+        Image image = new Image();
+        image.setTitle(title);
+        image.setDescription("description of " + title);
+        image.setUser(user);
+        image.setDate(new Date());
+        imageService.storeImageFile(image, new ByteArrayResource(png(seed)));
+        StringBuilder tags = new StringBuilder();
+        for (int t = 0; t < TAGS_PER_IMAGE; t++) {
+            tags.append("tag").append(seed + t).append(",");
+        }
+        image.setTags(tagService.findOrCreateTags(tags.toString()));
+        imageService.uploadImage(image);
+        return image;
+    }
+
+    private void createComment(Image image, User user, String text) {
+        Comment comment = new Comment();
+        comment.setText(text);
+        comment.setDate(new Date());
+        comment.setUser(user);
+        commentService.createComment(image.getId(), comment);
+    }
+
+    //A small PNG whose bytes differ with the seed, so that every image has a blob of its own
+    private byte[] png(int seed) throws IOException {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,45 @@
+package ImageHoster.integration;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Records the JDBC statements executed by the current thread between start() and stop()
+//It is registered on the DataSource by StatementCountingConfig
+//Only the thread of the test is counted, the statements of background work (derivatives, scheduled sweeps) are ignored
+//A batch counts as one statement, it is sent to the database in one round trip
+public class StatementCounter implements QueryExecutionListener {
+
+    private static final ThreadLocal<List<String>> statements = new ThreadLocal<>();
+
+    public static void start() {
+        statements.set(new ArrayList<>());
+    }
+
+    //Returns the statements executed since start(), in order
+    public static List<String> stop() {
+        List<String> executed = statements.get();
+        statements.remove();
+        return executed;
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        List<String> executed = statements.get();
+        if (executed == null) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder();
+        for (QueryInfo query : queryInfoList) {
+            sql.append(sql.length() > 0 ? "; " : "").append(query.getQuery());
+        }
+        executed.add(sql.toString());
+    }
+}
@@ -0,0 +1,31 @@
+package ImageHoster.integration;
+
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import javax.sql.DataSource;
+
+//Wraps the DataSource of the application (see JpaConfig) in a datasource-proxy which reports every statement to StatementCounter
+//Only the outermost DataSource is wrapped, the pools behind it would otherwise count the same statements once more
+@TestConfiguration
+public class StatementCountingConfig {
+
+    //static, so that the post processor is registered before the DataSource is created
+    @Bean
+    public static BeanPostProcessor statementCountingDataSource() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && "dataSource".equals(beanName)) {
+                    return ProxyDataSourceBuilder.create((DataSource) bean)
+                            .name(beanName)
+                            .listener(new StatementCounter())
+                            .build();
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package ImageHoster.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+//The bitmaps are compared with TreeSets holding the same ids, the ids span several chunks which are sparse (arrays) or dense (bitmaps)
+public class IdBitmapTest {
+
+    //This test checks that adding and removing ids keeps the set exact while the chunks switch between arrays and bitmaps
+    @Test
+    public void addAndRemove() {
+        Random random = new Random(42);
+        IdBitmap bitmap = new IdBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 20000; i++) {
+            int id = random.nextInt(3 * 65536);
+            assertEquals(expected.add(id), bitmap.add(id));
+        }
+        for (int i = 0; i < 15000; i++) {
+            int id = random.nextInt(3 * 65536);
+            assertEquals(expected.remove(id), bitmap.remove(id));
+        }
+        assertEquals(expected.size(), bitmap.cardinality());
+        for (int id = 0; id < 3 * 65536; id += 7) {
+            assertEquals(expected.contains(id), bitmap.contains(id));
+        }
+    }
+
+    //This test checks and, or and andNot between sparse and dense chunks
+    @Test
+    public void setOperations() {
+        Random random = new Random(7);
+        IdBitmap sparse = new IdBitmap();
+        IdBitmap dense = new IdBitmap();
+        TreeSet<Integer> sparseIds = new TreeSet<>();
+        TreeSet<Integer> denseIds = new TreeSet<>();
+        for (int i = 0; i < 2000; i++) {
+            int id = random.nextInt(2 * 65536);
+            sparse.add(id);
+            sparseIds.add(id);
+        }
+        for (int i = 0; i < 60000; i++) {
+            int id = 65536 + random.nextInt(2 * 65536);
+            dense.add(id);
+            denseIds.add(id);
+        }
+
+        TreeSet<Integer> and = new TreeSet<>(sparseIds);
+        and.retainAll(denseIds);
+        TreeSet<Integer> or = new TreeSet<>(sparseIds);
+        or.addAll(denseIds);
+        TreeSet<Integer> andNot = new TreeSet<>(denseIds);
+        andNot.removeAll(sparseIds);
+
+        assertEquals(new ArrayList<>(and.descendingSet()), ids(sparse.and(dense)));
+        assertEquals(new ArrayList<>(and.descendingSet()), ids(dense.and(sparse)));
+        assertEquals(new ArrayList<>(or.descendingSet()), ids(sparse.or(dense)));
+        assertEquals(new ArrayList<>(andNot.descendingSet()), ids(dense.andNot(sparse)));
+        assertEquals(new ArrayList<>(new TreeSet<>(and).descendingSet()), ids(dense.and(dense).and(sparse)));
+    }
+
+    //This test checks that the ids are paged from the highest down, each page starting below the last id of the previous one
+    @Test
+    public void descendingPages() {
+        IdBitmap bitmap = new IdBitmap();
+        NavigableSet<Integer> expected = new TreeSet<>();
+        for (int id = 1; id < 200000; id += 3) {
+            bitmap.add(id);
+            expected.add(id);
+        }
+
+        List<Integer> paged = new ArrayList<>();
+        int before = Integer.MAX_VALUE;
+        int[] page;
+        while ((page = bitmap.descending(before, 1000)).length > 0) {
+            for (int id : page) {
+                paged.add(id);
+            }
+            before = page[page.length - 1];
+        }
+        assertEquals(new ArrayList<>(expected.descendingSet()), paged);
+
+        assertArrayEquals(new int[]{65533, 65530}, bitmap.descending(65536, 2));
+        assertEquals(0, bitmap.descending(1, 10).length);
+    }
+
+    private List<Integer> ids(IdBitmap bitmap) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id : bitmap.descending(Integer.MAX_VALUE, Integer.MAX_VALUE)) {
+            ids.add(id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,74 @@
+package ImageHoster.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class InvertedIndexTest {
+
+    //This test checks that the terms are lower-cased, stripped of their accents and split on anything but letters and digits
+    @Test
+    public void textIsTokenized() {
+        assertEquals(Arrays.asList("cafe", "au", "lait", "2018"), Tokenizer.tokenize("Café-au-LAIT, 2018!"));
+        assertTrue(Tokenizer.tokenize(null).isEmpty());
+    }
+
+    //This test checks that an image matching the query in its title ranks before one matching it in its tags or its description,
+    //and that an image matching more terms of the query ranks first
+    @Test
+    public void resultsAreRankedByField() {
+        InvertedIndex index = new InvertedIndex();
+        index.put(1, "Holidays", "A sunset over the sea", Collections.emptyList());
+        index.put(2, "Sunset", "Taken from the hotel", Collections.emptyList());
+        index.put(3, "Evening", null, Collections.singletonList("sunset"));
+        index.put(4, "Beach at sunset", null, Collections.singletonList("beach"));
+        index.put(5, "Mountains", "Snow", Collections.emptyList());
+
+        //image 4 has the term in its title as well, but it is longer than the others
+        assertEquals(Arrays.asList(2, 3, 4, 1), index.search("sunset", 10));
+        assertEquals(Integer.valueOf(4), index.search("sunset beach", 10).get(0));
+        assertEquals(index.search("sunset", 10), index.search("SUNSET", 10));
+        assertTrue(index.search("forest", 10).isEmpty());
+        assertEquals(Arrays.asList(2, 3), index.search("sunset", 2));
+    }
+
+    //This test checks that an edited image is found by its new text only and a deleted image is not found anymore
+    @Test
+    public void updatesReplaceTheImage() {
+        InvertedIndex index = new InvertedIndex();
+        index.put(1, "Sunset", null, Collections.singletonList("beach"));
+        index.put(2, "Sunrise", null, Collections.emptyList());
+
+        index.put(1, "Forest", null, Collections.emptyList());
+        assertEquals(Collections.singletonList(1), index.search("forest", 10));
+        assertTrue(index.search("sunset beach", 10).isEmpty());
+
+        index.remove(2);
+        assertTrue(index.search("sunrise", 10).isEmpty());
+        assertEquals(1, index.size());
+        assertEquals(1, index.termCount());
+    }
+
+    //This test checks that the index merged from the parts built in parallel ranks like the index built one image at a time
+    @Test
+    public void mergedIndexMatchesIncrementalIndex() {
+        InvertedIndex whole = new InvertedIndex();
+        InvertedIndex first = new InvertedIndex();
+        InvertedIndex second = new InvertedIndex();
+        for (int id = 1; id <= 20; id++) {
+            String title = id % 3 == 0 ? "red sunset " + id : "blue sea " + id;
+            String description = id % 2 == 0 ? "sunset" : "morning";
+            whole.put(id, title, description, Collections.singletonList("tag" + id % 4));
+            (id <= 10 ? first : second).put(id, title, description, Collections.singletonList("tag" + id % 4));
+        }
+
+        InvertedIndex merged = InvertedIndex.merge(Arrays.asList(first, second));
+
+        assertEquals(whole.size(), merged.size());
+        assertEquals(whole.termCount(), merged.termCount());
+        assertEquals(whole.search("sunset tag1", 20), merged.search("sunset tag1", 20));
+    }
+}
@@ -0,0 +1,72 @@
+package ImageHoster.search;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class TagIndexTest {
+
+    private TagIndex index;
+
+    @Before
+    public void setUp() {
+        index = new TagIndex();
+        index.put(1, Arrays.asList("sunset", "beach"));
+        index.put(2, Arrays.asList("sunset", "beach", "night"));
+        index.put(3, Arrays.asList("sunset", "mountain"));
+        index.put(4, Arrays.asList("beach"));
+        index.put(5, Arrays.asList("New York", "night"));
+        index.put(6, Collections.emptyList());
+    }
+
+    //This test checks the boolean operators, their precedence and the implicit AND, the images are returned newest first
+    @Test
+    public void queriesAreEvaluated() {
+        assertArrayEquals(new int[]{1}, query("sunset AND beach NOT night"));
+        assertArrayEquals(new int[]{1}, query("sunset beach NOT night"));
+        assertArrayEquals(new int[]{4, 3, 2, 1}, query("sunset OR beach"));
+        assertArrayEquals(new int[]{3, 2, 1}, query("sunset AND (beach OR mountain)"));
+        assertArrayEquals(new int[]{4, 3, 2, 1}, query("sunset OR beach AND NOT night"));
+        assertArrayEquals(new int[]{4, 3, 1}, query("(sunset OR beach) AND NOT night"));
+        assertArrayEquals(new int[]{6, 4, 3, 1}, query("NOT night"));
+        assertArrayEquals(new int[]{5}, query("\"New York\""));
+        assertArrayEquals(new int[0], query("unknown"));
+        assertArrayEquals(new int[]{2}, index.query(TagQuery.tag("sunset"), 3, 1));
+    }
+
+    //This test checks that an edited image leaves the bitmaps of its previous tags and a deleted image leaves the index
+    @Test
+    public void updatesReplaceTheTags() {
+        index.put(2, Collections.singletonList("mountain"));
+        assertArrayEquals(new int[]{3, 2}, query("mountain"));
+        assertArrayEquals(new int[0], query("sunset AND night"));
+
+        index.remove(3);
+        assertArrayEquals(new int[]{2}, query("mountain"));
+        assertEquals(5, index.size());
+    }
+
+    //This test checks that the queries which cannot be parsed are rejected with the reason, and that names are quoted when needed
+    @Test
+    public void invalidQueriesAreRejected() {
+        for (String query : Arrays.asList("", "sunset AND", "(sunset", "sunset OR OR beach", "\"New York")) {
+            try {
+                TagQuery.parse(query);
+                fail("'" + query + "' should not be parsed");
+            } catch (IllegalArgumentException e) {
+                assertNotNull(e.getMessage());
+            }
+        }
+        assertEquals("sunset", TagQuery.quote("sunset"));
+        assertEquals("\"New York\"", TagQuery.quote("New York"));
+        assertEquals("\"NOT\"", TagQuery.quote("NOT"));
+    }
+
+    private int[] query(String query) {
+        return index.query(TagQuery.parse(query), Integer.MAX_VALUE, 100);
+    }
+}
@@ -0,0 +1,80 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.BlobReferenceRepository;
+import ImageHoster.storage.BlobInfo;
+import ImageHoster.storage.InMemoryBlobStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BlobReferenceServiceTest {
+
+    private static final byte[] BYTES = "some_image".getBytes();
+
+    private BlobReferenceRepository blobReferenceRepository;
+
+    private InMemoryBlobStore blobStore;
+
+    private BlobReferenceService blobReferenceService;
+
+    @Before
+    public void setUp() {
+        blobReferenceRepository = Mockito.mock(BlobReferenceRepository.class);
+        blobStore = new InMemoryBlobStore();
+        blobReferenceService = new BlobReferenceService();
+        ReflectionTestUtils.setField(blobReferenceService, "blobReferenceRepository", blobReferenceRepository);
+        ReflectionTestUtils.setField(blobReferenceService, "blobStore", blobStore);
+    }
+
+    //This test checks that a blob which the collection deleted between the put() of an upload and its acquire() is stored again
+    @Test
+    public void blobCollectedBeforeAcquireIsStoredAgain() throws Exception {
+        BlobInfo blob = blobStore.put(new ByteArrayInputStream(BYTES));
+        blobStore.delete(blob.getKey());
+
+        blobReferenceService.acquire(blob, new ByteArrayResource(BYTES));
+
+        Mockito.verify(blobReferenceRepository).acquire(blob.getKey(), BYTES.length);
+        assertTrue(blobStore.exists(blob.getKey()));
+    }
+
+    //This test checks that the bytes are not read again when the blob is still stored
+    @Test
+    public void storedBlobIsNotStoredAgain() throws Exception {
+        BlobInfo blob = blobStore.put(new ByteArrayInputStream(BYTES));
+
+        blobReferenceService.acquire(blob, () -> {
+            throw new AssertionError("The blob is stored again");
+        });
+
+        Mockito.verify(blobReferenceRepository).acquire(blob.getKey(), BYTES.length);
+    }
+
+    //This test checks that the references taken over by an image are released in a new transaction when its transaction is rolled back only
+    @Test
+    public void referencesAreReleasedOnRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            blobReferenceService.releaseOnRollback(Arrays.asList("original", "thumbnail"));
+            TransactionSynchronization synchronization = TransactionSynchronizationManager.getSynchronizations().get(0);
+
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            Mockito.verifyZeroInteractions(blobReferenceRepository);
+
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            Mockito.verify(blobReferenceRepository).releaseInNewTransaction("original");
+            Mockito.verify(blobReferenceRepository).releaseInNewTransaction("thumbnail");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Comment;
+import ImageHoster.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+//Unless a test needs a slow viewer, the hub sends the events on the thread which publishes them, so that the tests see them right away
+public class CommentHubTest {
+
+    private SimpleMeterRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    //This test checks that a comment is sent to the streams of its image only
+    @Test
+    public void commentIsSentToViewersOfItsImage() {
+        CommentHub hub = hub(10);
+        RecordingEmitter first = new RecordingEmitter();
+        RecordingEmitter second = new RecordingEmitter();
+        RecordingEmitter other = new RecordingEmitter();
+        assertTrue(hub.subscribe(1, "a", first));
+        assertTrue(hub.subscribe(1, "b", second));
+        assertTrue(hub.subscribe(2, "c", other));
+
+        hub.publish(1, comment(7));
+
+        assertEquals(1, first.events.size());
+        assertEquals(1, second.events.size());
+        assertTrue(other.events.isEmpty());
+        assertEquals(2, registry.get("imagehoster.comments.stream.events").counter().count(), 0);
+    }
+
+    //This test checks that a comment published in a transaction is only sent once the transaction has committed
+    @Test
+    public void commentIsSentAfterCommit() {
+        CommentHub hub = hub(10);
+        RecordingEmitter emitter = new RecordingEmitter();
+        hub.subscribe(1, "a", emitter);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            hub.publish(1, comment(7));
+            assertTrue(emitter.events.isEmpty());
+
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCommit();
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(1, emitter.events.size());
+    }
+
+    //This test checks that the hub refuses new streams once it is full and that a stream which cannot be written to is dropped
+    @Test
+    public void fullHubAndClosedStreams() {
+        CommentHub hub = hub(1);
+        RecordingEmitter closed = new RecordingEmitter();
+        closed.failing = true;
+
+        assertTrue(hub.subscribe(1, "a", closed));
+        assertFalse(hub.subscribe(1, "b", new RecordingEmitter()));
+        assertEquals(1, hub.size());
+        assertEquals(1, registry.get("imagehoster.comments.stream.subscribers").gauge().value(), 0);
+
+        hub.publish(1, comment(7));
+
+        assertEquals(0, hub.size());
+        assertTrue(hub.subscribe(1, "b", new RecordingEmitter()));
+    }
+
+    //This test checks that a client cannot open more than its own number of streams, whatever the room left in the hub
+    @Test
+    public void streamsPerClient() {
+        CommentHub hub = new CommentHub(registry, 60000, 10, 2, 32, 10000, new DirectExecutorService());
+        RecordingEmitter first = new RecordingEmitter();
+
+        assertTrue(hub.subscribe(1, "10.0.0.1", first));
+        assertTrue(hub.subscribe(2, "10.0.0.1", new RecordingEmitter()));
+        assertFalse(hub.subscribe(3, "10.0.0.1", new RecordingEmitter()));
+        assertTrue(hub.subscribe(3, "10.0.0.2", new RecordingEmitter()));
+
+        //a stream which is found closed gives its place back to its client
+        first.failing = true;
+        hub.publish(1, comment(7));
+        assertTrue(hub.subscribe(3, "10.0.0.1", new RecordingEmitter()));
+        assertEquals(3, hub.size());
+    }
+
+    //This test checks that a viewer which stops reading does not hold up the others, and is dropped once its queue is full
+    @Test
+    public void slowViewerIsDropped() throws Exception {
+        ExecutorService sender = Executors.newFixedThreadPool(2);
+        try {
+            CommentHub hub = new CommentHub(registry, 60000, 10, 10, 2, 10000, sender);
+            BlockingEmitter slow = new BlockingEmitter();
+            RecordingEmitter fast = new RecordingEmitter();
+            hub.subscribe(1, "a", slow);
+            hub.subscribe(1, "b", fast);
+
+            hub.publish(1, comment(1));
+            assertTrue(slow.sending.await(5, TimeUnit.SECONDS));
+            //the fast viewer gets every comment while the slow one holds a thread of the hub, the fourth overflows the queue of the slow one
+            for (int id = 1; id <= 4; id++) {
+                if (id > 1) {
+                    hub.publish(1, comment(id));
+                }
+                long deadline = System.currentTimeMillis() + 5000;
+                while (fast.events.size() < id && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(id, fast.events.size());
+            }
+            assertEquals(1, hub.size());
+            assertEquals(1, registry.get("imagehoster.comments.stream.dropped").counter().count(), 0);
+            slow.release.countDown();
+        } finally {
+            sender.shutdownNow();
+        }
+    }
+
+    //This test checks that the heartbeat drops a viewer whose send has been blocked for longer than the write timeout
+    @Test
+    public void blockedSendIsDroppedByHeartbeat() throws Exception {
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        try {
+            CommentHub hub = new CommentHub(registry, 60000, 10, 10, 32, 1, sender);
+            BlockingEmitter slow = new BlockingEmitter();
+            hub.subscribe(1, "a", slow);
+
+            hub.publish(1, comment(1));
+            assertTrue(slow.sending.await(5, TimeUnit.SECONDS));
+            Thread.sleep(20);
+            hub.heartbeat();
+
+            assertEquals(0, hub.size());
+            assertEquals(1, registry.get("imagehoster.comments.stream.dropped").counter().count(), 0);
+            slow.release.countDown();
+        } finally {
+            sender.shutdownNow();
+        }
+    }
+
+    private CommentHub hub(int maxSubscribers) {
+        return new CommentHub(registry, 60000, maxSubscribers, 10, 32, 10000, new DirectExecutorService());
+    }
+
+    private Comment comment(Integer id) {
+        User user = new User();
+        user.setUsername("Abhi");
+        Comment comment = new Comment();
+        comment.setId(id);
+        comment.setText("Nice picture");
+        comment.setUser(user);
+        comment.setDate(new Date());
+        return comment;
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+
+        private final List<SseEventBuilder> events = Collections.synchronizedList(new ArrayList<>());
+
+        private boolean failing;
+
+        @Override
+        public void send(SseEventBuilder event) throws IOException {
+            if (failing) {
+                throw new IOException("Broken pipe");
+            }
+            events.add(event);
+        }
+    }
+
+    //A viewer whose connection has stopped reading: the first send blocks until the test releases it
+    private static class BlockingEmitter extends SseEmitter {
+
+        private final CountDownLatch sending = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void send(SseEventBuilder event) throws IOException {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class DirectExecutorService extends AbstractExecutorService {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
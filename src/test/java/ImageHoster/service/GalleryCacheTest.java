@@ -0,0 +1,78 @@
+package ImageHoster.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GalleryCacheTest {
+
+    //This test checks that the pages are sliced from the cached ids, and that a page deeper than the ids of a larger gallery is not
+    @Test
+    public void pagesAreSlicedFromTheIds() {
+        GalleryCache cache = new GalleryCache(new SimpleMeterRegistry(), 10, 4, 60000);
+
+        GalleryCache.Gallery complete = cache.put(1, cache.stamp(1), new int[]{9, 7, 5});
+        assertArrayEquals(new int[]{9, 7}, complete.page(Integer.MAX_VALUE, 2));
+        assertArrayEquals(new int[]{5}, complete.page(7, 2));
+        assertArrayEquals(new int[]{5}, complete.page(6, 2));
+        assertArrayEquals(new int[0], complete.page(5, 2));
+
+        GalleryCache.Gallery partial = cache.put(2, cache.stamp(2), new int[]{20, 18, 16, 14, 12});
+        assertArrayEquals(new int[]{18, 16}, partial.page(20, 2));
+        assertNull(partial.page(16, 2));
+    }
+
+    //This test checks that a change invalidates the gallery of its owner only, and that a gallery loaded during the change is not kept
+    @Test
+    public void invalidationIsPartitionedByOwner() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        GalleryCache cache = new GalleryCache(registry, 10, 100, 60000);
+        cache.put(1, cache.stamp(1), new int[]{3, 1});
+        cache.put(2, cache.stamp(2), new int[]{2});
+
+        cache.invalidate(1);
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+
+        long stamp = cache.stamp(1);
+        cache.invalidate(1);
+        cache.put(1, stamp, new int[]{3, 1});
+        assertNull(cache.get(1));
+
+        assertEquals(1, registry.get("imagehoster.galleries.cache.invalidations").counter().count(), 0);
+        assertEquals(1, registry.get("imagehoster.galleries.cache.requests").tag("result", "hit").counter().count(), 0);
+    }
+
+    //This test checks that the cache stays within its size and keeps the galleries which are looked up
+    @Test
+    public void rarelyViewedGalleriesAreEvicted() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        GalleryCache cache = new GalleryCache(registry, 10, 100, 60000);
+        cache.put(0, cache.stamp(0), new int[]{1});
+        for (int owner = 1; owner <= 100; owner++) {
+            cache.get(0);
+            cache.put(owner, cache.stamp(owner), new int[]{owner});
+        }
+
+        assertTrue(cache.size() <= 10);
+        assertNotNull(cache.get(0));
+        assertTrue(registry.get("imagehoster.galleries.cache.evictions").counter().count() >= 90);
+    }
+
+    //This test checks that a gallery expires, so that the changes made on other nodes, which do not invalidate it, show up
+    @Test
+    public void galleriesExpire() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        GalleryCache expiring = new GalleryCache(registry, 10, 100, 0);
+        expiring.put(1, expiring.stamp(1), new int[]{3, 1});
+
+        assertNull(expiring.get(1));
+        assertEquals(0, expiring.size());
+        assertEquals(1.0, registry.get("imagehoster.galleries.cache.requests").tag("result", "miss").counter().count(), 0);
+
+        GalleryCache cache = new GalleryCache(new SimpleMeterRegistry(), 10, 100, 60000);
+        cache.put(1, cache.stamp(1), new int[]{3, 1});
+        assertNotNull(cache.get(1));
+    }
+}
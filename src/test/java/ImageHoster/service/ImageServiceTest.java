@@ -0,0 +1,159 @@
+package ImageHoster.service;
+
+import ImageHoster.derivative.DerivativeService;
+import ImageHoster.derivative.ImageDecoder;
+import ImageHoster.model.DerivativeStatus;
+import ImageHoster.model.Image;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.search.SearchService;
+import ImageHoster.search.TagQueryService;
+import ImageHoster.storage.BlobInfo;
+import ImageHoster.storage.InMemoryBlobStore;
+import ImageHoster.storage.InvalidUploadException;
+import ImageHoster.storage.UploadMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+
+public class ImageServiceTest {
+
+    //The smallest valid GIF, one transparent pixel
+    private static final byte[] GIF = {
+            'G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0, (byte) 0x80, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+            '!', (byte) 0xf9, 4, 1, 0, 0, 0, 0, ',', 0, 0, 0, 0, 1, 0, 1, 0, 0, 2, 2, 'D', 1, 0, ';'};
+
+    private ImageRepository imageRepository;
+
+    private BlobReferenceService blobReferenceService;
+
+    private DerivativeService derivativeService;
+
+    private ImageService imageService;
+
+    @Before
+    public void setUp() {
+        imageRepository = Mockito.mock(ImageRepository.class);
+        blobReferenceService = Mockito.mock(BlobReferenceService.class);
+        derivativeService = Mockito.mock(DerivativeService.class);
+        imageService = new ImageService();
+        ReflectionTestUtils.setField(imageService, "imageRepository", imageRepository);
+        ReflectionTestUtils.setField(imageService, "blobReferenceService", blobReferenceService);
+        ReflectionTestUtils.setField(imageService, "derivativeService", derivativeService);
+        ReflectionTestUtils.setField(imageService, "blobStore", new InMemoryBlobStore());
+        ReflectionTestUtils.setField(imageService, "uploadMetrics", new UploadMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(imageService, "searchService", Mockito.mock(SearchService.class));
+        ReflectionTestUtils.setField(imageService, "tagQueryService", Mockito.mock(TagQueryService.class));
+        ReflectionTestUtils.setField(imageService, "galleryCache", new GalleryCache(new SimpleMeterRegistry(), 10, 10, 60000));
+        ReflectionTestUtils.setField(imageService, "maxUploadSize", 1024L);
+        ReflectionTestUtils.setField(imageService, "imageDecoder", new ImageDecoder(1000));
+    }
+
+    //This test checks that an edit which uploads the same bytes again releases the previous references, the original included,
+    //since the image takes over the one taken by storeImageFile(), and that the derivatives are generated again
+    @Test
+    public void sameFileUploadedAgainReleasesThePreviousReferences() throws Exception {
+        Image image = image();
+        imageService.storeImageFile(image, new ByteArrayResource(GIF));
+        String originalKey = image.getImageKey();
+        Image current = image();
+        current.setImageKey(originalKey);
+        current.setThumbnailKey("thumbnail");
+        current.setMediumKey("medium");
+        Mockito.when(imageRepository.lockImage(1)).thenReturn(current);
+
+        Image updatedImage = image();
+        imageService.storeImageFile(updatedImage, new ByteArrayResource(GIF));
+        imageService.updateImage(updatedImage, true);
+
+        assertEquals(originalKey, updatedImage.getImageKey());
+        Mockito.verify(blobReferenceService, Mockito.times(2)).acquire(any(BlobInfo.class), any());
+        Mockito.verify(blobReferenceService).release(Arrays.asList(originalKey, "thumbnail", "medium"));
+        Mockito.verify(derivativeService).schedule(1);
+    }
+
+    //This test checks that an edit without a new file neither acquires nor releases a reference, and keeps the file and the derivatives
+    //of the locked row: they were recorded after the edit page was loaded, the edited image does not have them
+    @Test
+    public void editWithoutFileKeepsTheReferences() throws Exception {
+        Image current = image();
+        current.setImageKey("original");
+        current.setThumbnailKey("thumbnail");
+        current.setMediumKey("original");
+        current.setDerivativeStatus(DerivativeStatus.READY);
+        Mockito.when(imageRepository.lockImage(1)).thenReturn(current);
+        Image updatedImage = image();
+        updatedImage.setTitle("Lake at dawn");
+
+        imageService.updateImage(updatedImage, false);
+
+        Mockito.verify(imageRepository).updateImage(updatedImage);
+        assertEquals("Lake at dawn", updatedImage.getTitle());
+        assertEquals("thumbnail", updatedImage.getThumbnailKey());
+        assertEquals(DerivativeStatus.READY, updatedImage.getDerivativeStatus());
+
+        Mockito.verify(blobReferenceService, Mockito.never()).acquire(any(), any());
+        Mockito.verify(blobReferenceService, Mockito.never()).release(anyCollection());
+        Mockito.verify(derivativeService, Mockito.never()).schedule(any());
+    }
+
+    //This test checks that the reference taken by storeImageFile() is released when the transaction of the upload is rolled back,
+    //and that the image is only indexed and its derivatives queued once the transaction has committed
+    @Test
+    public void uploadIsCompletedOnCommit() throws Exception {
+        Image image = image();
+        imageService.storeImageFile(image, new ByteArrayResource(GIF));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            imageService.uploadImage(image);
+            Mockito.verify(blobReferenceService).releaseOnRollback(Collections.singletonList(image.getImageKey()));
+            Mockito.verify(derivativeService, Mockito.never()).schedule(any());
+
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCommit();
+            }
+            Mockito.verify(derivativeService).schedule(1);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    //This test checks that an image whose header declares more pixels than the limit is rejected, and its file released
+    @Test
+    public void bombIsRejected() throws Exception {
+        byte[] bomb = GIF.clone();
+        for (int i : new int[]{6, 7, 8, 9, 32, 33, 34, 35}) {
+            bomb[i] = (byte) 0xff;
+        }
+        Image image = image();
+
+        try {
+            imageService.storeImageFile(image, new ByteArrayResource(bomb));
+            fail();
+        } catch (InvalidUploadException e) {
+            assertEquals("too_many_pixels", e.getReason());
+            Mockito.verify(blobReferenceService).acquire(any(BlobInfo.class), any());
+            Mockito.verify(blobReferenceService).release(anyCollection());
+            assertNull(image.getImageKey());
+        }
+    }
+
+    private static Image image() {
+        Image image = new Image();
+        image.setId(1);
+        image.setTitle("Lake");
+        return image;
+    }
+}
@@ -0,0 +1,41 @@
+package ImageHoster.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TagDictionaryTest {
+
+    //This test checks that lookups are counted as hits and misses
+    @Test
+    public void lookupsAreCounted() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TagDictionary dictionary = new TagDictionary(registry, 10);
+        dictionary.put("dog", 1);
+
+        assertEquals(Integer.valueOf(1), dictionary.getId("dog"));
+        assertNull(dictionary.getId("cat"));
+
+        assertEquals(1, registry.get("imagehoster.tags.cache.requests").tag("result", "hit").counter().count(), 0);
+        assertEquals(1, registry.get("imagehoster.tags.cache.requests").tag("result", "miss").counter().count(), 0);
+        assertEquals(1, registry.get("imagehoster.tags.cache.size").gauge().value(), 0);
+    }
+
+    //This test checks that the cache stays within its size and keeps the names which are looked up
+    @Test
+    public void rarelyUsedTagsAreEvicted() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TagDictionary dictionary = new TagDictionary(registry, 10);
+        dictionary.put("dog", 0);
+        for (int i = 1; i <= 100; i++) {
+            dictionary.getId("dog");
+            dictionary.put("tag" + i, i);
+        }
+
+        assertTrue(dictionary.size() <= 10);
+        assertEquals(Integer.valueOf(0), dictionary.getId("dog"));
+        assertNull(dictionary.getId("tag1"));
+        assertTrue(registry.get("imagehoster.tags.cache.evictions").counter().count() >= 90);
+    }
+}
@@ -0,0 +1,100 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Tag;
+import ImageHoster.repository.TagRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+
+public class TagServiceTest {
+
+    private TagRepository tagRepository;
+
+    private TagDictionary tagDictionary;
+
+    private TagService tagService;
+
+    @Before
+    public void setUp() {
+        tagRepository = Mockito.mock(TagRepository.class);
+        tagDictionary = new TagDictionary(new SimpleMeterRegistry(), 100);
+        tagService = new TagService();
+        ReflectionTestUtils.setField(tagService, "tagRepository", tagRepository);
+        ReflectionTestUtils.setField(tagService, "tagDictionary", tagDictionary);
+    }
+
+    //This test checks that existing tags are resolved with a single query and nothing is inserted
+    @Test
+    public void existingTagsAreFetchedWithOneQuery() {
+        Mockito.when(tagRepository.findTags(anyCollection())).thenReturn(Arrays.asList(tag("cat"), tag("dog")));
+
+        List<Tag> tags = tagService.findOrCreateTags("dog, cat");
+
+        assertEquals(Arrays.asList("dog", "cat"), names(tags));
+        Mockito.verify(tagRepository, Mockito.times(1)).findTags(anyCollection());
+        Mockito.verify(tagRepository, Mockito.never()).insertTags(anyCollection());
+        Mockito.verify(tagRepository, Mockito.never()).createTag(any());
+    }
+
+    //This test checks that only the missing names are inserted, in one statement and in sorted order, and that the result keeps the order of the string
+    @Test
+    public void missingTagsAreInsertedInOneStatement() {
+        Mockito.when(tagRepository.findTags(Arrays.asList("dog", "cat", "bird")))
+                .thenReturn(Collections.singletonList(tag("cat")));
+        Mockito.when(tagRepository.findTags(Arrays.asList("bird", "dog")))
+                .thenReturn(Arrays.asList(tag("bird"), tag("dog")));
+
+        List<Tag> tags = tagService.findOrCreateTags("dog,cat, ,bird,dog");
+
+        assertEquals(Arrays.asList("dog", "cat", "bird"), names(tags));
+        Mockito.verify(tagRepository).insertTags(Arrays.asList("bird", "dog"));
+    }
+
+    //This test checks that the tags found once are taken from the TagDictionary afterwards, without a query
+    @Test
+    public void cachedTagsNeedNoQuery() {
+        Mockito.when(tagRepository.findTags(anyCollection())).thenReturn(Arrays.asList(tag("cat"), tag("dog")));
+        tagService.findOrCreateTags("dog,cat");
+        Mockito.reset(tagRepository);
+
+        List<Tag> tags = tagService.findOrCreateTags("cat,dog");
+
+        assertEquals(Arrays.asList("cat", "dog"), names(tags));
+        assertEquals("dog".hashCode(), tags.get(1).getId());
+        Mockito.verifyZeroInteractions(tagRepository);
+    }
+
+    //This test checks that a string without any name does not insert anything
+    @Test
+    public void emptyStringReturnsNoTags() {
+        Mockito.when(tagRepository.findTags(anyCollection())).thenReturn(Collections.emptyList());
+
+        assertTrue(tagService.findOrCreateTags(" , ").isEmpty());
+        Mockito.verify(tagRepository, Mockito.never()).insertTags(anyCollection());
+    }
+
+    private Tag tag(String name) {
+        Tag tag = new Tag(name);
+        tag.setId(name.hashCode());
+        return tag;
+    }
+
+    private List<String> names(List<Tag> tags) {
+        List<String> names = new ArrayList<>();
+        for (Tag tag : tags) {
+            names.add(tag.getName());
+        }
+        return names;
+    }
+}
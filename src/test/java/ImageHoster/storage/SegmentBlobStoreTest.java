@@ -0,0 +1,95 @@
+package ImageHoster.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class SegmentBlobStoreTest {
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("segments");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    //This test checks that a stored blob can be read back and that identical bytes are stored only once
+    @Test
+    public void putAndGet() throws IOException {
+        SegmentBlobStore store = new SegmentBlobStore(root.toString(), 1024 * 1024, 0.5);
+
+        BlobInfo first = store.put(bytes("first image"));
+        BlobInfo again = store.put(bytes("first image"));
+
+        assertEquals(first.getKey(), again.getKey());
+        assertEquals("first image", read(store.get(first.getKey())));
+        assertNull(store.get(ContentKeys.toKey(new byte[32])));
+        store.close();
+    }
+
+    //This test checks that the index is rebuilt at startup from sealed and unsealed segments, including the deletions
+    @Test
+    public void reloadAfterRestart() throws IOException {
+        //segments of 200 bytes hold a single record, so every put seals the previous segment
+        SegmentBlobStore store = new SegmentBlobStore(root.toString(), 200, 0.5);
+        BlobInfo kept = store.put(bytes("kept image"));
+        BlobInfo deleted = store.put(bytes("deleted image"));
+        store.delete(deleted.getKey());
+        BlobInfo last = store.put(bytes("last image"));
+        store.close();
+
+        SegmentBlobStore reloaded = new SegmentBlobStore(root.toString(), 200, 0.5);
+        assertEquals("kept image", read(reloaded.get(kept.getKey())));
+        assertEquals("last image", read(reloaded.get(last.getKey())));
+        assertFalse(reloaded.exists(deleted.getKey()));
+        reloaded.close();
+    }
+
+    //This test checks that compaction moves the blobs in use out of a mostly deleted segment and deletes the segment file
+    @Test
+    public void compactReclaimsDeletedBlobs() throws IOException {
+        SegmentBlobStore store = new SegmentBlobStore(root.toString(), 400, 0.5);
+        BlobInfo kept = store.put(bytes("kept image"));
+        BlobInfo deleted1 = store.put(bytes("deleted image one"));
+        BlobInfo deleted2 = store.put(bytes("deleted image two"));
+        store.delete(deleted1.getKey());
+        store.delete(deleted2.getKey());
+        //fill the active segment so that the first one is sealed
+        store.put(bytes(new String(new char[300])));
+
+        assertTrue(Files.exists(root.resolve("segment-00000001.dat")));
+        store.compact();
+        assertFalse(Files.exists(root.resolve("segment-00000001.dat")));
+        assertEquals("kept image", read(store.get(kept.getKey())));
+        store.close();
+
+        SegmentBlobStore reloaded = new SegmentBlobStore(root.toString(), 400, 0.5);
+        assertEquals("kept image", read(reloaded.get(kept.getKey())));
+        assertFalse(reloaded.exists(deleted1.getKey()));
+        assertFalse(reloaded.exists(deleted2.getKey()));
+        reloaded.close();
+    }
+
+    private ByteArrayInputStream bytes(String text) {
+        return new ByteArrayInputStream(text.getBytes());
+    }
+
+    private String read(Resource resource) throws IOException {
+        return new String(StreamUtils.copyToByteArray(resource.getInputStream()));
+    }
+}
@@ -0,0 +1,66 @@
+package ImageHoster.trending;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TrendingWindowTest {
+
+    private static final long HOUR = 3600000L;
+
+    //This test checks that the images are ranked by their decayed score: an old event counts half as much one half-life later
+    @Test
+    public void scoresDecayWithTheHalfLife() {
+        TrendingWindow window = new TrendingWindow("day", HOUR, 3, 10, 0);
+        window.add(1, 4, 0);
+        window.add(2, 3, 2 * HOUR);
+        assertArrayEquals(new int[]{2, 1}, window.top());
+
+        window.add(3, 1, 2 * HOUR);
+        window.add(3, 1, 2 * HOUR);
+        assertArrayEquals(new int[]{2, 3, 1}, window.top());
+
+        Map<Integer, Double> scores = window.scores(3 * HOUR);
+        assertEquals(0.5, scores.get(1), 1e-9);
+        assertEquals(1.5, scores.get(2), 1e-9);
+        assertEquals(1.0, scores.get(3), 1e-9);
+    }
+
+    //This test checks that only the 'size' best images are ranked, the 'capacity' best images are tracked and deleted images leave the top
+    @Test
+    public void topAndCapacityAreBounded() {
+        TrendingWindow window = new TrendingWindow("day", HOUR, 2, 3, 0);
+        for (int id = 1; id <= 4; id++) {
+            window.add(id, id, 0);
+        }
+        assertArrayEquals(new int[]{4, 3}, window.top());
+        assertEquals(3, window.tracked());
+        assertFalse(window.scores(0).containsKey(1));
+
+        window.add(2, 10, 0);
+        assertArrayEquals(new int[]{2, 4}, window.top());
+
+        window.remove(2);
+        assertArrayEquals(new int[]{4, 3}, window.top());
+    }
+
+    //This test checks that the values are rebased when they would grow too large, without changing the ranking or the scores
+    @Test
+    public void valuesAreRebasedOverTime() {
+        TrendingWindow window = new TrendingWindow("day", HOUR, 2, 10, 0);
+        window.add(1, 1, 0);
+        window.add(2, 1, HOUR);
+        long later = 1000 * HOUR;
+        window.add(3, 1, later);
+        assertArrayEquals(new int[]{3, 2}, window.top());
+        assertEquals(1.0, window.scores(later).get(3), 1e-9);
+        assertEquals(0.5, window.scores(later + HOUR).get(3), 1e-9);
+
+        //a checkpointed score restored at its time is the same score
+        TrendingWindow restored = new TrendingWindow("day", HOUR, 2, 10, later + HOUR);
+        restored.add(3, window.scores(later).get(3), later);
+        assertEquals(0.5, restored.scores(later + HOUR).get(3), 1e-9);
+    }
+}
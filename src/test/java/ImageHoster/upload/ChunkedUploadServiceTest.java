@@ -0,0 +1,81 @@
+package ImageHoster.upload;
+
+import ImageHoster.storage.InvalidUploadException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ChunkedUploadServiceTest {
+
+    private Path dir;
+
+    private ChunkedUploadService service;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("chunks");
+        service = new ChunkedUploadService();
+        ReflectionTestUtils.setField(service, "chunkDir", dir.toString());
+        ReflectionTestUtils.setField(service, "chunkSize", 1000);
+        ReflectionTestUtils.setField(service, "maxSessionsPerUser", 4);
+        ReflectionTestUtils.setField(service, "maxUploadSize", 1000000L);
+        service.init();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    //This test checks that concurrent creates of one user never open more uploads than the limit of the user
+    @Test
+    public void concurrentCreatesRespectTheLimit() throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit((Callable<Boolean>) () -> {
+                    start.await();
+                    try {
+                        service.create(1, 2500);
+                        return true;
+                    } catch (InvalidUploadException e) {
+                        assertEquals("too_many_uploads", e.getReason());
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+            int created = 0;
+            for (Future<Boolean> result : results) {
+                created += result.get() ? 1 : 0;
+            }
+            assertEquals(4, created);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        //another user still has all their places
+        assertNotNull(service.create(2, 2500));
+    }
+}
@@ -0,0 +1,70 @@
+-- A database as Hibernate created it (hibernate.hbm2ddl.auto=update) before the migrations were introduced, see MigrationTest
+-- This copy of the schema is frozen, unlike the migrations it never changes. The rows are the cases the migrations have to repair:
+-- two tags with the same name, the image keeps both of them, and an image whose file is still base64 in imageFile
+
+CREATE SEQUENCE hibernate_sequence START WITH 100 INCREMENT BY 1;
+
+CREATE TABLE user_profile (
+    id            INTEGER NOT NULL,
+    email_address VARCHAR(255),
+    full_name     VARCHAR(255),
+    mobile_number VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE users (
+    id         INTEGER NOT NULL,
+    password   VARCHAR(255),
+    username   VARCHAR(255),
+    profile_id INTEGER,
+    PRIMARY KEY (id),
+    CONSTRAINT users_profile_id_fkey FOREIGN KEY (profile_id) REFERENCES user_profile (id)
+);
+
+CREATE TABLE images (
+    id          INTEGER NOT NULL,
+    date        TIMESTAMP,
+    description VARCHAR(255),
+    imageFile   TEXT,
+    title       VARCHAR(255),
+    user_id     INTEGER,
+    PRIMARY KEY (id),
+    CONSTRAINT images_user_id_fkey FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+CREATE TABLE Tags (
+    id   INTEGER NOT NULL,
+    name VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE images_Tags (
+    images_id INTEGER NOT NULL,
+    tags_id   INTEGER NOT NULL,
+    CONSTRAINT images_tags_images_id_fkey FOREIGN KEY (images_id) REFERENCES images (id),
+    CONSTRAINT images_tags_tags_id_fkey FOREIGN KEY (tags_id) REFERENCES Tags (id)
+);
+
+CREATE TABLE comments (
+    id       INTEGER NOT NULL,
+    date     TIMESTAMP,
+    text     VARCHAR(255),
+    image_id INTEGER,
+    user_id  INTEGER,
+    PRIMARY KEY (id),
+    CONSTRAINT comments_image_id_fkey FOREIGN KEY (image_id) REFERENCES images (id),
+    CONSTRAINT comments_user_id_fkey FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+INSERT INTO user_profile (id, email_address, full_name, mobile_number) VALUES (1, 'abhi@upgrad.com', 'Abhi Mahajan', '9876543210');
+INSERT INTO users (id, password, username, profile_id) VALUES (2, 'password1@', 'upgrad', 1);
+INSERT INTO images (id, date, description, imageFile, title, user_id) VALUES (3, '2018-09-01 10:00:00', 'A lake', 'aW1hZ2U=', 'Lake', 2);
+INSERT INTO images (id, date, description, imageFile, title, user_id) VALUES (4, '2018-09-02 10:00:00', 'A street', 'aW1hZ2U=', 'Street', 2);
+INSERT INTO Tags (id, name) VALUES (5, 'nature');
+INSERT INTO Tags (id, name) VALUES (6, 'nature');
+INSERT INTO Tags (id, name) VALUES (7, 'city');
+INSERT INTO images_Tags (images_id, tags_id) VALUES (3, 5);
+INSERT INTO images_Tags (images_id, tags_id) VALUES (3, 6);
+INSERT INTO images_Tags (images_id, tags_id) VALUES (4, 6);
+INSERT INTO images_Tags (images_id, tags_id) VALUES (4, 7);
+INSERT INTO comments (id, date, text, image_id, user_id) VALUES (8, '2018-09-03 10:00:00', 'Nice lake', 3, 2);